@@ -0,0 +1,44 @@
+package metrics;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures what recording a call costs on top of the call itself: a timing of every call, as for
+ * saves and searches, against a sampled one, as for lookups and sealing a password. Run it with
+ * {@code -t} set to the number of cores to see the cost when every thread records the same operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class VaultMetricsBenchmark {
+    private long value;
+
+    /**
+     * The work being measured in the other benchmarks, without any recording.
+     */
+    @Benchmark
+    public long baseline() {
+        return ++value;
+    }
+
+    @Benchmark
+    public long time() {
+        try (VaultMetrics.Timing timing = VaultMetrics.time(Operation.LOOKUP)) {
+            timing.items(1);
+            return ++value;
+        }
+    }
+
+    @Benchmark
+    public long sample() {
+        try (VaultMetrics.Timing timing = VaultMetrics.sample(Operation.LOOKUP)) {
+            timing.items(1);
+            return ++value;
+        }
+    }
+}
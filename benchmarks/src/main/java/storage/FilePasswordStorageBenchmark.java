@@ -0,0 +1,106 @@
+package storage;
+
+import model.PasswordEntry;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures loading and saving a vault and the lookups that run against the loaded entries.
+ * Loading includes the PBKDF2 key derivation, which dominates it for small vaults.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class FilePasswordStorageBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    int size;
+
+    @Param({"false", "true"})
+    boolean offHeap;
+
+    private Path file;
+    private FilePasswordStorage storage;
+    private char[][] sources;
+    private char[][] logins;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = Files.createTempFile("vault-bench", ".dat");
+        storage = SyntheticVault.create(file, size, offHeap);
+        sources = new char[size][];
+        logins = new char[size][];
+        for (int i = 0; i < size; i++) {
+            sources[i] = SyntheticVault.source(i);
+            logins[i] = SyntheticVault.login(i);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        storage.close();
+        SyntheticVault.delete(file);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public FilePasswordStorage loadOrInit() {
+        FilePasswordStorage loaded = SyntheticVault.open(file, offHeap);
+        loaded.close();
+        return loaded;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void save() {
+        storage.save();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public PasswordEntry findBySourceAndLogin() {
+        int i = ThreadLocalRandom.current().nextInt(size);
+        return storage.findBySourceAndLogin(sources[i], logins[i]);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public List<PasswordEntry> searchIndexed() {
+        // Long enough for the trigram index; matches the entries whose number ends in the two digits
+        return storage.search(ThreadLocalRandom.current().nextInt(10) + "7.exa");
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public List<PasswordEntry> searchShortKeyword() {
+        // Too short for the trigram index, so every entry is checked
+        return storage.search("9@");
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public List<PasswordEntry> fuzzySearch() {
+        // Two edits away from a login word, so the BK-tree has to look beyond exact matches
+        return storage.fuzzySearch("usre" + ThreadLocalRandom.current().nextInt(size), 10);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public List<String> completeSource() {
+        // A few characters into a source, as typed in the entry dialog
+        return storage.sourcesStartingWith("service-" + ThreadLocalRandom.current().nextInt(100), 10);
+    }
+}
@@ -0,0 +1,63 @@
+package storage;
+
+import model.PasswordEntry;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures encoding the catalog of a vault and decoding it back into entries and indexes,
+ * without the encryption and file I/O around them. Decoding copies each sealed password out of
+ * the password region, as loading does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SerializationBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    int size;
+
+    private Path file;
+    private FilePasswordStorage storage;
+    private ByteBuffer catalog;
+    private byte[] passwords; // the password region the catalog refers to
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = Files.createTempFile("vault-bench", ".dat");
+        storage = SyntheticVault.create(file, size, false);
+        ByteBuffer serialized = storage.serialize();
+        catalog = ByteBuffer.allocate(serialized.remaining()).put(serialized).flip();
+        ByteArrayOutputStream region = new ByteArrayOutputStream();
+        for (PasswordEntry e : storage.getAll()) {
+            ByteBuffer sealed = e.sealedPasswordView();
+            byte[] bytes = new byte[sealed.remaining()];
+            sealed.get(bytes);
+            region.write(bytes);
+        }
+        passwords = region.toByteArray();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        SyntheticVault.delete(file);
+    }
+
+    @Benchmark
+    public ByteBuffer serialize() {
+        return storage.serialize();
+    }
+
+    @Benchmark
+    public boolean deserialize() {
+        return storage.deserialize(catalog.duplicate(), passwords);
+    }
+}
@@ -0,0 +1,79 @@
+package storage;
+
+import model.PasswordEntryBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Generates vaults of a given size with deterministic, realistic looking entries.
+ */
+final class SyntheticVault {
+    static final char[] MASTER_PASSWORD = "benchmark-master-password".toCharArray();
+
+    private static final String ALPHABET = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789!#$%&*+-_";
+
+    private SyntheticVault() {
+    }
+
+    static char[] source(int i) {
+        return ("service-" + i + ".example.com").toCharArray();
+    }
+
+    static char[] login(int i) {
+        return ("user" + i + "@mail.test").toCharArray();
+    }
+
+    static char[] password(Random random) {
+        char[] password = new char[16];
+        for (int i = 0; i < password.length; i++) {
+            password[i] = ALPHABET.charAt(random.nextInt(ALPHABET.length()));
+        }
+        return password;
+    }
+
+    /**
+     * Creates a vault file with {@code size} entries, replacing any existing one.
+     *
+     * @param file The vault file to write.
+     * @param size The number of entries.
+     * @param offHeap {@code true} to keep the entries in direct memory.
+     * @return The unlocked storage holding the entries.
+     */
+    static FilePasswordStorage create(Path file, int size, boolean offHeap) throws IOException {
+        delete(file);
+        FilePasswordStorage storage = new FilePasswordStorage(file.toString(), false, offHeap);
+        if (!storage.loadOrInit(MASTER_PASSWORD.clone())) {
+            throw new IllegalStateException("Failed to initialize " + file);
+        }
+        Random random = new Random(42);
+        for (int i = 0; i < size; i++) {
+            storage.add(new PasswordEntryBuilder()
+                    .setSource(source(i))
+                    .setLogin(login(i))
+                    .setPassword(password(random))
+                    .build());
+        }
+        storage.save();
+        return storage;
+    }
+
+    /**
+     * Opens an existing vault file.
+     */
+    static FilePasswordStorage open(Path file, boolean offHeap) {
+        FilePasswordStorage storage = new FilePasswordStorage(file.toString(), false, offHeap);
+        if (!storage.loadOrInit(MASTER_PASSWORD.clone())) {
+            throw new IllegalStateException("Failed to load " + file);
+        }
+        return storage;
+    }
+
+    static void delete(Path file) throws IOException {
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(Path.of(file + ".tmp"));
+        Files.deleteIfExists(Path.of(file + ".journal"));
+    }
+}
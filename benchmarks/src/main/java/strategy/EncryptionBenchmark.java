@@ -0,0 +1,60 @@
+package strategy;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures AES-GCM encryption and decryption with a key derived once per trial, for payloads
+ * the size of a sealed password, of a small vault and of a large one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class EncryptionBenchmark {
+    @Param({"32", "65536", "16777216"})
+    int payloadSize;
+
+    private PBKDF2AesGcmEncryptionStrategy strategy;
+    private byte[] plaintext;
+    private byte[] ciphertext;
+    private ByteBuffer plainBuffer;
+    private ByteBuffer cipherBuffer;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        byte[] salt = new byte[16];
+        new Random(1).nextBytes(salt);
+        strategy = new PBKDF2AesGcmEncryptionStrategy("benchmark-master-password".toCharArray(), salt);
+        plaintext = new byte[payloadSize];
+        new Random(2).nextBytes(plaintext);
+        ciphertext = strategy.encrypt(plaintext);
+        plainBuffer = ByteBuffer.allocate(payloadSize);
+        cipherBuffer = ByteBuffer.allocate(strategy.encryptedLength(payloadSize));
+    }
+
+    @Benchmark
+    public byte[] encrypt() {
+        return strategy.encrypt(plaintext);
+    }
+
+    @Benchmark
+    public byte[] decrypt() {
+        return strategy.decrypt(ciphertext);
+    }
+
+    @Benchmark
+    public int encryptBuffer() {
+        return strategy.encrypt(ByteBuffer.wrap(plaintext), cipherBuffer.clear());
+    }
+
+    @Benchmark
+    public int decryptBuffer() {
+        return strategy.decrypt(ByteBuffer.wrap(ciphertext), plainBuffer.clear());
+    }
+}
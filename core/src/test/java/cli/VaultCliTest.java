@@ -0,0 +1,65 @@
+package cli;
+
+import facade.PasswordManagerFacade;
+import model.PasswordEntry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import storage.FilePasswordStorage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VaultCliTest {
+    @TempDir
+    Path dir;
+
+    /**
+     * A vault whose lookups of one source fail, as a closed or damaged vault would.
+     */
+    private static class FailingStorage extends FilePasswordStorage {
+        FailingStorage(String filename) {
+            super(filename, false, false);
+        }
+
+        @Override
+        public PasswordEntry findBySourceAndLogin(char[] source, char[] login) {
+            if (Arrays.equals(source, "closed".toCharArray())) throw new IllegalStateException("Vault is closed");
+            if (Arrays.equals(source, "disk".toCharArray())) {
+                throw new UncheckedIOException(new IOException("Input/output error"));
+            }
+            return super.findBySourceAndLogin(source, login);
+        }
+    }
+
+    @Test
+    void reportsACommandThatThrowsAndRunsTheNextOnes() {
+        PasswordManagerFacade facade = new PasswordManagerFacade("master".toCharArray(), false, null,
+                new FailingStorage(dir.resolve("vault.dat").toString()));
+        assertTrue(facade.isUnlocked());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        VaultCli cli = new VaultCli(facade, new PrintStream(out, true, StandardCharsets.UTF_8),
+                new PrintStream(err, true, StandardCharsets.UTF_8));
+
+        cli.run(new ScriptReader(new StringReader("""
+                add mail alice first
+                get closed alice
+                get disk alice
+                get mail alice
+                """)));
+
+        assertEquals("first" + System.lineSeparator(), out.toString(StandardCharsets.UTF_8));
+        String errors = err.toString(StandardCharsets.UTF_8);
+        assertTrue(errors.contains("line 2: get failed: Vault is closed"), errors);
+        assertTrue(errors.contains("line 3: get failed: Input/output error"), errors);
+        facade.close();
+    }
+}
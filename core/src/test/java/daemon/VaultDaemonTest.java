@@ -0,0 +1,116 @@
+package daemon;
+
+import facade.PasswordManagerFacade;
+import model.PasswordEntry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import storage.FilePasswordStorage;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VaultDaemonTest {
+    @TempDir
+    Path dir;
+
+    private VaultDaemon daemon;
+    private Thread server;
+    private Path socket;
+
+    /**
+     * A vault whose lookups of one source fail, as a closed vault would.
+     */
+    private static class FailingStorage extends FilePasswordStorage {
+        FailingStorage(String filename) {
+            super(filename, false, false);
+        }
+
+        @Override
+        public PasswordEntry findBySourceAndLogin(char[] source, char[] login) {
+            if (Arrays.equals(source, "closed".toCharArray())) throw new IllegalStateException("Vault is closed");
+            return super.findBySourceAndLogin(source, login);
+        }
+    }
+
+    @BeforeEach
+    void start() {
+        PasswordManagerFacade facade = new PasswordManagerFacade("master".toCharArray(), false, null,
+                new FailingStorage(dir.resolve("vault.dat").toString()));
+        assertTrue(facade.isUnlocked());
+        socket = dir.resolve("vault.sock");
+        daemon = new VaultDaemon(facade, socket);
+        server = new Thread(() -> {
+            try {
+                daemon.serve();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        server.start();
+    }
+
+    /**
+     * Connects once the daemon listens; the socket file appears a moment before it does.
+     */
+    private VaultDaemonClient connect() throws IOException, InterruptedException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return new VaultDaemonClient(socket);
+            } catch (IOException e) {
+                if (attempt == 200) throw e;
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    @AfterEach
+    void stop() throws InterruptedException {
+        daemon.close();
+        server.join();
+    }
+
+    @Test
+    void answersARequestTheVaultCannotServeWithAnError() throws IOException, InterruptedException {
+        try (VaultDaemonClient client = connect()) {
+            client.add("mail".toCharArray(), "alice".toCharArray(), "first".toCharArray());
+            client.sendGet("closed".toCharArray(), "alice".toCharArray());
+            client.sendGet("mail".toCharArray(), "alice".toCharArray());
+            client.flush();
+            IOException e = assertThrows(IOException.class, client::receivePassword);
+            assertTrue(e.getMessage().contains("Vault is closed"), e.getMessage());
+            // The connection stays open and in step
+            assertEquals("first", new String(client.receivePassword()));
+        }
+    }
+
+    @Test
+    void answersALongBurstOfLargeSearchesInOrder() throws IOException, InterruptedException {
+        String padding = "x".repeat(100);
+        try (VaultDaemonClient client = connect()) {
+            for (int i = 0; i < 300; i++) {
+                client.sendAdd(("site-" + i + padding).toCharArray(), "alice".toCharArray(), "password".toCharArray());
+            }
+            client.flush();
+            for (int i = 0; i < 300; i++) {
+                client.receiveAdded();
+            }
+            // Each response is about 30 KiB, so the burst's answers far exceed a read buffer's worth
+            for (int i = 0; i < 500; i++) {
+                client.sendSearch("site-", 1 + i % 300);
+                client.sendGet(("site-" + (i % 300) + padding).toCharArray(), "alice".toCharArray());
+            }
+            client.flush();
+            for (int i = 0; i < 500; i++) {
+                List<char[][]> matches = client.receiveMatches();
+                assertEquals(1 + i % 300, matches.size());
+                assertEquals("password", new String(client.receivePassword()));
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package facade;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import storage.FilePasswordStorage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BackupTest {
+    private static final char[] BACKUP_PASSWORD = "backup".toCharArray();
+
+    @TempDir
+    Path dir;
+
+    private PasswordManagerFacade open(String name) {
+        PasswordManagerFacade facade = new PasswordManagerFacade("master".toCharArray(), false, null,
+                new FilePasswordStorage(dir.resolve(name).toString(), true, false));
+        assertTrue(facade.isUnlocked());
+        return facade;
+    }
+
+    /**
+     * A destination that fails once a number of bytes was written, as a full disk would.
+     */
+    private static class FailingStream extends OutputStream {
+        private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        private final int capacity;
+
+        FailingStream(int capacity) {
+            this.capacity = capacity;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (written.size() + len > capacity) throw new IOException("No space left on device");
+            written.write(b, off, len);
+        }
+    }
+
+    @Test
+    void restoresABackup() throws IOException {
+        PasswordManagerFacade vault = open("vault.dat");
+        vault.batch(() -> {
+            for (int i = 0; i < 5000; i++) {
+                vault.addEntry(("source-" + i).toCharArray(), "login".toCharArray(), ("password-" + i).toCharArray());
+            }
+        });
+        ByteArrayOutputStream backup = new ByteArrayOutputStream();
+        assertEquals(5000, vault.exportBackup(backup, BACKUP_PASSWORD).getEntries());
+
+        PasswordManagerFacade restored = open("restored.dat");
+        assertEquals(5000, restored.restoreBackup(new ByteArrayInputStream(backup.toByteArray()), BACKUP_PASSWORD).getEntries());
+        assertArrayEquals("password-1234".toCharArray(), restored.getPassword("source-1234".toCharArray(), "login".toCharArray()));
+    }
+
+    @Test
+    void aFailedBackupDoesNotRestore() throws IOException {
+        PasswordManagerFacade vault = open("vault.dat");
+        vault.batch(() -> {
+            for (int i = 0; i < 5000; i++) {
+                vault.addEntry(("source-" + i).toCharArray(), "login".toCharArray(), ("password-" + i).toCharArray());
+            }
+        });
+        // Fails after the first segment, leaving a backup that is intact as far as it goes
+        FailingStream partial = new FailingStream(70 * 1024);
+        assertThrows(IOException.class, () -> vault.exportBackup(partial, BACKUP_PASSWORD));
+
+        PasswordManagerFacade restored = open("restored.dat");
+        assertThrows(IOException.class,
+                () -> restored.restoreBackup(new ByteArrayInputStream(partial.written.toByteArray()), BACKUP_PASSWORD));
+    }
+}
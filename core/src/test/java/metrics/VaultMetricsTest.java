@@ -0,0 +1,84 @@
+package metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VaultMetricsTest {
+    @Test
+    void countsEverySampledCallAndTimesAFewOfThem() {
+        VaultMetrics.reset();
+        for (int i = 0; i < 100_000; i++) {
+            try (VaultMetrics.Timing timing = VaultMetrics.sample(Operation.LOOKUP)) {
+                timing.items(1).bytes(2);
+            }
+        }
+        OperationStats stats = VaultMetrics.snapshot().get(Operation.LOOKUP);
+        assertEquals(100_000, stats.getCount());
+        assertEquals(100_000, stats.getItems());
+        assertEquals(200_000, stats.getBytes());
+        // About one call in SAMPLE_INTERVAL, with the first one always timed
+        long expected = 100_000 / VaultMetrics.SAMPLE_INTERVAL;
+        assertTrue(stats.getTimedCount() > expected / 2 && stats.getTimedCount() < expected * 2,
+                stats.getTimedCount() + " timed calls");
+        assertTrue(stats.getTotalNanos() >= stats.getMeanNanos() * stats.getCount() * 0.99);
+        assertTrue(stats.getPercentileNanos(0.5) > 0);
+    }
+
+    @Test
+    void keepsTheAmountsOfNestedSampledCallsApart() {
+        VaultMetrics.reset();
+        for (int i = 0; i < 1000; i++) {
+            try (VaultMetrics.Timing outer = VaultMetrics.sample(Operation.DECRYPT)) {
+                try (VaultMetrics.Timing inner = VaultMetrics.sample(Operation.DECRYPT)) {
+                    assertNotSame(outer, inner);
+                    inner.bytes(1);
+                }
+                outer.bytes(10);
+            }
+        }
+        OperationStats stats = VaultMetrics.snapshot().get(Operation.DECRYPT);
+        assertEquals(2000, stats.getCount());
+        assertEquals(11_000, stats.getBytes());
+    }
+
+    @Test
+    void timesEveryCallOfTime() {
+        VaultMetrics.reset();
+        for (int i = 0; i < 100; i++) {
+            VaultMetrics.time(Operation.SEARCH).close();
+        }
+        OperationStats stats = VaultMetrics.snapshot().get(Operation.SEARCH);
+        assertEquals(100, stats.getCount());
+        assertEquals(100, stats.getTimedCount());
+    }
+
+    @Test
+    void sumsTheStripesOfEveryThread() throws InterruptedException {
+        LatencyHistogram histogram = new LatencyHistogram();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            long nanos = 1000L << t;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    histogram.record(nanos);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long[] counts = histogram.counts();
+        for (int t = 0; t < 8; t++) {
+            assertEquals(10_000, counts[LatencyHistogram.bucket(1000L << t)]);
+        }
+        assertEquals(80_000, Arrays.stream(counts).sum());
+        histogram.reset();
+        assertEquals(0, Arrays.stream(histogram.counts()).sum());
+    }
+}
@@ -0,0 +1,106 @@
+package model;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EntryArenaTest {
+    // Sealing is not under test; the "sealed" bytes are the UTF-8 password
+    private static final PasswordUnsealer UNSEALER = (source, login, sealed) ->
+            new String(sealed, StandardCharsets.UTF_8).toCharArray();
+
+    private static PasswordEntry sealed(String source, String login, String password) {
+        return new PasswordEntryBuilder()
+                .setSource(source.toCharArray())
+                .setLogin(login.toCharArray())
+                .setSealedPassword(password.getBytes(StandardCharsets.UTF_8), UNSEALER)
+                .build();
+    }
+
+    private static void assertEntry(String source, String login, String password, PasswordEntry e) {
+        assertEquals(source, e.sourceView().toString());
+        assertEquals(login, e.loginView().toString());
+        assertEquals(password, new String(e.getPassword()));
+        assertTrue(e.hasKey(source.toCharArray(), login.toCharArray()));
+    }
+
+    @Test
+    void copiesEntriesOffHeap() {
+        try (EntryArena arena = new EntryArena()) {
+            PasswordEntry e = arena.copyOf(sealed("ünïcödé 🔑", "alice", "secret"));
+            assertTrue(arena.owns(e));
+            assertEntry("ünïcödé 🔑", "alice", "secret", e);
+            assertEquals(PasswordEntry.keyHash("ünïcödé 🔑".toCharArray(), "alice".toCharArray()), e.keyHash());
+
+            arena.free(e);
+            assertFalse(arena.owns(e));
+            assertEquals(0, arena.liveBytes());
+        }
+    }
+
+    @Test
+    void compactsOnceMostRecordsAreFreed() {
+        try (EntryArena arena = new EntryArena()) {
+            List<PasswordEntry> entries = new ArrayList<>();
+            for (int i = 0; i < 50_000; i++) {
+                entries.add(arena.copyOf(sealed("source-" + (i % 100), "login-" + i, "password-" + i + "-padding")));
+            }
+            long reserved = arena.reservedBytes();
+            for (int i = 0; i < entries.size(); i++) {
+                if (i % 10 != 0) arena.free(entries.get(i));
+            }
+            assertTrue(arena.reservedBytes() < reserved, arena.reservedBytes() + " of " + reserved + " bytes kept");
+            // The records that survived the compaction moved, but still read the same
+            for (int i = 0; i < entries.size(); i += 10) {
+                assertEntry("source-" + (i % 100), "login-" + i, "password-" + i + "-padding", entries.get(i));
+            }
+        }
+    }
+
+    @Test
+    void storesASharedSourceOnce() {
+        try (EntryArena arena = new EntryArena()) {
+            List<PasswordEntry> entries = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                entries.add(arena.copyOf(sealed("source-" + (i % 10), "login-" + i, "password")));
+            }
+            assertEquals(10, arena.sources().size());
+            for (int i = 0; i < entries.size(); i += 10) {
+                arena.free(entries.get(i));
+            }
+            // Every entry of source-0 is gone, and so is the source
+            assertEquals(9, arena.sources().size());
+            assertEntry("source-1", "login-1", "password", entries.get(1));
+        }
+    }
+
+    @Test
+    void dictionaryRepacksWithoutChangingIds() {
+        SourceDictionary dictionary = new SourceDictionary();
+        List<String> sources = new ArrayList<>();
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            String source = (i + "-").repeat(200);
+            sources.add(source);
+            ids.add(dictionary.acquire(source));
+        }
+        long reserved = dictionary.reservedBytes();
+        for (int i = 0; i < 100; i++) {
+            if (i % 10 != 0) dictionary.release(ids.get(i));
+        }
+        assertTrue(dictionary.reservedBytes() < reserved);
+        assertEquals(10, dictionary.size());
+        for (int i = 0; i < 100; i += 10) {
+            assertEquals(sources.get(i), dictionary.view(ids.get(i)).toString());
+            assertTrue(dictionary.contentEquals(ids.get(i), sources.get(i).toCharArray()));
+        }
+        // A recycled id gets the new source's characters
+        int id = dictionary.acquire("new");
+        assertEquals("new", dictionary.view(id).toString());
+        assertEquals((int) ids.get(0), dictionary.acquire(sources.get(0)));
+    }
+}
@@ -0,0 +1,109 @@
+package storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CatalogCompressorTest {
+    private final CatalogCompressor compressor = new CatalogCompressor();
+
+    private static byte[] repetitive(int length) {
+        byte[] data = new byte[length];
+        byte[] row = "github.com alice@example.com ".getBytes();
+        for (int i = 0; i < length; i++) {
+            data[i] = row[i % row.length];
+        }
+        return data;
+    }
+
+    private static byte[] random(int length) {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+
+    private byte[] compress(byte[] data) {
+        VaultCodec.Writer out = new VaultCodec.Writer();
+        compressor.compress(data, data.length, out);
+        return Arrays.copyOf(out.array(), out.size());
+    }
+
+    private byte[] decompress(byte[] chunk) throws DataFormatException {
+        ByteBuffer data = compressor.decompress(ByteBuffer.wrap(chunk));
+        return Arrays.copyOfRange(data.array(), data.position(), data.limit());
+    }
+
+    /**
+     * Returns the chunk with another original length in front of its deflate stream.
+     */
+    private static byte[] withLength(byte[] chunk, int length) {
+        ByteBuffer old = ByteBuffer.wrap(chunk);
+        VaultCodec.getVarint(old);
+        VaultCodec.Writer out = new VaultCodec.Writer();
+        out.putVarint(length);
+        out.putRaw(chunk, old.position(), old.remaining());
+        return Arrays.copyOf(out.array(), out.size());
+    }
+
+    @Test
+    void roundTripsAnyLength() throws DataFormatException {
+        // Lengths around the 16 KiB block, and data that does not compress at all
+        for (int length : new int[]{0, 1, 100, 16 * 1024 - 1, 16 * 1024, 16 * 1024 + 1, 300_000}) {
+            for (byte[] data : new byte[][]{repetitive(length), random(length)}) {
+                assertArrayEquals(data, decompress(compress(data)), "length " + length);
+            }
+        }
+    }
+
+    @Test
+    void compressesRepetitiveCatalogs() {
+        assertTrue(compress(repetitive(100_000)).length < 10_000);
+    }
+
+    @Test
+    void compressesOnlyTheGivenLength() throws DataFormatException {
+        byte[] data = repetitive(1000);
+        VaultCodec.Writer out = new VaultCodec.Writer();
+        compressor.compress(data, 600, out);
+        assertArrayEquals(Arrays.copyOf(data, 600), decompress(Arrays.copyOf(out.array(), out.size())));
+    }
+
+    @Test
+    void reusesItsInflaterAfterADamagedChunk() throws DataFormatException {
+        byte[] chunk = compress(repetitive(50_000));
+        assertThrows(DataFormatException.class, () -> decompress(Arrays.copyOf(chunk, chunk.length / 2)));
+        assertArrayEquals(repetitive(50_000), decompress(chunk));
+    }
+
+    @Test
+    void rejectsATruncatedStream() {
+        for (byte[] data : new byte[][]{repetitive(50_000), random(50_000)}) {
+            byte[] chunk = compress(data);
+            for (int cut : new int[]{1, 10, chunk.length / 2}) {
+                byte[] truncated = Arrays.copyOf(chunk, chunk.length - cut);
+                assertThrows(DataFormatException.class, () -> decompress(truncated), "cut " + cut);
+            }
+        }
+    }
+
+    @Test
+    void rejectsAStreamOfAnotherLength() {
+        byte[] chunk = compress(repetitive(5000));
+        assertThrows(DataFormatException.class, () -> decompress(withLength(chunk, 5001)));
+        assertThrows(DataFormatException.class, () -> decompress(withLength(chunk, 4999)));
+        assertThrows(DataFormatException.class, () -> decompress(withLength(chunk, -1)));
+    }
+
+    @Test
+    void rejectsAnInvalidBlock() {
+        byte[] chunk = compress(repetitive(5000));
+        // A final block of the reserved type 3, right after the two bytes of the length
+        chunk[2] = 0b111;
+        assertThrows(DataFormatException.class, () -> decompress(chunk));
+    }
+}
@@ -0,0 +1,131 @@
+package storage;
+
+import model.PasswordEntry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static storage.VaultJournalTest.*;
+
+class ConcurrentPasswordStorageTest {
+    private static final int WRITES = 3000;
+    // The writer keeps the last WINDOW entries, deleting each one WINDOW adds after it was added
+    private static final int WINDOW = 40;
+    private static final int READERS = 3;
+
+    @TempDir
+    Path dir;
+
+    private static String source(int i) {
+        return "site-" + i;
+    }
+
+    private static String secret(int i) {
+        return "p-" + i;
+    }
+
+    /**
+     * Checks that the entries are one state the writer went through: a run of consecutive adds
+     * with at most one add not yet followed by its delete, each holding its own password.
+     */
+    private static void assertConsistent(List<PasswordEntry> entries, String what) {
+        TreeSet<Integer> added = new TreeSet<>();
+        for (PasswordEntry e : entries) {
+            int i = Integer.parseInt(e.sourceView().toString().substring("site-".length()));
+            assertEquals(secret(i), new String(e.getPassword()), what + " " + source(i));
+            assertTrue(added.add(i), what + " holds " + source(i) + " twice");
+        }
+        if (added.isEmpty()) return;
+        int count = added.last() - added.first() + 1;
+        assertEquals(added.size(), count, what + " has a gap: " + added);
+        assertTrue(count <= WINDOW + 1, what + " holds " + count + " entries");
+        assertTrue(count >= WINDOW || added.first() == 0, what + " lost entries: " + added);
+    }
+
+    @Test
+    void readersSeeConsistentStatesWhileAnotherThreadMutatesAndSaves() throws InterruptedException {
+        Path vault = dir.resolve("vault.dat");
+        ConcurrentPasswordStorage storage = new ConcurrentPasswordStorage(open(vault, true));
+        AtomicBoolean writing = new AtomicBoolean(true);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        Thread writer = new Thread(() -> {
+            try {
+                for (int i = 0; i < WRITES; i++) {
+                    storage.add(entry(source(i), "user", secret(i)));
+                    if (i >= WINDOW) {
+                        storage.delete(source(i - WINDOW).toCharArray(), "user".toCharArray());
+                    }
+                    if (i % 100 == 0) {
+                        assertTrue(storage.save(), "save after " + source(i));
+                    }
+                }
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+            } finally {
+                writing.set(false);
+            }
+        });
+        List<Thread> readers = new ArrayList<>();
+        for (int r = 0; r < READERS; r++) {
+            Random random = new Random(r);
+            readers.add(new Thread(() -> {
+                try {
+                    int rounds = 0;
+                    // At least a few rounds each, even if the writer finishes first
+                    while (writing.get() || rounds < 10) {
+                        rounds++;
+                        List<PasswordEntry> all = storage.getAll();
+                        assertConsistent(all, "getAll");
+                        assertConsistent(storage.search("site-"), "search");
+                        assertConsistent(storage.read(s -> s.search("ite")), "read search");
+
+                        // Any key the writer adds, whether not yet added, live or deleted by now
+                        int i = random.nextInt(WRITES);
+                        PasswordEntry found = storage.findBySourceAndLogin(source(i).toCharArray(), "user".toCharArray());
+                        if (found != null) {
+                            assertEquals(secret(i), new String(found.getPassword()), "lookup " + source(i));
+                        }
+                        for (PasswordEntry e : all) {
+                            PasswordEntry current = storage.findBySourceAndLogin(e.getSource(), e.getLogin());
+                            if (current != null) {
+                                assertEquals(new String(e.getPassword()), new String(current.getPassword()));
+                            }
+                        }
+                    }
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                }
+            }));
+        }
+
+        readers.forEach(Thread::start);
+        writer.start();
+        writer.join();
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError("a thread failed", failure.get());
+        }
+
+        assertTrue(storage.save());
+        List<PasswordEntry> last = storage.getAll();
+        assertEquals(WINDOW, last.size());
+        assertConsistent(last, "final state");
+        assertEquals(secret(WRITES - 1), password(storage, source(WRITES - 1), "user"));
+
+        FilePasswordStorage reopened = open(vault, true);
+        assertEquals(WINDOW, reopened.getAll().size());
+        assertConsistent(reopened.getAll(), "reopened");
+        assertNull(password(reopened, source(WRITES - WINDOW - 1), "user"));
+    }
+}
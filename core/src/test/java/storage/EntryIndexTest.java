@@ -0,0 +1,111 @@
+package storage;
+
+import model.PasswordEntry;
+import model.PasswordEntryBuilder;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EntryIndexTest {
+    private static PasswordEntry entry(String source, String login, String password) {
+        return new PasswordEntryBuilder()
+                .setSource(source.toCharArray())
+                .setLogin(login.toCharArray())
+                .setPassword(password.toCharArray())
+                .build();
+    }
+
+    /**
+     * Sources that all have the same hash, as "Aa" and "BB" do, so their probe sequences overlap.
+     */
+    private static List<String> colliding(int pairs) {
+        List<String> texts = List.of("");
+        for (int i = 0; i < pairs; i++) {
+            List<String> longer = new ArrayList<>();
+            for (String t : texts) {
+                longer.add(t + "Aa");
+                longer.add(t + "BB");
+            }
+            texts = longer;
+        }
+        return texts;
+    }
+
+    /**
+     * Applies random insertions and removals, moving the last entry into a removed one's position as
+     * FilePasswordStorage does, and checks every lookup against a map after each step.
+     */
+    @Test
+    void findsEveryEntryAfterRandomInsertionsAndRemovals() {
+        List<String> sources = new ArrayList<>(colliding(4));
+        for (int i = 0; i < 200; i++) {
+            sources.add("source-" + i);
+        }
+        List<String> logins = List.of("alice", "bob", "AaAa", "BBBB");
+        List<PasswordEntry> entries = new ArrayList<>();
+        EntryIndex index = new EntryIndex(entries);
+        Map<String, Integer> expected = new HashMap<>();
+        Random random = new Random(7);
+
+        for (int step = 0; step < 20_000; step++) {
+            String source = sources.get(random.nextInt(sources.size()));
+            String login = logins.get(random.nextInt(logins.size()));
+            String key = source + "/" + login;
+            Integer position = expected.get(key);
+            if (position == null) {
+                entries.add(entry(source, login, "password"));
+                index.insert(entries.size() - 1);
+                expected.put(key, entries.size() - 1);
+            } else {
+                index.remove(position);
+                int last = entries.size() - 1;
+                if (position != last) {
+                    PasswordEntry moved = entries.get(last);
+                    index.move(last, position);
+                    entries.set(position, moved);
+                    expected.put(new String(moved.getSource()) + "/" + new String(moved.getLogin()), position);
+                }
+                entries.remove(last);
+                expected.remove(key);
+            }
+            if (step % 500 == 0) {
+                for (String s : sources) {
+                    for (String l : logins) {
+                        int found = index.indexOf(s.toCharArray(), l.toCharArray());
+                        assertEquals(expected.getOrDefault(s + "/" + l, -1), found, s + "/" + l);
+                    }
+                }
+            }
+        }
+        for (Map.Entry<String, Integer> e : expected.entrySet()) {
+            assertEquals((int) e.getValue(), index.indexOf(entries.get(e.getValue())));
+        }
+    }
+
+    @Test
+    void keepsCollidingKeysReachableWhenOneInTheMiddleIsRemoved() {
+        List<String> sources = colliding(3);
+        List<PasswordEntry> entries = new ArrayList<>();
+        EntryIndex index = new EntryIndex(entries);
+        for (String source : sources) {
+            entries.add(entry(source, "login", "password"));
+            index.insert(entries.size() - 1);
+        }
+        // Removing from the middle of the probe sequence must not cut off the entries after it
+        int middle = sources.size() / 2;
+        index.remove(middle);
+        index.move(entries.size() - 1, middle);
+        entries.set(middle, entries.remove(entries.size() - 1));
+
+        assertEquals(-1, index.indexOf(sources.get(middle).toCharArray(), "login".toCharArray()));
+        for (int i = 0; i < entries.size(); i++) {
+            assertEquals(i, index.indexOf(entries.get(i)));
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package storage;
+
+import model.PasswordEntry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static storage.VaultJournalTest.entry;
+
+class FuzzyIndexTest {
+    // Few letters, so terms are close to each other, with upper case and a letter beyond ASCII
+    private static final String LETTERS = "abcAж";
+
+    private final List<PasswordEntry> entries = new ArrayList<>();
+    private final FuzzyIndex index = new FuzzyIndex(entries);
+    private final Random random = new Random(17);
+
+    private String word(int minLength, int maxLength) {
+        StringBuilder word = new StringBuilder();
+        int length = minLength + random.nextInt(maxLength - minLength + 1);
+        for (int i = 0; i < length; i++) {
+            word.append(LETTERS.charAt(random.nextInt(LETTERS.length())));
+        }
+        return word.toString();
+    }
+
+    /**
+     * Returns a few words joined by separators, now and then a single word longer than 64 characters.
+     */
+    private String text() {
+        if (random.nextInt(8) == 0) return word(60, 80);
+        StringBuilder text = new StringBuilder(word(1, 8));
+        for (int words = random.nextInt(3); words > 0; words--) {
+            text.append(random.nextBoolean() ? '.' : '-').append(word(1, 8));
+        }
+        return text.toString();
+    }
+
+    private void add() {
+        PasswordEntry e = entry(text(), text(), "password");
+        entries.add(e);
+        index.add(e);
+    }
+
+    /**
+     * Returns the keyword with a few random edits, so it is near some terms but rarely equal to one.
+     */
+    private String typo(String keyword) {
+        StringBuilder typo = new StringBuilder(keyword);
+        for (int edits = random.nextInt(4); edits > 0; edits--) {
+            int at = random.nextInt(typo.length() + 1);
+            char c = LETTERS.charAt(random.nextInt(LETTERS.length()));
+            switch (random.nextInt(3)) {
+                case 0 -> typo.insert(at, c);
+                case 1 -> { if (at < typo.length()) typo.deleteCharAt(at); }
+                default -> { if (at < typo.length()) typo.setCharAt(at, c); }
+            }
+        }
+        return typo.toString();
+    }
+
+    private static int levenshtein(String a, String b) {
+        int[][] d = new int[a.length() + 1][b.length() + 1];
+        for (int i = 0; i <= a.length(); i++) {
+            for (int j = 0; j <= b.length(); j++) {
+                if (i == 0 || j == 0) {
+                    d[i][j] = i + j;
+                } else {
+                    int substitution = d[i - 1][j - 1] + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1);
+                    d[i][j] = Math.min(substitution, Math.min(d[i - 1][j], d[i][j - 1]) + 1);
+                }
+            }
+        }
+        return d[a.length()][b.length()];
+    }
+
+    /**
+     * Returns the distance between the keyword and the closest term of the entry: its source as a
+     * whole, or a word of its source or login.
+     */
+    private static int bruteForce(PasswordEntry e, String lowerKeyword) {
+        String source = TrigramIndex.lower(e.sourceView().toString());
+        String login = TrigramIndex.lower(e.loginView().toString());
+        List<String> terms = new ArrayList<>(List.of(source));
+        for (String text : List.of(source, login)) {
+            for (String word : text.split("[^\\p{L}\\p{Nd}]+")) {
+                if (word.length() >= FuzzyIndex.MIN_WORD_LENGTH) terms.add(word);
+            }
+        }
+        int best = Integer.MAX_VALUE;
+        for (String term : terms) {
+            best = Math.min(best, levenshtein(term, lowerKeyword));
+        }
+        return best;
+    }
+
+    /**
+     * Compares a search with a ranking of every live entry. Entries equally close may come in any
+     * order, so the ranks are compared by distance, and every entry closer than the last one returned
+     * must have been returned.
+     */
+    private void assertMatchesBruteForce(String keyword, int limit) {
+        String lower = TrigramIndex.lower(keyword);
+        int maxDistance = FuzzyIndex.maxDistance(lower);
+        List<PasswordEntry> found = index.search(lower, maxDistance, limit);
+
+        List<Integer> expected = new ArrayList<>();
+        for (PasswordEntry e : entries) {
+            int distance = bruteForce(e, lower);
+            if (distance <= maxDistance) expected.add(distance);
+        }
+        expected.sort(null);
+        expected = expected.subList(0, Math.min(limit, expected.size()));
+
+        List<Integer> distances = new ArrayList<>();
+        for (PasswordEntry e : found) {
+            assertTrue(entries.contains(e), "removed entry found for " + keyword);
+            distances.add(bruteForce(e, lower));
+        }
+        assertEquals(expected, distances, "keyword " + keyword + ", limit " + limit);
+        assertEquals((long) found.size(), found.stream().distinct().count(), "duplicates for " + keyword);
+        if (!found.isEmpty()) {
+            int worst = distances.get(distances.size() - 1);
+            for (PasswordEntry e : entries) {
+                if (bruteForce(e, lower) < worst) {
+                    assertTrue(found.contains(e), "missed " + e.sourceView() + " for " + keyword);
+                }
+            }
+        }
+    }
+
+    private void assertSearchesMatchBruteForce() {
+        for (int k = 0; k < 15; k++) {
+            String keyword;
+            if (entries.isEmpty() || random.nextInt(4) == 0) {
+                keyword = word(1, 9);
+            } else {
+                // Near a source as a whole, which is longer than 64 characters now and then
+                PasswordEntry e = entries.get(random.nextInt(entries.size()));
+                String source = e.sourceView().toString();
+                keyword = typo(random.nextBoolean() ? source : source.split("[.-]")[0]);
+            }
+            for (int limit : new int[]{1, 5, 50}) {
+                assertMatchesBruteForce(keyword, limit);
+            }
+        }
+        // Keywords at and just past the 64 characters of the bit-parallel distance
+        for (int length : new int[]{63, 64, 65, 70}) {
+            assertMatchesBruteForce(word(length, length), 5);
+        }
+    }
+
+    @Test
+    void ranksLikeABruteForceScanAfterAddsAndRemoves() {
+        for (int i = 0; i < 300; i++) {
+            add();
+        }
+        assertSearchesMatchBruteForce(); // builds the tree
+        for (int step = 0; step < 1500; step++) {
+            if (entries.isEmpty() || random.nextInt(5) < 3) {
+                add();
+            } else {
+                // Removed from the list first, as the storage does, since a rebuild reads the list
+                index.remove(entries.remove(random.nextInt(entries.size())));
+            }
+            if (step % 100 == 0) assertSearchesMatchBruteForce();
+        }
+        // Mostly removals, so stale postings outnumber live ones and the tree is rebuilt
+        while (entries.size() > 20) {
+            index.remove(entries.remove(random.nextInt(entries.size())));
+            if (entries.size() % 40 == 0) assertSearchesMatchBruteForce();
+        }
+        assertSearchesMatchBruteForce();
+    }
+
+    @Test
+    void findsAnEntryByAWordOfItsLoginOrByItsWholeSource() {
+        for (int i = 0; i < 50; i++) {
+            add();
+        }
+        PasswordEntry github = entry("GitHub.com", "alice.smith", "password");
+        entries.add(github);
+        index.add(github);
+        assertEquals(List.of(github), index.search("githbu.com", 2, 1));
+        assertEquals(List.of(github), index.search("smitj", 1, 1));
+        assertTrue(index.search("githbu.com", 0, 10).isEmpty());
+    }
+}
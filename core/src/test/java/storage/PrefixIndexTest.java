@@ -0,0 +1,91 @@
+package storage;
+
+import model.PasswordEntry;
+import model.PasswordEntryBuilder;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PrefixIndexTest {
+    private static final List<String> PREFIXES = List.of("", "s", "si", "site-1", "site-12", "x");
+
+    private final List<PasswordEntry> entries = new ArrayList<>();
+    private final PrefixIndex index = new PrefixIndex(entries, PasswordEntry::sourceView);
+
+    private static PasswordEntry entry(String source, String login, String password) {
+        return new PasswordEntryBuilder()
+                .setSource(source.toCharArray())
+                .setLogin(login.toCharArray())
+                .setPassword(password.toCharArray())
+                .build();
+    }
+
+    private void add(String source) {
+        PasswordEntry e = entry(source, "login-" + entries.size(), "password");
+        entries.add(e);
+        index.add(e);
+    }
+
+    private void remove(int position) {
+        index.remove(entries.remove(position));
+    }
+
+    /**
+     * Compares every query with a scan of the live entries.
+     */
+    private void assertMatchesScan() {
+        List<CharSequence> sources = entries.stream().map(PasswordEntry::sourceView).toList();
+        for (String prefix : PREFIXES) {
+            for (int limit : new int[]{1, 10, Integer.MAX_VALUE}) {
+                assertEquals(PrefixIndex.firstStartingWith(sources, prefix, limit), index.startingWith(prefix, limit),
+                        "prefix " + prefix + ", limit " + limit);
+            }
+        }
+    }
+
+    @Test
+    void mergesPendingValuesIntoTheMainRun() {
+        for (int i = 0; i < 100; i++) {
+            add("site-" + i);
+        }
+        assertMatchesScan(); // builds the main run
+        // More than one pending run's worth, in both cases, so a merge happens in between
+        Random random = new Random(3);
+        for (int i = 0; i < 3 * PrefixIndex.MAX_PENDING; i++) {
+            int n = random.nextInt(5000);
+            add(random.nextBoolean() ? "site-" + n : "Site-" + n);
+            if (i % 700 == 0) assertMatchesScan();
+        }
+        assertMatchesScan();
+    }
+
+    @Test
+    void dropsValuesWhoseEntriesAreAllRemoved() {
+        for (int i = 0; i < 2000; i++) {
+            add("site-" + (i % 1000));
+        }
+        assertMatchesScan();
+        add("site-pending");
+        Random random = new Random(5);
+        // Removes most entries, so dead main-run values pile up until a merge drops them
+        while (entries.size() > 300) {
+            remove(random.nextInt(entries.size()));
+            if (entries.size() % 250 == 0) assertMatchesScan();
+        }
+        assertMatchesScan();
+
+        // A value whose entries were all removed comes back with its next entry
+        List<String> missing = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            String source = "site-" + i;
+            if (entries.stream().noneMatch(e -> source.contentEquals(e.sourceView()))) missing.add(source);
+        }
+        assertFalse(missing.isEmpty());
+        add(missing.get(0));
+        assertMatchesScan();
+    }
+}
@@ -0,0 +1,156 @@
+package storage;
+
+import metrics.Operation;
+import metrics.VaultMetrics;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static storage.VaultJournalTest.*;
+
+class ShardedPasswordStorageTest {
+    @TempDir
+    Path dir;
+
+    private ShardedPasswordStorage open(Path base, int shardCount) throws IOException {
+        ShardedPasswordStorage storage = ShardedPasswordStorage.open(base.toString(), shardCount, true, false, FAST_KDF);
+        assertTrue(storage.loadOrInit(MASTER_PASSWORD.clone()));
+        return storage;
+    }
+
+    @Test
+    void keepsTheShardCountItWasCreatedWith() throws IOException {
+        Path base = dir.resolve("vault.dat");
+        ShardedPasswordStorage storage = open(base, 4);
+        for (int i = 0; i < 100; i++) {
+            storage.add(entry("source-" + i, "login", "password-" + i));
+        }
+        assertTrue(storage.save());
+        storage.close();
+
+        ShardedPasswordStorage reopened = open(base, 2);
+        assertEquals(4, reopened.shardCount());
+        assertEquals(100, reopened.getAll().size());
+        assertEquals("password-42", password(reopened, "source-42", "login"));
+    }
+
+    @Test
+    void refusesToOpenAVaultWithAMissingShard() throws IOException {
+        Path base = dir.resolve("vault.dat");
+        open(base, 3).close();
+        Files.delete(Path.of(base + ".1"));
+
+        assertThrows(IOException.class, () -> ShardedPasswordStorage.open(base.toString(), 3, true, false, FAST_KDF));
+    }
+
+    @Test
+    void derivesTheMasterKeyOnceForAllShards() throws IOException {
+        Path base = dir.resolve("vault.dat");
+        VaultMetrics.reset();
+        ShardedPasswordStorage storage = open(base, 4);
+        for (int i = 0; i < 100; i++) {
+            storage.add(entry("source-" + i, "login", "password-" + i));
+        }
+        assertTrue(storage.save());
+        storage.close();
+
+        ShardedPasswordStorage reopened = open(base, 4);
+        assertEquals(2, VaultMetrics.snapshot().get(Operation.KEY_DERIVATION).getCount());
+        assertEquals(100, reopened.getAll().size());
+        assertEquals("password-42", password(reopened, "source-42", "login"));
+        reopened.close();
+
+        ShardedPasswordStorage wrong = ShardedPasswordStorage.open(base.toString(), 4, true, false, FAST_KDF);
+        assertFalse(wrong.loadOrInit("not the master password".toCharArray()));
+    }
+
+    @Test
+    void givesEachShardAKeyOfItsOwn() throws IOException {
+        Path base = dir.resolve("vault.dat");
+        ShardedPasswordStorage storage = open(base, 2);
+        storage.add(entry("mail", "alice", "first"));
+        assertTrue(storage.save());
+        storage.close();
+
+        // Neither the master password nor the other shard's key opens a shard
+        FilePasswordStorage alone = new FilePasswordStorage(base + ".0", true, false, FAST_KDF);
+        assertFalse(alone.loadOrInit(MASTER_PASSWORD.clone()));
+        Files.copy(Path.of(base + ".0"), Path.of(base + ".1"), StandardCopyOption.REPLACE_EXISTING);
+        ShardedPasswordStorage swapped = ShardedPasswordStorage.open(base.toString(), 2, true, false, FAST_KDF);
+        assertFalse(swapped.loadOrInit(MASTER_PASSWORD.clone()));
+    }
+
+    @Test
+    void recordsTheShardCountOfAVaultWithoutManifest() throws IOException {
+        // Before the manifest existed, each shard was a vault file with a key of its own
+        Path base = dir.resolve("vault.dat");
+        for (int i = 0; i < 3; i++) {
+            VaultJournalTest.open(Path.of(base + "." + i), true).close();
+        }
+
+        ShardedPasswordStorage storage = open(base, 1);
+        assertEquals(3, storage.shardCount());
+        storage.add(entry("mail", "alice", "first"));
+        assertTrue(storage.save());
+        storage.close();
+        assertEquals("first", password(open(base, 1), "mail", "alice"));
+        assertTrue(Files.exists(Path.of(base + ".shards")));
+        // Without the manifest the last shard can no longer go missing unnoticed
+        Files.delete(Path.of(base + ".2"));
+        assertThrows(IOException.class, () -> ShardedPasswordStorage.open(base.toString(), 3, true, false, FAST_KDF));
+    }
+
+    @Test
+    void savesAShardAgainAfterItsSaveFailed() {
+        List<FailingStorage> files = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            files.add(new FailingStorage(dir.resolve("vault.dat." + i)));
+        }
+        ShardedPasswordStorage storage = new ShardedPasswordStorage(files);
+        assertTrue(storage.loadOrInit(MASTER_PASSWORD.clone()));
+        files.forEach(f -> f.saves = 0); // each new shard saved itself when initialized
+        for (int i = 0; i < 20; i++) {
+            storage.add(entry("source-" + i, "login", "password-" + i));
+        }
+
+        files.forEach(f -> f.failing = true);
+        assertFalse(storage.save());
+        files.forEach(f -> f.failing = false);
+        assertTrue(storage.save());
+        for (FailingStorage f : files) {
+            assertEquals(1, f.saves);
+        }
+
+        ShardedPasswordStorage reopened = new ShardedPasswordStorage(List.of(
+                VaultJournalTest.open(dir.resolve("vault.dat.0"), true),
+                VaultJournalTest.open(dir.resolve("vault.dat.1"), true)));
+        assertEquals(20, reopened.getAll().size());
+    }
+
+    /**
+     * A vault file whose saves fail while {@link #failing} is set, as on a full disk.
+     */
+    private static class FailingStorage extends FilePasswordStorage {
+        boolean failing;
+        int saves; // successful saves
+
+        FailingStorage(Path file) {
+            super(file.toString(), true, false, FAST_KDF);
+        }
+
+        @Override
+        public boolean save() {
+            if (failing) return false;
+            boolean saved = super.save();
+            if (saved) saves++;
+            return saved;
+        }
+    }
+}
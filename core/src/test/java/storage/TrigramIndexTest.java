@@ -0,0 +1,131 @@
+package storage;
+
+import model.PasswordEntry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static storage.VaultJournalTest.*;
+
+class TrigramIndexTest {
+    // Few letters, upper and lower case and beyond ASCII, so trigrams repeat across entries
+    private static final String ALPHABET = "abABäÄßσΣ-1";
+
+    @TempDir
+    Path dir;
+
+    private static String random(Random random, int maxLength) {
+        StringBuilder text = new StringBuilder();
+        int length = random.nextInt(maxLength + 1);
+        for (int i = 0; i < length; i++) {
+            text.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+        return text.toString();
+    }
+
+    private static Set<PasswordEntry> identitySet() {
+        return Collections.newSetFromMap(new IdentityHashMap<>());
+    }
+
+    private static Set<PasswordEntry> scan(List<PasswordEntry> entries, String lowerKeyword) {
+        Set<PasswordEntry> matches = identitySet();
+        for (PasswordEntry e : entries) {
+            if (TrigramIndex.containsIgnoreCase(e.sourceView(), lowerKeyword)
+                    || TrigramIndex.containsIgnoreCase(e.loginView(), lowerKeyword)) {
+                matches.add(e);
+            }
+        }
+        return matches;
+    }
+
+    private static boolean hasAllTrigrams(PasswordEntry e, String lowerKeyword) {
+        for (int i = 0; i + TrigramIndex.GRAM_LENGTH <= lowerKeyword.length(); i++) {
+            String gram = lowerKeyword.substring(i, i + TrigramIndex.GRAM_LENGTH);
+            if (!scan(List.of(e), gram).contains(e)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Every entry containing the keyword must be a candidate, and every candidate must be live and
+     * hold all of the keyword's trigrams.
+     */
+    @Test
+    void candidatesCoverEveryMatchAfterAddsAndRemoves() {
+        List<PasswordEntry> entries = new ArrayList<>();
+        TrigramIndex index = new TrigramIndex(entries);
+        Random random = new Random(11);
+        for (int step = 0; step < 5000; step++) {
+            if (entries.isEmpty() || random.nextInt(3) > 0) {
+                PasswordEntry e = entry(random(random, 12), random(random, 8), "password");
+                entries.add(e);
+                index.add(e);
+            } else {
+                // Removed from the list first, as the storage does, since a rebuild reads the list
+                index.remove(entries.remove(random.nextInt(entries.size())));
+            }
+            if (step % 250 == 0) {
+                for (int k = 0; k < 20; k++) {
+                    String keyword = TrigramIndex.lower(random(random, 5));
+                    if (keyword.length() < TrigramIndex.GRAM_LENGTH) continue;
+                    List<PasswordEntry> candidates = index.candidates(keyword);
+                    Set<PasswordEntry> live = identitySet();
+                    live.addAll(entries);
+                    for (PasswordEntry c : candidates) {
+                        assertTrue(live.contains(c), "stale candidate for " + keyword);
+                    }
+                    Set<PasswordEntry> found = identitySet();
+                    found.addAll(candidates);
+                    assertTrue(found.containsAll(scan(entries, keyword)), "missed a match for " + keyword);
+                    // Exactly the entries holding each of the keyword's trigrams somewhere
+                    Set<PasswordEntry> expected = identitySet();
+                    for (PasswordEntry e : entries) {
+                        if (hasAllTrigrams(e, keyword)) expected.add(e);
+                    }
+                    assertEquals(expected, found, "keyword " + keyword);
+                }
+            }
+        }
+    }
+
+    @Test
+    void searchMatchesALinearScan() {
+        FilePasswordStorage storage = open(dir.resolve("vault.dat"), true);
+        Random random = new Random(13);
+        List<String[]> live = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            String source = random(random, 10) + i;
+            String login = random(random, 6);
+            storage.add(entry(source, login, "password"));
+            live.add(new String[]{source, login});
+        }
+        for (int i = 0; i < 800; i++) {
+            String[] removed = live.remove(random.nextInt(live.size()));
+            storage.delete(removed[0].toCharArray(), removed[1].toCharArray());
+        }
+        List<String> keywords = new ArrayList<>(List.of("", "a", "Ä", "σΣ", "AB-", "ßäσ", "zzz"));
+        for (int i = 0; i < 40; i++) {
+            keywords.add(random(random, 4));
+        }
+        for (String keyword : keywords) {
+            String lower = TrigramIndex.lower(keyword);
+            Set<String> expected = live.stream()
+                    .filter(e -> TrigramIndex.containsIgnoreCase(e[0], lower) || TrigramIndex.containsIgnoreCase(e[1], lower))
+                    .map(e -> e[0] + "/" + e[1])
+                    .collect(Collectors.toSet());
+            Set<String> found = storage.search(keyword).stream()
+                    .map(e -> e.sourceView() + "/" + e.loginView())
+                    .collect(Collectors.toSet());
+            assertEquals(expected, found, "keyword " + keyword);
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package storage;
+
+import metrics.Operation;
+import metrics.VaultMetrics;
+import model.PasswordEntry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import strategy.EncryptionStrategy;
+import strategy.KdfParameters;
+import strategy.PBKDF2AesGcmEncryptionStrategy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static storage.VaultJournalTest.*;
+
+class VaultFormatTest {
+    private static final byte[] SALT = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION_OFFSET = 4; // after the magic
+    private static final int FLAGS_OFFSET = 5;
+    private static final byte FLAG_COMPRESSED = 1;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void roundTripsEntriesOnAndOffHeap() {
+        for (boolean offHeap : new boolean[]{false, true}) {
+            Path vault = dir.resolve("vault-" + offHeap + ".dat");
+            FilePasswordStorage storage = new FilePasswordStorage(vault.toString(), false, offHeap, FAST_KDF);
+            assertTrue(storage.loadOrInit(MASTER_PASSWORD.clone()));
+            for (int i = 0; i < 5000; i++) {
+                storage.add(entry("source-" + i, "login-" + i, "password-" + i));
+            }
+            storage.add(entry("ünïcödé 🔑", "é", ""));
+            storage.save();
+            storage.close();
+
+            FilePasswordStorage reopened = new FilePasswordStorage(vault.toString(), false, offHeap, FAST_KDF);
+            assertTrue(reopened.loadOrInit(MASTER_PASSWORD.clone()));
+            assertEquals(5001, reopened.getAll().size());
+            assertEquals("password-4321", password(reopened, "source-4321", "login-4321"));
+            assertEquals("", password(reopened, "ünïcödé 🔑", "é"));
+            reopened.close();
+        }
+    }
+
+    @Test
+    void loadsMoreChunksThanAreOpenedAtOnce() throws IOException {
+        Path vault = dir.resolve("vault.dat");
+        FilePasswordStorage storage = open(vault, false);
+        long sealed = 0;
+        for (int i = 0; i < 20_000; i++) {
+            storage.add(entry("source-" + i, "login-" + i, "password-" + i));
+            sealed += 12 + ("password-" + i).length() * 2 + 16;
+        }
+        storage.save();
+        storage.close();
+        byte[] bytes = Files.readAllBytes(vault);
+
+        for (boolean offHeap : new boolean[]{false, true}) {
+            FilePasswordStorage reopened = new FilePasswordStorage(vault.toString(), false, offHeap, FAST_KDF);
+            assertTrue(reopened.loadOrInit(MASTER_PASSWORD.clone()));
+            assertEquals(20_000, reopened.getAll().size());
+            assertEquals("password-0", password(reopened, "source-0", "login-0"));
+            assertEquals("password-19999", password(reopened, "source-19999", "login-19999"));
+            reopened.close();
+        }
+
+        // The last byte of the last chunk, opened after the first ones were already taken in
+        byte[] tampered = bytes.clone();
+        tampered[(int) (tampered.length - sealed - 4 - 1)] ^= 1;
+        Files.write(vault, tampered);
+        FilePasswordStorage damaged = new FilePasswordStorage(vault.toString(), false, false, FAST_KDF);
+        assertFalse(damaged.loadOrInit(MASTER_PASSWORD.clone()));
+        assertTrue(damaged.getAll().isEmpty());
+    }
+
+    @Test
+    void roundTripsKeysWithUnpairedSurrogates() {
+        // Passwords are bound to the exact UTF-16 text of their keys, so no char may be replaced
+        String[][] keys = {{"ab\uD800", "alice"}, {"mail", "\uDC00x"}, {"\uDC00\uD800", "\uD83D\uDD11"}};
+        Path vault = dir.resolve("vault.dat");
+        FilePasswordStorage storage = open(vault, true);
+        storage.add(entry(keys[0][0], keys[0][1], "first"));
+        storage.save();
+        // The next two only reach the journal
+        storage.add(entry(keys[1][0], keys[1][1], "second"));
+        storage.add(entry(keys[2][0], keys[2][1], "third"));
+        storage.save();
+
+        for (int pass = 0; pass < 2; pass++) {
+            FilePasswordStorage reopened = open(vault, true);
+            assertEquals("first", password(reopened, keys[0][0], keys[0][1]));
+            assertEquals("second", password(reopened, keys[1][0], keys[1][1]));
+            assertEquals("third", password(reopened, keys[2][0], keys[2][1]));
+            // A batch forces a snapshot holding all three
+            reopened.addAll(List.of(entry("bank", "bob", "fourth")).iterator());
+            reopened.save();
+        }
+    }
+
+    @Test
+    void readsACompressedCatalog() throws IOException {
+        Path vault = dir.resolve("vault.dat");
+        FilePasswordStorage storage = open(vault, false);
+        // More than one chunk of entries
+        for (int i = 0; i < 5000; i++) {
+            storage.add(entry("site-" + (i % 50) + ".example.com", "login-" + i, "password-" + i));
+        }
+        storage.save();
+        byte[] bytes = Files.readAllBytes(vault);
+        assertEquals(FLAG_COMPRESSED, bytes[FLAGS_OFFSET]);
+
+        VaultMetrics.reset();
+        FilePasswordStorage reopened = open(vault, false);
+        assertEquals(5000, reopened.getAll().size());
+        assertEquals(2, VaultMetrics.snapshot().get(Operation.DECOMPRESS).getCount());
+        assertEquals("password-4999", password(reopened, "site-49.example.com", "login-4999"));
+
+        // The chunks are authentic, but without the flag they are read as uncompressed catalogs
+        bytes[FLAGS_OFFSET] = 0;
+        Files.write(vault, bytes);
+        assertFalse(new FilePasswordStorage(vault.toString(), false, false, FAST_KDF).loadOrInit(MASTER_PASSWORD.clone()));
+    }
+
+    @Test
+    void rejectsAWrongMasterPassword() {
+        Path vault = dir.resolve("vault.dat");
+        open(vault, false).save();
+        FilePasswordStorage storage = new FilePasswordStorage(vault.toString(), false, false, FAST_KDF);
+        assertFalse(storage.loadOrInit("wrong".toCharArray()));
+    }
+
+    @Test
+    void loadsWithoutDecryptingThePasswords() {
+        Path vault = dir.resolve("vault.dat");
+        FilePasswordStorage storage = open(vault, false);
+        for (int i = 0; i < 100; i++) {
+            storage.add(entry("source-" + i, "login", "password"));
+        }
+        storage.save();
+
+        VaultMetrics.reset();
+        FilePasswordStorage reopened = open(vault, false);
+        assertEquals(100, reopened.getAll().size());
+        // The single catalog chunk is the only ciphertext opened
+        assertEquals(1, VaultMetrics.snapshot().get(Operation.DECRYPT).getCount());
+        assertEquals("password", password(reopened, "source-7", "login"));
+        assertEquals(2, VaultMetrics.snapshot().get(Operation.DECRYPT).getCount());
+    }
+
+    @Test
+    void passwordsSwappedBetweenEntriesFailToOpen() throws IOException {
+        Path vault = dir.resolve("vault.dat");
+        FilePasswordStorage storage = open(vault, false);
+        storage.add(entry("mail", "alice", "first"));
+        storage.add(entry("bank", "alice", "other"));
+        storage.save();
+
+        // The password region ends the file, with both sealed passwords of equal length back to back
+        byte[] bytes = Files.readAllBytes(vault);
+        int sealedLength = 12 + "first".length() * 2 + 16;
+        byte[] last = Arrays.copyOfRange(bytes, bytes.length - sealedLength, bytes.length);
+        System.arraycopy(bytes, bytes.length - 2 * sealedLength, bytes, bytes.length - sealedLength, sealedLength);
+        System.arraycopy(last, 0, bytes, bytes.length - 2 * sealedLength, sealedLength);
+        Files.write(vault, bytes);
+
+        FilePasswordStorage reopened = open(vault, false);
+        PasswordEntry mail = reopened.findBySourceAndLogin("mail".toCharArray(), "alice".toCharArray());
+        assertThrows(IllegalStateException.class, mail::getPassword);
+    }
+
+    @Test
+    void rejectsATruncatedOrTamperedFile() throws IOException {
+        Path vault = dir.resolve("vault.dat");
+        FilePasswordStorage storage = open(vault, false);
+        storage.add(entry("mail", "alice", "first"));
+        storage.save();
+        byte[] bytes = Files.readAllBytes(vault);
+
+        Files.write(vault, Arrays.copyOf(bytes, bytes.length - 1));
+        assertFalse(new FilePasswordStorage(vault.toString(), false, false, FAST_KDF).loadOrInit(MASTER_PASSWORD.clone()));
+
+        // The last byte of the catalog chunk, which precedes the password region and its length
+        byte[] tampered = bytes.clone();
+        tampered[tampered.length - (12 + "first".length() * 2 + 16) - 4 - 1] ^= 1;
+        Files.write(vault, tampered);
+        assertFalse(new FilePasswordStorage(vault.toString(), false, false, FAST_KDF).loadOrInit(MASTER_PASSWORD.clone()));
+    }
+
+    @Test
+    void migratesAChunkedVaultWithoutGeneration() throws IOException {
+        Path vault = dir.resolve("vault.dat");
+        writeVersion4(vault);
+
+        FilePasswordStorage storage = open(vault, true);
+        assertEquals(2, storage.getAll().size());
+        assertEquals("first", password(storage, "mail", "alice"));
+        assertEquals("second", password(storage, "bank", "bob"));
+        storage.save();
+        assertEquals(5, versionOf(vault));
+
+        FilePasswordStorage reopened = open(vault, true);
+        assertEquals("first", password(reopened, "mail", "alice"));
+        assertEquals("second", password(reopened, "bank", "bob"));
+    }
+
+    @Test
+    void migratesALegacyVaultWithPlaintextPasswords() throws IOException {
+        Path vault = dir.resolve("vault.dat");
+        writeLegacy(vault);
+
+        FilePasswordStorage storage = new FilePasswordStorage(vault.toString());
+        assertTrue(storage.loadOrInit(MASTER_PASSWORD.clone()));
+        assertEquals("first", password(storage, "mail", "alice"));
+        storage.save();
+        assertEquals(5, versionOf(vault));
+
+        FilePasswordStorage reopened = new FilePasswordStorage(vault.toString());
+        assertTrue(reopened.loadOrInit(MASTER_PASSWORD.clone()));
+        assertEquals(1, reopened.getAll().size());
+        assertEquals("first", password(reopened, "mail", "alice"));
+    }
+
+    private static int versionOf(Path vault) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(vault.toFile(), "r")) {
+            raf.seek(VERSION_OFFSET);
+            return raf.readByte();
+        }
+    }
+
+    /**
+     * Writes a version 4 vault: one uncompressed chunk holding passwords sealed without associated data.
+     */
+    private static void writeVersion4(Path vault) throws IOException {
+        EncryptionStrategy strategy = new PBKDF2AesGcmEncryptionStrategy(MASTER_PASSWORD.clone(), SALT, FAST_KDF, null);
+        VaultCodec.Writer catalog = new VaultCodec.Writer();
+        catalog.putVarint(2);
+        for (String[] e : new String[][]{{"mail", "alice", "first"}, {"bank", "bob", "second"}}) {
+            catalog.putUtf8(e[0]);
+            catalog.putUtf8(e[1]);
+            ByteBuffer password = ByteBuffer.allocate(e[2].length() * 2);
+            password.asCharBuffer().put(e[2]);
+            byte[] sealed = new byte[strategy.encryptedLength(password.remaining())];
+            strategy.encrypt(password, ByteBuffer.wrap(sealed));
+            catalog.putBytes(sealed);
+        }
+        byte[] chunk = new byte[strategy.encryptedLength(catalog.size())];
+        strategy.encrypt(ByteBuffer.wrap(catalog.array(), 0, catalog.size()), ByteBuffer.wrap(chunk),
+                ByteBuffer.allocate(8).putInt(0).putInt(1).array());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bytes);
+        dos.writeInt(0x534A5656);
+        dos.writeByte(4);
+        dos.writeByte(0);
+        dos.writeByte(SALT.length);
+        dos.write(SALT);
+        byte[] algorithm = FAST_KDF.getAlgorithm().getBytes(StandardCharsets.US_ASCII);
+        dos.writeByte(algorithm.length);
+        dos.write(algorithm);
+        dos.writeInt(FAST_KDF.getIterations());
+        dos.writeShort(FAST_KDF.getKeyLength());
+        dos.writeInt(1);
+        dos.writeInt(chunk.length);
+        dos.write(chunk);
+        Files.write(vault, bytes.toByteArray());
+    }
+
+    /**
+     * Writes a vault of the format without header: the salt and one ciphertext of a catalog with plaintext passwords.
+     */
+    private static void writeLegacy(Path vault) throws IOException {
+        EncryptionStrategy strategy = new PBKDF2AesGcmEncryptionStrategy(MASTER_PASSWORD.clone(), SALT,
+                KdfParameters.LEGACY, null);
+        ByteArrayOutputStream catalog = new ByteArrayOutputStream();
+        DataOutputStream c = new DataOutputStream(catalog);
+        FilePasswordStorage.writeCharArray(c, "CHECK".toCharArray());
+        c.writeInt(1);
+        FilePasswordStorage.writeCharArray(c, "mail".toCharArray());
+        FilePasswordStorage.writeCharArray(c, "alice".toCharArray());
+        FilePasswordStorage.writeCharArray(c, "first".toCharArray());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bytes);
+        dos.writeInt(SALT.length);
+        dos.write(SALT);
+        dos.write(strategy.encrypt(catalog.toByteArray()));
+        Files.write(vault, bytes.toByteArray());
+    }
+}
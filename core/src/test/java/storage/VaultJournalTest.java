@@ -0,0 +1,165 @@
+package storage;
+
+import model.PasswordEntry;
+import model.PasswordEntryBuilder;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import strategy.KdfParameters;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VaultJournalTest {
+    // Few iterations, so the tests do not wait for the key derivation
+    static final KdfParameters FAST_KDF = new KdfParameters(KdfParameters.PBKDF2_HMAC_SHA256, 1000, 256);
+    static final char[] MASTER_PASSWORD = "master".toCharArray();
+
+    @TempDir
+    Path dir;
+
+    static FilePasswordStorage open(Path file, boolean journaled) {
+        FilePasswordStorage storage = new FilePasswordStorage(file.toString(), journaled, false, FAST_KDF);
+        assertTrue(storage.loadOrInit(MASTER_PASSWORD.clone()), "failed to unlock " + file);
+        return storage;
+    }
+
+    static PasswordEntry entry(String source, String login, String password) {
+        return new PasswordEntryBuilder()
+                .setSource(source.toCharArray())
+                .setLogin(login.toCharArray())
+                .setPassword(password.toCharArray())
+                .build();
+    }
+
+    static String password(PasswordStorage storage, String source, String login) {
+        PasswordEntry e = storage.findBySourceAndLogin(source.toCharArray(), login.toCharArray());
+        return e == null ? null : new String(e.getPassword());
+    }
+
+    private Path journal(Path vault) {
+        return Path.of(vault + ".journal");
+    }
+
+    @Test
+    void replaysMutationsAppendedSinceTheSnapshot() {
+        Path vault = dir.resolve("vault.dat");
+        FilePasswordStorage storage = open(vault, true);
+        storage.add(entry("mail", "alice", "one"));
+        storage.add(entry("bank", "alice", "two"));
+        storage.save();
+        storage.delete("bank".toCharArray(), "alice".toCharArray());
+        storage.add(entry("mail", "alice", "three"));
+        storage.save();
+        assertTrue(Files.exists(journal(vault)));
+
+        FilePasswordStorage reopened = open(vault, true);
+        assertEquals(1, reopened.getAll().size());
+        assertEquals("three", password(reopened, "mail", "alice"));
+    }
+
+    @Test
+    void cutsOffATornTail() throws IOException {
+        Path vault = dir.resolve("vault.dat");
+        FilePasswordStorage storage = open(vault, true);
+        storage.add(entry("mail", "alice", "one"));
+        storage.save();
+        long intact = Files.size(journal(vault));
+        storage.add(entry("bank", "alice", "two"));
+        storage.save();
+        // Keep only part of the second record, as a crash during the append would
+        byte[] bytes = Files.readAllBytes(journal(vault));
+        Files.write(journal(vault), Arrays.copyOf(bytes, (int) intact + 7));
+
+        FilePasswordStorage reopened = open(vault, true);
+        assertEquals("one", password(reopened, "mail", "alice"));
+        assertNull(password(reopened, "bank", "alice"));
+        assertEquals(intact, Files.size(journal(vault)));
+
+        // Appending continues after the last intact record
+        reopened.add(entry("shop", "alice", "three"));
+        reopened.save();
+        assertEquals("three", password(open(vault, true), "shop", "alice"));
+    }
+
+    @Test
+    void stopsAtARecordThatFailsAuthentication() throws IOException {
+        Path vault = dir.resolve("vault.dat");
+        FilePasswordStorage storage = open(vault, true);
+        storage.add(entry("mail", "alice", "one"));
+        storage.save();
+        long intact = Files.size(journal(vault));
+        storage.add(entry("bank", "alice", "two"));
+        storage.save();
+        byte[] bytes = Files.readAllBytes(journal(vault));
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(journal(vault), bytes);
+
+        FilePasswordStorage reopened = open(vault, true);
+        assertEquals("one", password(reopened, "mail", "alice"));
+        assertNull(password(reopened, "bank", "alice"));
+        assertEquals(intact, Files.size(journal(vault)));
+    }
+
+    @Test
+    void ignoresAJournalLeftBehindByAnOlderSnapshot() throws IOException {
+        Path vault = dir.resolve("vault.dat");
+        FilePasswordStorage storage = open(vault, true);
+        storage.add(entry("mail", "alice", "old"));
+        storage.save();
+        byte[] oldJournal = Files.readAllBytes(journal(vault));
+
+        // A batch forces a new snapshot, which deletes the journal
+        storage.delete("mail".toCharArray(), "alice".toCharArray());
+        storage.addAll(List.of(entry("bank", "alice", "two")).iterator());
+        storage.save();
+        assertFalse(Files.exists(journal(vault)));
+
+        // A crash between replacing the snapshot and deleting the journal leaves the old one behind
+        Files.write(journal(vault), oldJournal);
+        FilePasswordStorage reopened = open(vault, true);
+        assertNull(password(reopened, "mail", "alice"));
+        assertEquals("two", password(reopened, "bank", "alice"));
+        assertFalse(Files.exists(journal(vault)));
+    }
+
+    @Test
+    void ignoresAJournalOfAnotherVaultWithTheSameKey() throws IOException {
+        Path first = dir.resolve("first.dat");
+        FilePasswordStorage storage = open(first, true);
+        storage.add(entry("mail", "alice", "one"));
+        storage.save();
+        Path second = dir.resolve("second.dat");
+        Files.copy(first, second);
+        storage.add(entry("bank", "alice", "two"));
+        storage.save();
+        FilePasswordStorage copy = open(second, true);
+        copy.addAll(List.of(entry("shop", "alice", "three")).iterator());
+        copy.save();
+
+        // The first vault's journal holds records sealed with the same key
+        Files.copy(journal(first), journal(second));
+        FilePasswordStorage reopened = open(second, true);
+        assertNull(password(reopened, "bank", "alice"));
+        assertEquals("three", password(reopened, "shop", "alice"));
+    }
+
+    @Test
+    void ignoresAJournalWithoutHeaderOnASnapshotWithAGeneration() throws IOException {
+        Path vault = dir.resolve("vault.dat");
+        FilePasswordStorage storage = open(vault, true);
+        storage.add(entry("mail", "alice", "one"));
+        storage.save();
+        byte[] bytes = Files.readAllBytes(journal(vault));
+        Files.write(journal(vault), Arrays.copyOfRange(bytes, 12, bytes.length), StandardOpenOption.TRUNCATE_EXISTING);
+
+        FilePasswordStorage reopened = open(vault, true);
+        assertTrue(reopened.getAll().isEmpty());
+        assertFalse(Files.exists(journal(vault)));
+    }
+}
@@ -0,0 +1,90 @@
+package strategy;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SegmentedAeadStreamTest {
+    // Few iterations, so the tests do not wait for the key derivation
+    private static final KdfParameters FAST_KDF = new KdfParameters(KdfParameters.PBKDF2_HMAC_SHA256, 1000, 256);
+    private static final char[] PASSWORD = "backup".toCharArray();
+    private static final int SEALED_SEGMENT = SegmentedAead.SEGMENT_SIZE + SegmentedAead.TAG_LENGTH;
+
+    private static byte[] plaintext(int length) {
+        byte[] data = new byte[length];
+        new Random(42).nextBytes(data);
+        return data;
+    }
+
+    private static byte[] encrypt(byte[] data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (SegmentedAeadOutputStream out = new SegmentedAeadOutputStream(bytes, PASSWORD, FAST_KDF)) {
+            out.write(data);
+            out.finish();
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] decrypt(byte[] sealed, char[] password) throws IOException {
+        try (InputStream in = new SegmentedAeadInputStream(new ByteArrayInputStream(sealed), password)) {
+            return in.readAllBytes();
+        }
+    }
+
+    @Test
+    void roundTripsAnyLength() throws IOException {
+        for (int length : new int[]{0, 1, SegmentedAead.SEGMENT_SIZE, 3 * SegmentedAead.SEGMENT_SIZE + 100}) {
+            byte[] data = plaintext(length);
+            assertArrayEquals(data, decrypt(encrypt(data), PASSWORD), "length " + length);
+        }
+    }
+
+    @Test
+    void rejectsAWrongPassword() throws IOException {
+        byte[] sealed = encrypt(plaintext(100));
+        assertThrows(IOException.class, () -> decrypt(sealed, "wrong".toCharArray()));
+    }
+
+    @Test
+    void detectsATruncationAtASegmentBoundary() throws IOException {
+        byte[] sealed = encrypt(plaintext(3 * SegmentedAead.SEGMENT_SIZE + 100));
+        // Drop the final segment; the segments left are intact but none of them is marked final
+        byte[] truncated = Arrays.copyOf(sealed, sealed.length - (100 + SegmentedAead.TAG_LENGTH));
+        assertThrows(IOException.class, () -> decrypt(truncated, PASSWORD));
+    }
+
+    @Test
+    void detectsReorderedSegments() throws IOException {
+        byte[] sealed = encrypt(plaintext(3 * SegmentedAead.SEGMENT_SIZE + 100));
+        int header = sealed.length - 3 * SEALED_SEGMENT - (100 + SegmentedAead.TAG_LENGTH);
+        byte[] first = Arrays.copyOfRange(sealed, header, header + SEALED_SEGMENT);
+        System.arraycopy(sealed, header + SEALED_SEGMENT, sealed, header, SEALED_SEGMENT);
+        System.arraycopy(first, 0, sealed, header + SEALED_SEGMENT, SEALED_SEGMENT);
+        assertThrows(IOException.class, () -> decrypt(sealed, PASSWORD));
+    }
+
+    @Test
+    void detectsAModifiedByte() throws IOException {
+        byte[] sealed = encrypt(plaintext(2 * SegmentedAead.SEGMENT_SIZE));
+        sealed[sealed.length - SEALED_SEGMENT - 1] ^= 1;
+        assertThrows(IOException.class, () -> decrypt(sealed, PASSWORD));
+    }
+
+    @Test
+    void aStreamClosedWithoutFinishingReadsAsTruncated() throws IOException {
+        for (int length : new int[]{0, 100, 2 * SegmentedAead.SEGMENT_SIZE}) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (SegmentedAeadOutputStream out = new SegmentedAeadOutputStream(bytes, PASSWORD, FAST_KDF)) {
+                out.write(plaintext(length));
+            }
+            assertThrows(IOException.class, () -> decrypt(bytes.toByteArray(), PASSWORD), "length " + length);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package transfer;
+
+import model.PasswordEntry;
+import model.PasswordEntryBuilder;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BinaryEntryTest {
+    private static PasswordEntry entry(String source, String login, String password) {
+        return new PasswordEntryBuilder()
+                .setSource(source.toCharArray())
+                .setLogin(login.toCharArray())
+                .setPassword(password.toCharArray())
+                .build();
+    }
+
+    private static byte[] export(boolean finish, PasswordEntry... entries) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (BinaryEntryWriter writer = new BinaryEntryWriter(bytes)) {
+            for (PasswordEntry e : entries) {
+                writer.write(e);
+            }
+            if (finish) writer.finish();
+        }
+        return bytes.toByteArray();
+    }
+
+    private static List<String> read(byte[] bytes, int expectedRejected) throws IOException {
+        List<String> rows = new ArrayList<>();
+        try (BinaryEntryReader reader = new BinaryEntryReader(new ByteArrayInputStream(bytes))) {
+            while (reader.hasNext()) {
+                PasswordEntry e = reader.next();
+                rows.add(new String(e.getSource()) + "," + new String(e.getLogin()) + "," + new String(e.getPassword()));
+            }
+            assertEquals(expectedRejected, reader.rejectedCount());
+        }
+        return rows;
+    }
+
+    @Test
+    void roundTripsEntries() throws IOException {
+        byte[] bytes = export(true, entry("mail", "alice", "first"), entry("ünïcödé 🔑", "bob", "p,\"w\"\n"));
+        assertEquals(List.of("mail,alice,first", "ünïcödé 🔑,bob,p,\"w\"\n"), read(bytes, 0));
+    }
+
+    @Test
+    void rejectsAnExportWithoutItsEndMarker() throws IOException {
+        byte[] bytes = export(false, entry("mail", "alice", "first"));
+        assertEquals(List.of("mail,alice,first"), read(bytes, 1));
+    }
+
+    @Test
+    void rejectsAFrameCutOff() throws IOException {
+        byte[] bytes = export(true, entry("mail", "alice", "first"), entry("bank", "bob", "second"));
+        // Cut into the second frame, keeping the first one whole
+        byte[] truncated = Arrays.copyOf(bytes, bytes.length - 4);
+        assertEquals(List.of("mail,alice,first"), read(truncated, 1));
+    }
+
+    @Test
+    void rejectsAFrameWithAnEmptyField() throws IOException {
+        byte[] bytes = export(true, entry("mail", "alice", ""), entry("bank", "bob", "second"));
+        assertEquals(List.of("bank,bob,second"), read(bytes, 1));
+    }
+
+    @Test
+    void rejectsAnotherFormat() {
+        byte[] bytes = "source,login,password\r\n".getBytes();
+        assertThrows(IOException.class, () -> new BinaryEntryReader(new ByteArrayInputStream(bytes)));
+    }
+}
@@ -1,8 +1,14 @@
 import facade.PasswordManagerFacade;
 import model.PasswordEntry;
+import storage.StorageListener;
 import javafx.application.Application;
+import javafx.animation.PauseTransition;
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.concurrent.Task;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
+import javafx.geometry.Side;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
 import javafx.scene.layout.*;
@@ -10,15 +16,45 @@ import javafx.stage.Stage;
 import javafx.stage.Modality;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
-import javafx.scene.control.cell.PropertyValueFactory;
+import javafx.collections.transformation.SortedList;
+import javafx.util.Duration;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 
 public class MainFX extends Application {
+    // Typing pauses this long before the search runs
+    private static final long SEARCH_DELAY_MILLIS = 200;
+    // Matches handed to the table at a time; a page fills the visible rows
+    private static final int SEARCH_PAGE_SIZE = 64;
+    // Completions offered under a text field as the user types
+    private static final int COMPLETION_LIMIT = 10;
+
     private PasswordManagerFacade facade;
-    private TableView<PasswordEntryWrapper> tableView;
-    private ObservableList<PasswordEntryWrapper> data;
+    private TableView<PasswordEntry> tableView;
+    // Every entry of the vault, kept up to date by the storage's change events
+    private Rows data;
+    private SortedList<PasswordEntry> sortedData;
+    private Rows results; // matches of the search shown, null when showing all
+
+    private final ExecutorService searchExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "vault-search");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicLong searchGeneration = new AtomicLong(); // bumped by every new search
+    private Future<?> runningSearch;
 
     public static void main(String[] args) {
         launch(args);
@@ -31,17 +67,74 @@ public class MainFX extends Application {
             System.exit(0);
         }
 
-        facade = new PasswordManagerFacade(masterPassword);
-        Arrays.fill(masterPassword, '\0');
-
-        if (!facade.isUnlocked()) {
-            showAlert("Error", "Incorrect master password");
+        // The key derivation is slow by design, so the vault is unlocked off the UI thread
+        Task<PasswordManagerFacade> unlock = new Task<>() {
+            @Override
+            protected PasswordManagerFacade call() {
+                try {
+                    // Saves run on a background writer so that edits never block the UI thread
+                    return new PasswordManagerFacade(masterPassword, true, p -> updateProgress(p, 1));
+                } finally {
+                    Arrays.fill(masterPassword, '\0');
+                }
+            }
+        };
+        Stage progressDialog = showUnlockProgress(unlock);
+        unlock.setOnSucceeded(e -> {
+            progressDialog.close();
+            facade = unlock.getValue();
+            if (!facade.isUnlocked()) {
+                showAlert("Error", "Incorrect master password");
+                System.exit(0);
+            }
+            showMainWindow(primaryStage);
+        });
+        unlock.setOnCancelled(e -> System.exit(0));
+        unlock.setOnFailed(e -> {
+            progressDialog.close();
+            unlock.getException().printStackTrace();
+            showAlert("Error", "The vault could not be opened");
             System.exit(0);
-        }
+        });
+        Thread unlockThread = new Thread(unlock, "vault-unlock");
+        unlockThread.setDaemon(true);
+        unlockThread.start();
+    }
+
+    private Stage showUnlockProgress(Task<?> unlock) {
+        Stage dialog = new Stage();
+        dialog.initModality(Modality.APPLICATION_MODAL);
+        dialog.setTitle("Unlocking");
+
+        ProgressBar progressBar = new ProgressBar();
+        progressBar.setPrefWidth(300);
+        progressBar.progressProperty().bind(unlock.progressProperty());
+
+        Button cancelBtn = new Button("Cancel");
+        cancelBtn.setCancelButton(true);
+        cancelBtn.setOnAction(e -> unlock.cancel());
+        dialog.setOnCloseRequest(e -> unlock.cancel());
+
+        HBox btnBox = new HBox(10, cancelBtn);
+        btnBox.setAlignment(Pos.CENTER_RIGHT);
+
+        VBox vbox = new VBox(10, new Label("Unlocking the vault..."), progressBar, btnBox);
+        vbox.setPadding(new Insets(10));
 
+        dialog.setScene(new Scene(vbox));
+        dialog.show();
+        return dialog;
+    }
+
+    private void showMainWindow(Stage primaryStage) {
         primaryStage.setTitle("Password Manager");
+        data = new Rows();
+        facade.addListener(new TableUpdater());
+        data.addAll(facade.getAll());
         tableView = createTableView();
-        loadEntries(facade.getAll());
+        sortedData = new SortedList<>(data.list);
+        sortedData.comparatorProperty().bind(tableView.comparatorProperty());
+        tableView.setItems(sortedData);
 
         HBox buttonsBox = createButtonsBox();
 
@@ -52,40 +145,79 @@ public class MainFX extends Application {
         primaryStage.show();
     }
 
-    private TableView<PasswordEntryWrapper> createTableView() {
-        TableView<PasswordEntryWrapper> table = new TableView<>();
+    @Override
+    public void stop() {
+        searchExecutor.shutdownNow();
+        // Closing the window must not lose changes the background writer has not saved yet
+        if (facade != null) {
+            facade.close();
+        }
+    }
+
+    private TableView<PasswordEntry> createTableView() {
+        TableView<PasswordEntry> table = new TableView<>();
         table.getColumns().addAll(
-            createColumn("Source", "source", 250),
-            createColumn("Login", "login", 250)
+            createColumn("Source", PasswordEntry::sourceView, 250),
+            createColumn("Login", PasswordEntry::loginView, 250)
         );
         return table;
     }
 
-    private TableColumn<PasswordEntryWrapper, String> createColumn(String title, String property, double width) {
-        TableColumn<PasswordEntryWrapper, String> col = new TableColumn<>(title);
-        col.setCellValueFactory(new PropertyValueFactory<>(property));
+    /**
+     * Creates a column whose cells show one field of the row's entry. The rows hold the entries
+     * themselves, so text is only made for the cells on screen, and sorting compares the views.
+     */
+    private TableColumn<PasswordEntry, PasswordEntry> createColumn(String title,
+            Function<PasswordEntry, CharSequence> field, double width) {
+        TableColumn<PasswordEntry, PasswordEntry> col = new TableColumn<>(title);
+        col.setCellValueFactory(c -> new ReadOnlyObjectWrapper<>(c.getValue()));
+        col.setCellFactory(c -> new TableCell<>() {
+            @Override
+            protected void updateItem(PasswordEntry entry, boolean empty) {
+                super.updateItem(entry, empty);
+                setText(empty || entry == null ? null : format(field, entry));
+            }
+        });
+        col.setComparator((a, b) -> compare(field, a, b));
         col.setPrefWidth(width);
         return col;
     }
 
+    private static String format(Function<PasswordEntry, CharSequence> field, PasswordEntry entry) {
+        try {
+            return field.apply(entry).toString();
+        } catch (IllegalStateException e) {
+            // Deleted by another thread and already zeroed; its row goes away with the next update
+            return null;
+        }
+    }
+
+    private static int compare(Function<PasswordEntry, CharSequence> field, PasswordEntry a, PasswordEntry b) {
+        try {
+            return CharSequence.compare(field.apply(a), field.apply(b));
+        } catch (IllegalStateException e) {
+            // One of them was deleted by another thread and already zeroed; it sorts first until its row goes away
+            return Boolean.compare(format(field, a) != null, format(field, b) != null);
+        }
+    }
+
     private HBox createButtonsBox() {
         Button addBtn = new Button("Add");
         addBtn.setOnAction(e -> {
-            EntryResult result = showEntryDialog("Add Entry", null);
+            EntryResult result = showEntryDialog("Add Entry", null, null);
             if (result != null) {
                 facade.addEntry(result.source, result.login, result.password);
-                loadEntries(facade.getAll());
             }
         });
 
         Button getBtn = new Button("Get");
         getBtn.setOnAction(e -> {
-            PasswordEntryWrapper selected = tableView.getSelectionModel().getSelectedItem();
+            PasswordEntry selected = tableView.getSelectionModel().getSelectedItem();
             if (selected == null) {
                 showAlert("Information", "No entry selected");
                 return;
             }
-            char[] pass = facade.getPassword(selected.source, selected.login);
+            char[] pass = facade.getPassword(selected.getSource(), selected.getLogin());
             if (pass == null) {
                 showAlert("Information", "Password not found");
             } else {
@@ -95,37 +227,48 @@ public class MainFX extends Application {
 
         Button editBtn = new Button("Edit");
         editBtn.setOnAction(e -> {
-            PasswordEntryWrapper selected = tableView.getSelectionModel().getSelectedItem();
+            PasswordEntry selected = tableView.getSelectionModel().getSelectedItem();
             if (selected == null) {
                 showAlert("Information", "No entry selected for editing");
                 return;
             }
-            EntryResult result = showEntryDialog("Edit Entry", selected);
+            char[] source = selected.getSource();
+            char[] login = selected.getLogin();
+            EntryResult result = showEntryDialog("Edit Entry", source, login);
             if (result != null) {
-                facade.editEntry(selected.source, selected.login, result.source, result.login, result.password);
-                loadEntries(facade.getAll());
+                facade.editEntry(source, login, result.source, result.login, result.password);
             }
         });
 
         Button deleteBtn = new Button("Delete");
         deleteBtn.setOnAction(e -> {
-            PasswordEntryWrapper selected = tableView.getSelectionModel().getSelectedItem();
+            PasswordEntry selected = tableView.getSelectionModel().getSelectedItem();
             if (selected == null) {
                 showAlert("Information", "No entry selected for deletion");
                 return;
             }
+            char[] source = selected.getSource();
+            char[] login = selected.getLogin();
             if (confirmAction("Deletion", "Are you sure you want to delete the selected entry?")) {
-                facade.deleteEntry(selected.source, selected.login);
-                loadEntries(facade.getAll());
+                facade.deleteEntry(source, login);
             }
         });
 
         TextField searchField = new TextField();
         searchField.setPromptText("Search...");
+        addAutocomplete(searchField, prefix -> {
+            List<String> completions = new ArrayList<>(facade.sourcesStartingWith(prefix, COMPLETION_LIMIT));
+            completions.addAll(facade.loginsStartingWith(prefix, COMPLETION_LIMIT));
+            return completions.subList(0, Math.min(completions.size(), COMPLETION_LIMIT));
+        });
+        // Searches once typing pauses; the button searches at once
+        PauseTransition searchDelay = new PauseTransition(Duration.millis(SEARCH_DELAY_MILLIS));
+        searchDelay.setOnFinished(e -> startSearch(searchField.getText().trim()));
+        searchField.textProperty().addListener((obs, oldText, newText) -> searchDelay.playFromStart());
         Button searchBtn = new Button("Search");
         searchBtn.setOnAction(e -> {
-            String keyword = searchField.getText().trim();
-            loadEntries(keyword.isEmpty() ? facade.getAll() : facade.search(keyword));
+            searchDelay.stop();
+            startSearch(searchField.getText().trim());
         });
 
         Button exitBtn = new Button("Exit");
@@ -140,9 +283,49 @@ public class MainFX extends Application {
         return box;
     }
 
-    private void loadEntries(List<PasswordEntry> entries) {
-        data = FXCollections.observableArrayList(entries.stream().map(PasswordEntryWrapper::new).toList());
-        tableView.setItems(data);
+    /**
+     * Stops the search in progress and starts one for the keyword on the search thread. Its matches
+     * are added to the table page by page as they are found, so the first ones show up at once.
+     * If no entry contains the keyword, the entries closest to it are shown, best first.
+     *
+     * @param keyword The keyword to search for; an empty one shows every entry again.
+     */
+    private void startSearch(String keyword) {
+        long generation = searchGeneration.incrementAndGet();
+        if (runningSearch != null) {
+            runningSearch.cancel(true);
+            runningSearch = null;
+        }
+        if (keyword.isEmpty()) {
+            results = null;
+            tableView.setItems(sortedData);
+            return;
+        }
+        Rows found = new Rows();
+        results = found;
+        SortedList<PasswordEntry> sortedFound = new SortedList<>(found.list);
+        sortedFound.comparatorProperty().bind(tableView.comparatorProperty());
+        tableView.setItems(sortedFound);
+        runningSearch = searchExecutor.submit(() -> {
+            boolean[] matched = {false};
+            boolean completed = facade.search(keyword, SEARCH_PAGE_SIZE, page -> {
+                if (searchGeneration.get() != generation) return false;
+                matched[0] = true;
+                show(found, page);
+                return true;
+            });
+            // Nothing contains the keyword, so it may be mistyped: show the closest entries instead
+            if (completed && !matched[0] && searchGeneration.get() == generation) {
+                show(found, facade.fuzzySearch(keyword, SEARCH_PAGE_SIZE));
+            }
+        });
+    }
+
+    private void show(Rows found, List<PasswordEntry> page) {
+        Platform.runLater(() -> {
+            // A page that arrives after a newer search started belongs to nothing on screen
+            if (results == found) found.addAll(page);
+        });
     }
 
     private char[] promptPassword(String title, String message) {
@@ -183,15 +366,18 @@ public class MainFX extends Application {
         return (char[]) dialog.getUserData();
     }
 
-    private EntryResult showEntryDialog(String title, PasswordEntryWrapper entry) {
+    private EntryResult showEntryDialog(String title, char[] currentSource, char[] currentLogin) {
         Stage dialog = new Stage();
         dialog.initModality(Modality.APPLICATION_MODAL);
         dialog.setTitle(title);
 
-        TextField sourceField = new TextField(entry != null ? new String(entry.source) : "");
-        TextField loginField = new TextField(entry != null ? new String(entry.login) : "");
+        boolean editing = currentSource != null;
+        TextField sourceField = new TextField(editing ? new String(currentSource) : "");
+        TextField loginField = new TextField(editing ? new String(currentLogin) : "");
+        addAutocomplete(sourceField, prefix -> facade.sourcesStartingWith(prefix, COMPLETION_LIMIT));
+        addAutocomplete(loginField, prefix -> facade.loginsStartingWith(prefix, COMPLETION_LIMIT));
         PasswordField passwordField = new PasswordField();
-        passwordField.setPromptText(entry == null ? "Password" : "New Password");
+        passwordField.setPromptText(editing ? "New Password" : "Password");
 
         Button okBtn = new Button("OK");
         Button cancelBtn = new Button("Cancel");
@@ -222,7 +408,7 @@ public class MainFX extends Application {
         VBox vbox = new VBox(10,
                 new Label("Source:"), sourceField,
                 new Label("Login:"), loginField,
-                new Label(entry == null ? "Password:" : "New Password:"), passwordField,
+                new Label(editing ? "New Password:" : "Password:"), passwordField,
                 btnBox);
         vbox.setPadding(new Insets(10));
 
@@ -231,6 +417,47 @@ public class MainFX extends Application {
         return (EntryResult) dialog.getUserData();
     }
 
+    /**
+     * Offers completions in a drop-down under the field while the user types in it; choosing one
+     * puts it in the field. Completions come from the storage's prefix indexes, which answer in
+     * microseconds, so they are looked up on the UI thread at every keystroke.
+     *
+     * @param field       The field to complete.
+     * @param completions Returns the completions of the text typed so far.
+     */
+    private void addAutocomplete(TextField field, Function<String, List<String>> completions) {
+        ContextMenu popup = new ContextMenu();
+        field.textProperty().addListener((obs, oldText, newText) -> {
+            if (!field.isFocused() || newText.isEmpty()) {
+                popup.hide();
+                return;
+            }
+            List<String> found = completions.apply(newText);
+            // Nothing left to complete once the text is the only completion
+            if (found.isEmpty() || (found.size() == 1 && found.get(0).equals(newText))) {
+                popup.hide();
+                return;
+            }
+            List<MenuItem> items = new ArrayList<>(found.size());
+            for (String completion : found) {
+                MenuItem item = new MenuItem(completion);
+                item.setMnemonicParsing(false);
+                item.setOnAction(e -> {
+                    field.setText(completion);
+                    field.positionCaret(completion.length());
+                });
+                items.add(item);
+            }
+            popup.getItems().setAll(items);
+            if (!popup.isShowing()) {
+                popup.show(field, Side.BOTTOM, 0, 0);
+            }
+        });
+        field.focusedProperty().addListener((obs, wasFocused, focused) -> {
+            if (!focused) popup.hide();
+        });
+    }
+
     private boolean confirmAction(String title, String message) {
         Alert alert = new Alert(Alert.AlertType.CONFIRMATION, message, ButtonType.YES, ButtonType.NO);
         alert.setTitle(title);
@@ -258,21 +485,113 @@ public class MainFX extends Application {
         }
     }
 
-    public static class PasswordEntryWrapper {
-        private final char[] source;
-        private final char[] login;
+    /**
+     * Applies the storage's change events to the table's entries, touching only the affected rows.
+     * Events raised on the UI thread are applied at once; events from other threads are queued and
+     * applied together in one later pass, so a bulk import adds its rows in a single change.
+     */
+    private final class TableUpdater implements StorageListener {
+        // {old, new}: old is null for an added entry, new is null for a removed one
+        private final Queue<PasswordEntry[]> pending = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        @Override
+        public void entryAdded(PasswordEntry entry) {
+            enqueue(null, entry);
+        }
+
+        @Override
+        public void entryRemoved(PasswordEntry entry) {
+            enqueue(entry, null);
+        }
+
+        @Override
+        public void entryReplaced(PasswordEntry oldEntry, PasswordEntry newEntry) {
+            enqueue(oldEntry, newEntry);
+        }
+
+        private void enqueue(PasswordEntry oldEntry, PasswordEntry newEntry) {
+            pending.add(new PasswordEntry[]{oldEntry, newEntry});
+            if (Platform.isFxApplicationThread()) {
+                flush();
+            } else if (scheduled.compareAndSet(false, true)) {
+                Platform.runLater(this::flush);
+            }
+        }
+
+        private void flush() {
+            scheduled.set(false);
+            List<PasswordEntry> added = new ArrayList<>();
+            PasswordEntry[] change;
+            while ((change = pending.poll()) != null) {
+                PasswordEntry oldEntry = change[0];
+                PasswordEntry newEntry = change[1];
+                if (oldEntry == null) {
+                    added.add(newEntry);
+                    continue;
+                }
+                addAll(added);
+                added.clear();
+                data.replace(oldEntry, newEntry, true);
+                if (results != null) {
+                    // Edited rows stay among the results; deleted ones leave them
+                    results.replace(oldEntry, newEntry, false);
+                }
+            }
+            addAll(added);
+        }
+
+        private void addAll(List<PasswordEntry> added) {
+            if (added.isEmpty()) return;
+            data.addAll(added);
+            if (results != null) {
+                // Entries added while a search is shown stay visible, so new rows do not vanish
+                results.addAll(added);
+            }
+        }
 
-        public PasswordEntryWrapper(PasswordEntry entry) {
-            this.source = entry.getSource();
-            this.login = entry.getLogin();
+    }
+
+    /**
+     * The entries of a table with the row of each one, so a change event finds its row without a scan.
+     * A removed row is filled with the last one, like the storage does, so a bulk edit stays linear.
+     * The table shows the rows through a {@link SortedList}, so their own order only matters unsorted.
+     */
+    private static final class Rows {
+        final ObservableList<PasswordEntry> list = FXCollections.observableArrayList();
+        private final Map<PasswordEntry, Integer> rows = new IdentityHashMap<>();
+
+        void addAll(List<PasswordEntry> entries) {
+            List<PasswordEntry> added = new ArrayList<>(entries.size());
+            for (PasswordEntry e : entries) {
+                // A search may also find an entry added while it ran; the entry keeps a single row
+                if (rows.putIfAbsent(e, list.size() + added.size()) == null) {
+                    added.add(e);
+                }
+            }
+            list.addAll(added);
         }
 
-        public String getSource() {
-            return new String(source);
+        void replace(PasswordEntry oldEntry, PasswordEntry newEntry, boolean addIfMissing) {
+            Integer row = rows.remove(oldEntry);
+            if (newEntry == null) {
+                if (row != null) remove(row);
+            } else if (row != null) {
+                rows.put(newEntry, row);
+                list.set(row, newEntry);
+            } else if (addIfMissing) {
+                addAll(List.of(newEntry));
+            }
         }
 
-        public String getLogin() {
-            return new String(login);
+        private void remove(int row) {
+            int last = list.size() - 1;
+            if (row != last) {
+                PasswordEntry moved = list.get(last);
+                rows.put(moved, row);
+                list.set(row, moved);
+            }
+            list.remove(last);
         }
     }
 }
\ No newline at end of file
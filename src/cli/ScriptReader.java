@@ -0,0 +1,135 @@
+package cli;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Splits a script into commands, one per line, and each command into its words. Words are
+ * separated by spaces or tabs; a word in double quotes may contain them, and a backslash makes the
+ * next character literal. Empty lines and lines starting with {@code #} are skipped.
+ *
+ * <p>Lines are read into a reused buffer and words are copied straight into character arrays, so a
+ * password given to {@code add} is never held in a {@link String}. The buffer is wiped after every line.
+ */
+class ScriptReader implements AutoCloseable {
+    private final Reader in;
+    private char[] line = new char[256];
+    private int length;
+    private int lineNumber;
+
+    /**
+     * Constructs a reader over a script.
+     *
+     * @param in The script; it is closed with this reader.
+     */
+    ScriptReader(Reader in) {
+        this.in = in;
+    }
+
+    /**
+     * Reads the next line as it is, without splitting it, for example a password.
+     *
+     * @return The characters of the line, or {@code null} at the end of the script.
+     * @throws IOException If the script cannot be read.
+     */
+    char[] readLine() throws IOException {
+        if (!fill()) return null;
+        char[] text = Arrays.copyOf(line, length);
+        wipe();
+        return text;
+    }
+
+    /**
+     * Reads the next command.
+     *
+     * @return The words of the command, or {@code null} at the end of the script.
+     * @throws IOException              If the script cannot be read.
+     * @throws IllegalArgumentException If the command ends inside quotes or after a backslash.
+     */
+    List<char[]> next() throws IOException {
+        while (fill()) {
+            try {
+                List<char[]> words = split();
+                if (!words.isEmpty() && (words.get(0).length == 0 || words.get(0)[0] != '#')) return words;
+            } finally {
+                wipe();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the number of the line of the last command, counting from 1.
+     */
+    int lineNumber() {
+        return lineNumber;
+    }
+
+    private boolean fill() throws IOException {
+        length = 0;
+        int c = in.read();
+        if (c < 0) return false;
+        lineNumber++;
+        while (c >= 0 && c != '\n') {
+            if (length == line.length) {
+                char[] grown = Arrays.copyOf(line, length << 1);
+                Arrays.fill(line, '\0');
+                line = grown;
+            }
+            line[length++] = (char) c;
+            c = in.read();
+        }
+        if (length > 0 && line[length - 1] == '\r') length--;
+        return true;
+    }
+
+    private List<char[]> split() {
+        List<char[]> words = new ArrayList<>(4);
+        char[] word = new char[length];
+        try {
+            splitInto(word, words);
+        } finally {
+            Arrays.fill(word, '\0');
+        }
+        return words;
+    }
+
+    private void splitInto(char[] word, List<char[]> words) {
+        int i = 0;
+        while (i < length) {
+            if (line[i] == ' ' || line[i] == '\t') {
+                i++;
+                continue;
+            }
+            int size = 0;
+            boolean quoted = false;
+            for (; i < length && (quoted || (line[i] != ' ' && line[i] != '\t')); i++) {
+                char c = line[i];
+                if (c == '"') {
+                    quoted = !quoted;
+                } else if (c == '\\') {
+                    if (++i == length) throw new IllegalArgumentException("Line ends after a backslash");
+                    word[size++] = line[i];
+                } else {
+                    word[size++] = c;
+                }
+            }
+            if (quoted) throw new IllegalArgumentException("Unterminated quotes");
+            words.add(Arrays.copyOf(word, size));
+        }
+    }
+
+    private void wipe() {
+        Arrays.fill(line, 0, length, '\0');
+        length = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        Arrays.fill(line, '\0');
+        in.close();
+    }
+}
@@ -0,0 +1,249 @@
+package cli;
+
+import facade.PasswordManagerFacade;
+import model.PasswordEntry;
+import transfer.EntryFormat;
+import transfer.TransferReport;
+
+import java.io.Console;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Command-line front end that runs a script of commands against {@code vault.dat} in one unlock
+ * session, without starting the JavaFX toolkit. Each argument is one command; without arguments the
+ * commands are read from standard input, one per line. The commands are:
+ * <ul>
+ *     <li>{@code get <source> <login>}: prints the password.</li>
+ *     <li>{@code add <source> <login> <password>}: adds the entry, replacing one with the same source and login.</li>
+ *     <li>{@code delete <source> <login>}: deletes the entry.</li>
+ *     <li>{@code search <keyword>}: prints the source and login of each match, separated by a tab.</li>
+ *     <li>{@code import <file> [csv|binary]}: imports the entries of a file, CSV by default.</li>
+ *     <li>{@code backup <file> <password>}: writes an encrypted backup of every entry, protected by the password.</li>
+ *     <li>{@code restore <file> <password>}: adds the entries of a backup, replacing those with the same source and login.</li>
+ * </ul>
+ * Words are split as described in {@link ScriptReader}. All changes are saved once, after the last
+ * command. A failing command is reported on standard error and the script goes on; the exit status
+ * is then 1.
+ *
+ * <p>The master password is read from the console, or from the first line of standard input when
+ * there is no console, so a script can be piped in after it.
+ *
+ * <p>This class only refers to the facade, so starting it loads none of the JavaFX classes. For the
+ * shortest start-up, run it with the {@code vault-cli} launcher, which uses a class data sharing
+ * archive of the classes a run loads.
+ */
+public class VaultCli {
+    private final PasswordManagerFacade facade;
+    private final PrintStream out;
+    private final PrintStream err;
+    private int failures;
+    private String argument; // names the command given as an argument that is running, null for standard input
+
+    VaultCli(PasswordManagerFacade facade, PrintStream out, PrintStream err) {
+        this.facade = facade;
+        this.out = out;
+        this.err = err;
+    }
+
+    public static void main(String[] args) throws IOException {
+        // Standard input may carry both the password and the script, so both are read through one reader
+        ScriptReader stdin = new ScriptReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        Console console = System.console();
+        char[] masterPassword = console != null ? console.readPassword("Master password: ") : stdin.readLine();
+        if (masterPassword == null || masterPassword.length == 0) {
+            System.err.println("No master password given");
+            System.exit(2);
+        }
+        PasswordManagerFacade facade;
+        try {
+            facade = new PasswordManagerFacade(masterPassword);
+        } catch (UncheckedIOException e) {
+            System.err.println("The vault could not be opened: " + e.getCause().getMessage());
+            System.exit(2);
+            return;
+        } finally {
+            Arrays.fill(masterPassword, '\0');
+        }
+        if (!facade.isUnlocked()) {
+            System.err.println("Incorrect master password");
+            System.exit(2);
+        }
+        VaultCli cli = new VaultCli(facade, System.out, System.err);
+        try {
+            // One batch for the whole session, so its changes are saved once
+            facade.batch(() -> {
+                if (args.length == 0) {
+                    cli.run(stdin);
+                } else {
+                    for (int i = 0; i < args.length; i++) {
+                        cli.argument = "argument " + (i + 1);
+                        cli.run(new ScriptReader(new StringReader(args[i])));
+                    }
+                }
+            });
+        } finally {
+            facade.close();
+            System.out.flush();
+        }
+        System.exit(cli.failures == 0 ? 0 : 1);
+    }
+
+    /**
+     * Runs every command of the script. A command that throws is reported as a failure like any
+     * other, and the next one still runs.
+     *
+     * @param script The commands to run; closed when they have run.
+     * @throws UncheckedIOException If the script cannot be read.
+     */
+    void run(ScriptReader script) {
+        try (script) {
+            List<char[]> command;
+            while (true) {
+                try {
+                    command = script.next();
+                } catch (IllegalArgumentException e) {
+                    fail(script, e.getMessage());
+                    continue;
+                }
+                if (command == null) break;
+                try {
+                    execute(command, script);
+                } catch (RuntimeException e) {
+                    // A command the vault could not carry out fails alone; the rest of the script still runs
+                    fail(script, new String(command.get(0)) + " failed: " + describe(e));
+                } finally {
+                    for (char[] word : command) {
+                        Arrays.fill(word, '\0');
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void execute(List<char[]> command, ScriptReader script) {
+        String name = new String(command.get(0));
+        List<char[]> args = command.subList(1, command.size());
+        switch (name) {
+            case "get" -> {
+                if (!arity(script, name, args, 2)) return;
+                char[] password = facade.getPassword(args.get(0), args.get(1));
+                if (password == null) {
+                    fail(script, "No entry for " + new String(args.get(0)) + " / " + new String(args.get(1)));
+                    return;
+                }
+                out.println(password);
+                Arrays.fill(password, '\0');
+            }
+            case "add" -> {
+                if (!arity(script, name, args, 3)) return;
+                // The storage keeps a sealed copy, so the words can be wiped after the command
+                facade.addEntry(args.get(0), args.get(1), args.get(2));
+            }
+            case "delete" -> {
+                if (!arity(script, name, args, 2)) return;
+                facade.deleteEntry(args.get(0), args.get(1));
+            }
+            case "search" -> {
+                if (!arity(script, name, args, 1)) return;
+                // Printed while the search holds its read lock, so no match can be freed first
+                facade.search(new String(args.get(0)), 256, page -> {
+                    for (PasswordEntry e : page) {
+                        out.append(e.sourceView()).append('\t').append(e.loginView()).println();
+                    }
+                    return true;
+                });
+            }
+            case "import" -> {
+                if (args.isEmpty() || args.size() > 2) {
+                    fail(script, "Usage: import <file> [csv|binary]");
+                    return;
+                }
+                importFile(script, new String(args.get(0)), args.size() == 2 ? new String(args.get(1)) : "csv");
+            }
+            case "backup" -> {
+                if (!arity(script, name, args, 2)) return;
+                backup(script, new String(args.get(0)), args.get(1));
+            }
+            case "restore" -> {
+                if (!arity(script, name, args, 2)) return;
+                restore(script, new String(args.get(0)), args.get(1));
+            }
+            default -> fail(script, "Unknown command " + name);
+        }
+    }
+
+    private void importFile(ScriptReader script, String file, String formatName) {
+        EntryFormat format;
+        try {
+            format = EntryFormat.valueOf(formatName.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            fail(script, "Unknown format " + formatName);
+            return;
+        }
+        try {
+            TransferReport report = facade.importEntries(new FileInputStream(file), format);
+            err.println(file + ": " + report);
+        } catch (IOException e) {
+            fail(script, "Cannot import " + file + ": " + e.getMessage());
+        }
+    }
+
+    private void backup(ScriptReader script, String file, char[] password) {
+        FileOutputStream out;
+        try {
+            out = new FileOutputStream(file);
+        } catch (IOException e) {
+            fail(script, "Cannot back up to " + file + ": " + e.getMessage());
+            return;
+        }
+        try {
+            TransferReport report = facade.exportBackup(out, password);
+            err.println(file + ": " + report);
+        } catch (IOException e) {
+            // The partial backup would not restore, so it is not left behind
+            new File(file).delete();
+            fail(script, "Cannot back up to " + file + ": " + e.getMessage());
+        } catch (RuntimeException e) {
+            new File(file).delete();
+            throw e;
+        }
+    }
+
+    private void restore(ScriptReader script, String file, char[] password) {
+        try {
+            TransferReport report = facade.restoreBackup(new FileInputStream(file), password);
+            err.println(file + ": " + report);
+        } catch (IOException e) {
+            fail(script, "Cannot restore " + file + ": " + e.getMessage());
+        }
+    }
+
+    private boolean arity(ScriptReader script, String name, List<char[]> args, int expected) {
+        if (args.size() == expected) return true;
+        fail(script, name + " takes " + expected + (expected == 1 ? " argument" : " arguments"));
+        return false;
+    }
+
+    private static String describe(RuntimeException e) {
+        Throwable cause = e instanceof UncheckedIOException && e.getCause() != null ? e.getCause() : e;
+        return cause.getMessage() != null ? cause.getMessage() : cause.getClass().getSimpleName();
+    }
+
+    private void fail(ScriptReader script, String message) {
+        failures++;
+        err.println((argument != null ? argument : "line " + script.lineNumber()) + ": " + message);
+    }
+}
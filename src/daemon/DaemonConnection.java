@@ -0,0 +1,180 @@
+package daemon;
+
+import facade.PasswordManagerFacade;
+import model.PasswordEntry;
+import storage.VaultCodec;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Serves the requests of one client connection on its own thread, until the client disconnects.
+ *
+ * <p>Every read may bring several pipelined requests. All complete ones are answered before the
+ * responses are written, together, so a client sending a burst of lookups gets them back in a few
+ * writes rather than one per request. Once the pending responses pass {@link #MAX_PENDING_OUTPUT}
+ * bytes they are written before the next request is answered, so a burst of large search results
+ * is never held in memory as a whole. Request and response bytes are wiped once they are handled.
+ */
+class DaemonConnection implements Runnable {
+    // A request larger than the frame limit is rejected, so a full buffer always holds a frame
+    private static final int READ_BUFFER_SIZE = DaemonProtocol.MAX_FRAME_LENGTH + 8;
+    // Responses held back for a combined write; a search response alone may come close to it
+    private static final int MAX_PENDING_OUTPUT = DaemonProtocol.MAX_FRAME_LENGTH;
+    // Search matches collected from the facade at a time
+    private static final int SEARCH_PAGE_SIZE = 256;
+
+    private final SocketChannel channel;
+    private final PasswordManagerFacade facade;
+    private final VaultCodec.Writer payload = new VaultCodec.Writer();
+    private final VaultCodec.Writer out = new VaultCodec.Writer();
+
+    DaemonConnection(SocketChannel channel, PasswordManagerFacade facade) {
+        this.channel = channel;
+        this.facade = facade;
+    }
+
+    @Override
+    public void run() {
+        ByteBuffer in = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        try (channel) {
+            while (channel.read(in) >= 0) {
+                in.flip();
+                boolean valid = handleFrames(in);
+                in.compact();
+                write();
+                if (!valid) break;
+            }
+        } catch (IOException e) {
+            // The client went away; there is no one left to answer
+        } finally {
+            Arrays.fill(in.array(), (byte) 0);
+            payload.reset();
+            out.reset();
+        }
+    }
+
+    /**
+     * Answers every complete request in the buffer.
+     *
+     * @return {@code false} if the client sent a frame that cannot be read, after which the
+     *         connection is closed, since the next frame boundary is unknown.
+     * @throws IOException If the pending responses cannot be written.
+     */
+    private boolean handleFrames(ByteBuffer in) throws IOException {
+        try {
+            ByteBuffer frame;
+            while ((frame = DaemonProtocol.nextFrame(in)) != null) {
+                handle(frame);
+                // The frame's bytes are no longer needed, and may hold a password
+                Arrays.fill(in.array(), in.position() - frame.capacity(), in.position(), (byte) 0);
+                if (out.size() >= MAX_PENDING_OUTPUT) {
+                    write();
+                }
+            }
+            return true;
+        } catch (IllegalArgumentException e) {
+            error(e.getMessage());
+            return false;
+        }
+    }
+
+    private void handle(ByteBuffer frame) {
+        try {
+            byte op = frame.get();
+            switch (op) {
+                case DaemonProtocol.GET -> get(frame);
+                case DaemonProtocol.SEARCH -> search(frame);
+                case DaemonProtocol.ADD -> add(frame);
+                default -> error("Unknown operation " + op);
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            // The frame itself was complete, so the next request can still be read
+            payload.reset();
+            error("Malformed request");
+        } catch (IllegalStateException | UncheckedIOException e) {
+            // The vault could not serve this request, but the connection is still in step
+            payload.reset();
+            error("Request failed: " + (e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName()));
+        }
+    }
+
+    private void get(ByteBuffer frame) {
+        char[] source = VaultCodec.getUtf8(frame);
+        char[] login = VaultCodec.getUtf8(frame);
+        char[] password = facade.getPassword(source, login);
+        if (password == null) {
+            payload.putByte(DaemonProtocol.NOT_FOUND);
+        } else {
+            payload.putByte(DaemonProtocol.OK);
+            payload.putUtf8(CharBuffer.wrap(password));
+            Arrays.fill(password, '\0');
+        }
+        DaemonProtocol.putFrame(payload, out);
+    }
+
+    private void search(ByteBuffer frame) {
+        String keyword = new String(VaultCodec.getUtf8(frame));
+        int limit = VaultCodec.getVarint(frame);
+        if (limit < 0) throw new IllegalArgumentException("Negative limit");
+        List<PasswordEntry> matches = new ArrayList<>(Math.min(limit, SEARCH_PAGE_SIZE));
+        VaultCodec.Writer found = new VaultCodec.Writer();
+        // Encoded under the search's read lock, so a concurrent delete cannot zero an entry first
+        facade.search(keyword, SEARCH_PAGE_SIZE, page -> {
+            for (PasswordEntry e : page) {
+                if (matches.size() == limit) return false;
+                if (found.size() + VaultCodec.utf8Length(e.sourceView()) + VaultCodec.utf8Length(e.loginView())
+                        + 16 > DaemonProtocol.MAX_FRAME_LENGTH) return false;
+                matches.add(e);
+                found.putUtf8(e.sourceView());
+                found.putUtf8(e.loginView());
+            }
+            return matches.size() < limit;
+        });
+        payload.putByte(DaemonProtocol.OK);
+        payload.putVarint(matches.size());
+        payload.putRaw(found.array(), 0, found.size());
+        DaemonProtocol.putFrame(payload, out);
+    }
+
+    private void add(ByteBuffer frame) {
+        char[] source = VaultCodec.getUtf8(frame);
+        char[] login = VaultCodec.getUtf8(frame);
+        char[] password = VaultCodec.getUtf8(frame);
+        if (source.length == 0 || login.length == 0 || password.length == 0) {
+            Arrays.fill(password, '\0');
+            error("Source, login and password must not be empty");
+            return;
+        }
+        try {
+            // The storage keeps a sealed copy, so the plaintext can be wiped at once
+            facade.addEntry(source, login, password);
+        } finally {
+            Arrays.fill(password, '\0');
+        }
+        payload.putByte(DaemonProtocol.OK);
+        DaemonProtocol.putFrame(payload, out);
+    }
+
+    private void error(String message) {
+        payload.putByte(DaemonProtocol.ERROR);
+        payload.putUtf8(message);
+        DaemonProtocol.putFrame(payload, out);
+    }
+
+    private void write() throws IOException {
+        if (out.size() == 0) return;
+        ByteBuffer buffer = ByteBuffer.wrap(out.array(), 0, out.size());
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        out.reset();
+    }
+}
@@ -0,0 +1,75 @@
+package daemon;
+
+import storage.VaultCodec;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Wire format spoken over the daemon's Unix domain socket. Requests and responses are frames: a
+ * varint payload length followed by the payload, encoded with {@link VaultCodec}. A client may send
+ * any number of requests before reading the responses, which come back in the same order.
+ *
+ * <p>Request payloads start with an operation byte:
+ * <ul>
+ *     <li>{@link #GET}: source and login as UTF-8. Answered with the password.</li>
+ *     <li>{@link #SEARCH}: keyword as UTF-8 and the largest number of matches as a varint. Answered
+ *     with the match count as a varint, then the source and login of each match.</li>
+ *     <li>{@link #ADD}: source, login and password as UTF-8, replacing an entry with the same source
+ *     and login. Answered with an empty {@link #OK}.</li>
+ * </ul>
+ * Response payloads start with a status byte: {@link #OK} followed by the result,
+ * {@link #NOT_FOUND} with nothing else, or {@link #ERROR} followed by a UTF-8 message.
+ */
+public final class DaemonProtocol {
+    /** Requests and responses larger than this are rejected, so a peer cannot make the other buffer without bound. */
+    public static final int MAX_FRAME_LENGTH = 1 << 16;
+
+    public static final byte GET = 1;
+    public static final byte SEARCH = 2;
+    public static final byte ADD = 3;
+
+    public static final byte OK = 0;
+    public static final byte NOT_FOUND = 1;
+    public static final byte ERROR = 2;
+
+    private DaemonProtocol() {
+    }
+
+    /**
+     * Takes the next complete frame from the buffer.
+     *
+     * @param buffer The received bytes, ready to be read; a frame is consumed only when it is complete.
+     * @return A view of the frame's payload, or {@code null} if the buffer ends inside a frame.
+     * @throws IllegalArgumentException If the frame is longer than {@link #MAX_FRAME_LENGTH}.
+     */
+    public static ByteBuffer nextFrame(ByteBuffer buffer) {
+        int start = buffer.position();
+        int length;
+        try {
+            length = VaultCodec.getVarint(buffer);
+        } catch (BufferUnderflowException e) {
+            buffer.position(start);
+            return null;
+        }
+        if (length < 0 || length > MAX_FRAME_LENGTH) throw new IllegalArgumentException("Frame too long");
+        if (buffer.remaining() < length) {
+            buffer.position(start);
+            return null;
+        }
+        ByteBuffer payload = buffer.slice(buffer.position(), length);
+        buffer.position(buffer.position() + length);
+        return payload;
+    }
+
+    /**
+     * Appends a frame holding the payload to the output, then wipes the payload.
+     *
+     * @param payload The payload written so far; reset on return.
+     * @param out     The frames waiting to be sent.
+     */
+    public static void putFrame(VaultCodec.Writer payload, VaultCodec.Writer out) {
+        out.putBytes(ByteBuffer.wrap(payload.array(), 0, payload.size()));
+        payload.reset();
+    }
+}
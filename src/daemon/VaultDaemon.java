@@ -0,0 +1,187 @@
+package daemon;
+
+import facade.PasswordManagerFacade;
+
+import java.io.Console;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Headless front end that keeps one unlocked vault in memory and serves lookups, searches and
+ * additions to local clients over a Unix domain socket, in the {@link DaemonProtocol} format. The
+ * key derivation and loading are paid once at start-up, so each request only costs the lookup.
+ *
+ * <p>Every connection is served by a thread of its own, a virtual thread when the runtime has them,
+ * so thousands of mostly idle clients cost little. The vault is opened in write-behind mode: bursts
+ * of additions are saved together, and everything is saved when the daemon is closed.
+ *
+ * <p>The socket file is made readable and writable by its owner only. Anyone who can connect to it
+ * can read every password, so place it in a directory only the owner can enter.
+ */
+public class VaultDaemon implements AutoCloseable {
+    public static final String DEFAULT_SOCKET = "vault.sock";
+
+    private final PasswordManagerFacade facade;
+    private final Path socket;
+    private final ExecutorService connections = connectionExecutor();
+    private final Set<SocketChannel> clients = ConcurrentHashMap.newKeySet();
+    private volatile ServerSocketChannel server;
+
+    /**
+     * Constructs a daemon serving the vault at the given socket path.
+     *
+     * @param facade The unlocked vault; the daemon closes it when it is closed.
+     * @param socket The path of the socket file; a stale file left by a previous daemon is replaced.
+     */
+    public VaultDaemon(PasswordManagerFacade facade, Path socket) {
+        this.facade = facade;
+        this.socket = socket;
+    }
+
+    /**
+     * Accepts connections until {@link #close()} is called, serving each on its own thread.
+     *
+     * @throws IOException If the socket cannot be bound or accepting fails.
+     */
+    public void serve() throws IOException {
+        Files.deleteIfExists(socket);
+        server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        server.bind(UnixDomainSocketAddress.of(socket));
+        try {
+            Files.setPosixFilePermissions(socket, PosixFilePermissions.fromString("rw-------"));
+        } catch (UnsupportedOperationException e) {
+            // Not a POSIX file system; the directory's permissions still apply
+        }
+        try {
+            while (true) {
+                SocketChannel client = server.accept();
+                clients.add(client);
+                connections.execute(() -> {
+                    try {
+                        new DaemonConnection(client, facade).run();
+                    } finally {
+                        clients.remove(client);
+                    }
+                });
+            }
+        } catch (AsynchronousCloseException e) {
+            // Closed by close(), which saves and releases the vault
+        }
+    }
+
+    /**
+     * Stops accepting connections, disconnects the clients, saves and closes the vault and removes
+     * the socket file. Calling it more than once is harmless.
+     */
+    @Override
+    public void close() {
+        try {
+            if (server != null) server.close();
+            for (SocketChannel client : clients) {
+                client.close();
+            }
+            connections.shutdownNow();
+            Files.deleteIfExists(socket);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        facade.close();
+    }
+
+    /**
+     * Returns an executor that runs each task on a new virtual thread. The build targets Java 17,
+     * where they do not exist, so they are looked up at run time; older runtimes get a cached pool
+     * of platform threads instead.
+     */
+    private static ExecutorService connectionExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "vault-daemon-connection");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    /**
+     * Unlocks {@code vault.dat} and serves it until the process is stopped. The socket path is the
+     * first argument, {@link #DEFAULT_SOCKET} by default. The master password is read from the
+     * console, or from the first line of standard input when there is no console.
+     *
+     * @param args The optional socket path.
+     */
+    public static void main(String[] args) throws IOException {
+        Path socket = Path.of(args.length > 0 ? args[0] : DEFAULT_SOCKET);
+        char[] masterPassword = readMasterPassword();
+        if (masterPassword == null || masterPassword.length == 0) {
+            System.err.println("No master password given");
+            System.exit(1);
+        }
+        PasswordManagerFacade facade;
+        try {
+            facade = new PasswordManagerFacade(masterPassword, true);
+        } catch (UncheckedIOException e) {
+            System.err.println("The vault could not be opened: " + e.getCause().getMessage());
+            System.exit(1);
+            return;
+        } finally {
+            Arrays.fill(masterPassword, '\0');
+        }
+        if (!facade.isUnlocked()) {
+            System.err.println("Incorrect master password");
+            System.exit(1);
+        }
+        VaultDaemon daemon = new VaultDaemon(facade, socket);
+        // Stopping the process must not lose additions the background writer has not saved yet
+        Runtime.getRuntime().addShutdownHook(new Thread(daemon::close, "vault-daemon-shutdown"));
+        System.err.println("Serving the vault on " + socket.toAbsolutePath());
+        daemon.serve();
+    }
+
+    /**
+     * Reads the master password without ever holding it in a {@link String}.
+     *
+     * @return The password, or {@code null} if standard input ends first.
+     */
+    static char[] readMasterPassword() throws IOException {
+        Console console = System.console();
+        if (console != null) {
+            return console.readPassword("Master password: ");
+        }
+        Reader in = new InputStreamReader(System.in, StandardCharsets.UTF_8);
+        char[] buffer = new char[64];
+        int length = 0;
+        int c;
+        while ((c = in.read()) >= 0 && c != '\n') {
+            if (length == buffer.length) {
+                char[] grown = Arrays.copyOf(buffer, length << 1);
+                Arrays.fill(buffer, '\0');
+                buffer = grown;
+            }
+            buffer[length++] = (char) c;
+        }
+        if (c < 0 && length == 0) return null;
+        if (length > 0 && buffer[length - 1] == '\r') length--;
+        char[] password = Arrays.copyOf(buffer, length);
+        Arrays.fill(buffer, '\0');
+        return password;
+    }
+}
@@ -0,0 +1,204 @@
+package daemon;
+
+import storage.VaultCodec;
+
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Connection to a running {@link VaultDaemon}. Requests are queued by the {@code send} methods and
+ * written together by {@link #flush()}; responses are then read in the same order. Sending a batch
+ * before reading any response pipelines it, so the batch costs a few round trips instead of one per
+ * request. The convenience methods {@link #get(char[], char[])}, {@link #search(String, int)} and
+ * {@link #add(char[], char[], char[])} send one request and wait for its response.
+ *
+ * <p>The channel is non-blocking: while a large batch is written, the responses already available
+ * are read into a growing buffer, since the daemon stops reading requests while its responses are
+ * not being read.
+ *
+ * <p>A client is not thread-safe; use one per thread.
+ */
+public class VaultDaemonClient implements AutoCloseable {
+    private final SocketChannel channel;
+    private final VaultCodec.Writer payload = new VaultCodec.Writer();
+    private final VaultCodec.Writer out = new VaultCodec.Writer();
+    private final Selector selector;
+    private final SelectionKey key;
+    private ByteBuffer in = ByteBuffer.allocate(DaemonProtocol.MAX_FRAME_LENGTH + 8); // received, ready to be read
+
+    /**
+     * Connects to the daemon listening at the socket path.
+     *
+     * @param socket The daemon's socket file.
+     * @throws IOException If no daemon listens there.
+     */
+    public VaultDaemonClient(Path socket) throws IOException {
+        channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+        channel.connect(UnixDomainSocketAddress.of(socket));
+        channel.configureBlocking(false);
+        selector = Selector.open();
+        key = channel.register(selector, SelectionKey.OP_READ);
+        in.flip();
+    }
+
+    public void sendGet(char[] source, char[] login) {
+        payload.putByte(DaemonProtocol.GET);
+        payload.putUtf8(CharBuffer.wrap(source));
+        payload.putUtf8(CharBuffer.wrap(login));
+        DaemonProtocol.putFrame(payload, out);
+    }
+
+    public void sendSearch(String keyword, int limit) {
+        payload.putByte(DaemonProtocol.SEARCH);
+        payload.putUtf8(keyword);
+        payload.putVarint(limit);
+        DaemonProtocol.putFrame(payload, out);
+    }
+
+    public void sendAdd(char[] source, char[] login, char[] password) {
+        payload.putByte(DaemonProtocol.ADD);
+        payload.putUtf8(CharBuffer.wrap(source));
+        payload.putUtf8(CharBuffer.wrap(login));
+        payload.putUtf8(CharBuffer.wrap(password));
+        DaemonProtocol.putFrame(payload, out);
+    }
+
+    /**
+     * Writes every request sent so far, then wipes them.
+     *
+     * @throws IOException If the daemon has gone away.
+     */
+    public void flush() throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(out.array(), 0, out.size());
+        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+                if (buffer.hasRemaining()) {
+                    selector.select();
+                    readAvailable();
+                }
+            }
+        } finally {
+            key.interestOps(SelectionKey.OP_READ);
+            out.reset();
+        }
+    }
+
+    /**
+     * Reads the response to a {@link #sendGet(char[], char[])}.
+     *
+     * @return The password, or {@code null} if the daemon has no such entry.
+     * @throws IOException If the daemon has gone away or reported an error.
+     */
+    public char[] receivePassword() throws IOException {
+        ByteBuffer frame = receive();
+        try {
+            return frame.get(0) == DaemonProtocol.NOT_FOUND ? null : VaultCodec.getUtf8(ok(frame));
+        } finally {
+            wipe(frame);
+        }
+    }
+
+    /**
+     * Reads the response to a {@link #sendSearch(String, int)}.
+     *
+     * @return The {source, login} pairs of the matches.
+     * @throws IOException If the daemon has gone away or reported an error.
+     */
+    public List<char[][]> receiveMatches() throws IOException {
+        ByteBuffer frame = ok(receive());
+        int count = VaultCodec.getVarint(frame);
+        List<char[][]> matches = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            matches.add(new char[][]{VaultCodec.getUtf8(frame), VaultCodec.getUtf8(frame)});
+        }
+        return matches;
+    }
+
+    /**
+     * Reads the response to a {@link #sendAdd(char[], char[], char[])}.
+     *
+     * @throws IOException If the daemon has gone away or reported an error.
+     */
+    public void receiveAdded() throws IOException {
+        ok(receive());
+    }
+
+    public char[] get(char[] source, char[] login) throws IOException {
+        sendGet(source, login);
+        flush();
+        return receivePassword();
+    }
+
+    public List<char[][]> search(String keyword, int limit) throws IOException {
+        sendSearch(keyword, limit);
+        flush();
+        return receiveMatches();
+    }
+
+    public void add(char[] source, char[] login, char[] password) throws IOException {
+        sendAdd(source, login, password);
+        flush();
+        receiveAdded();
+    }
+
+    private ByteBuffer receive() throws IOException {
+        ByteBuffer frame;
+        while ((frame = DaemonProtocol.nextFrame(in)) == null) {
+            selector.select();
+            readAvailable();
+        }
+        return frame;
+    }
+
+    /**
+     * Appends the bytes the daemon has sent so far to the receive buffer, growing it if it is full.
+     */
+    private void readAvailable() throws IOException {
+        in.compact();
+        if (!in.hasRemaining()) {
+            ByteBuffer grown = ByteBuffer.allocate(in.capacity() << 1);
+            grown.put(in.flip());
+            Arrays.fill(in.array(), (byte) 0);
+            in = grown;
+        }
+        int read = channel.read(in);
+        in.flip();
+        if (read < 0) throw new IOException("The daemon closed the connection");
+        selector.selectedKeys().clear();
+    }
+
+    private static ByteBuffer ok(ByteBuffer frame) throws IOException {
+        byte status = frame.get();
+        if (status == DaemonProtocol.ERROR) {
+            throw new IOException("The daemon rejected the request: " + new String(VaultCodec.getUtf8(frame)));
+        }
+        if (status != DaemonProtocol.OK) throw new IOException("Unexpected status " + status);
+        return frame;
+    }
+
+    private void wipe(ByteBuffer frame) {
+        int end = in.position();
+        Arrays.fill(in.array(), end - frame.capacity(), end, (byte) 0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        payload.reset();
+        out.reset();
+        Arrays.fill(in.array(), (byte) 0);
+        selector.close();
+        channel.close();
+    }
+}
@@ -1,20 +1,111 @@
 package facade;
 
+import metrics.MetricsSnapshot;
+import metrics.VaultMetrics;
 import model.PasswordEntry;
 import model.PasswordEntryBuilder;
-import storage.PasswordStorage;
+import storage.ConcurrentPasswordStorage;
 import storage.FilePasswordStorage;
+import storage.PasswordStorage;
+import storage.ShardedPasswordStorage;
+import storage.StorageListener;
+import strategy.KdfParameters;
+import strategy.SegmentedAeadInputStream;
+import strategy.SegmentedAeadOutputStream;
+import transfer.EntryFormat;
+import transfer.EntryReader;
+import transfer.EntryWriter;
+import transfer.TransferReport;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.DoubleConsumer;
+import java.util.function.Predicate;
 
 public class PasswordManagerFacade {
-    private final PasswordStorage storage;
+    // How long write-behind mode collects changes before saving them together
+    private static final long WRITE_BEHIND_DELAY_MILLIS = 250;
+    // Key derivation time a backup password is calibrated to, as for a new vault
+    private static final long BACKUP_KDF_MILLIS = 500;
+    private static final String VAULT_FILE = "vault.dat";
+    // Number of shards of a new vault, e.g. -Dvault.shards=4; an existing vault keeps its own layout
+    private static final String SHARDS_PROPERTY = "vault.shards";
+
+    private final ConcurrentPasswordStorage storage;
     private final boolean unlocked;
+    private final WriteBehindSaver saver; // null when saving synchronously
+    private final AtomicInteger openBatches = new AtomicInteger();
+    private final AtomicBoolean batchDirty = new AtomicBoolean(); // changed while a batch was open
 
     public PasswordManagerFacade(char[] masterPassword) {
-        
-        this.storage = new FilePasswordStorage("vault.dat");
-        this.unlocked = storage.loadOrInit(masterPassword);
+        this(masterPassword, false);
+    }
+
+    /**
+     * Opens the vault, optionally in write-behind mode. In that mode mutations only mark the
+     * vault dirty, and a background thread saves each burst of changes once. Use {@link #flush()}
+     * when a change must be on disk before continuing, and {@link #close()} before exiting.
+     *
+     * @param masterPassword The master password of the vault.
+     * @param writeBehind    {@code true} to save in the background instead of after every mutation.
+     */
+    public PasswordManagerFacade(char[] masterPassword, boolean writeBehind) {
+        this(masterPassword, writeBehind, null);
+    }
+
+    /**
+     * Opens the vault like {@link #PasswordManagerFacade(char[], boolean)}, reporting the progress of
+     * the key derivation. Unlocking takes a noticeable time by design, so interactive callers run this
+     * constructor on a background thread, which they may interrupt to cancel the unlock.
+     *
+     * @param masterPassword The master password of the vault.
+     * @param writeBehind    {@code true} to save in the background instead of after every mutation.
+     * @param progress       Receives the completed fraction of the key derivation, or {@code null}.
+     * @throws java.util.concurrent.CancellationException If the thread is interrupted while unlocking.
+     * @throws UncheckedIOException If the vault is sharded and its shard files do not match its manifest.
+     */
+    public PasswordManagerFacade(char[] masterPassword, boolean writeBehind, DoubleConsumer progress) {
+        this(masterPassword, writeBehind, progress, openVault());
+    }
+
+    /**
+     * Opens the vault in the working directory: a sharded vault if one exists there, or if there is no
+     * vault yet and the {@value #SHARDS_PROPERTY} system property asks for more than one shard; a single
+     * vault file otherwise.
+     */
+    private static PasswordStorage openVault() {
+        int shards = Integer.getInteger(SHARDS_PROPERTY, 1);
+        if (ShardedPasswordStorage.exists(VAULT_FILE) || shards > 1 && !new File(VAULT_FILE).exists()) {
+            try {
+                return ShardedPasswordStorage.open(VAULT_FILE, Math.max(1, shards), true, true);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return new FilePasswordStorage(VAULT_FILE, true, true);
+    }
+
+    /**
+     * Opens the vault kept by the given storage, for example several vault files combined by a
+     * {@link storage.ShardedPasswordStorage}. The storage is used from several threads through a
+     * {@link ConcurrentPasswordStorage}, so it must not be used directly afterwards.
+     *
+     * @param masterPassword The master password of the vault.
+     * @param writeBehind    {@code true} to save in the background instead of after every mutation.
+     * @param progress       Receives the completed fraction of unlocking, or {@code null}.
+     * @param vault          The storage holding the vault; it does not have to be thread-safe.
+     * @throws java.util.concurrent.CancellationException If the thread is interrupted while unlocking.
+     */
+    public PasswordManagerFacade(char[] masterPassword, boolean writeBehind, DoubleConsumer progress, PasswordStorage vault) {
+        this.storage = new ConcurrentPasswordStorage(vault);
+        this.unlocked = storage.loadOrInit(masterPassword, progress);
+        this.saver = unlocked && writeBehind ? new WriteBehindSaver(this::saveNow, WRITE_BEHIND_DELAY_MILLIS) : null;
     }
 
     public boolean isUnlocked() {
@@ -29,16 +120,19 @@ public class PasswordManagerFacade {
                 .setPassword(password)
                 .build();
         storage.add(entry);
-        storage.save();
+        changed();
     }
 
     public char[] getPassword(char[] source, char[] login) {
         if (!unlocked) return null;
-        PasswordEntry entry = storage.findBySourceAndLogin(source, login);
-        if (entry != null) {
-            return entry.getPassword();
-        }
-        return null;
+        // Unsealed under the read lock, so a concurrent delete cannot clear the entry first
+        return storage.read(s -> {
+            PasswordEntry entry = s.findBySourceAndLogin(source, login);
+            if (entry != null) {
+                return entry.getPassword();
+            }
+            return null;
+        });
     }
 
     public List<PasswordEntry> getAll() {
@@ -51,9 +145,61 @@ public class PasswordManagerFacade {
         return storage.search(keyword);
     }
 
+    /**
+     * Searches in pages; see {@link storage.PasswordStorage#search(String, int, Predicate)}.
+     * Safe to call from any thread; mutations wait until the search completes or is stopped.
+     *
+     * @param keyword  The keyword to search for.
+     * @param pageSize The largest number of matches in one page.
+     * @param pages    Receives each page; returns {@code false} to stop the search.
+     * @return {@code true} if the search ran to completion; {@code false} if it was stopped.
+     */
+    public boolean search(String keyword, int pageSize, Predicate<List<PasswordEntry>> pages) {
+        if (!unlocked) return true;
+        return storage.search(keyword, pageSize, pages);
+    }
+
+    /**
+     * Finds the entries closest to a possibly mistyped keyword; see
+     * {@link storage.PasswordStorage#fuzzySearch(String, int)}. Safe to call from any thread.
+     *
+     * @param keyword The keyword to search for.
+     * @param limit   The largest number of entries returned.
+     * @return The closest entries, best first.
+     */
+    public List<PasswordEntry> fuzzySearch(String keyword, int limit) {
+        if (!unlocked) return List.of();
+        return storage.fuzzySearch(keyword, limit);
+    }
+
+    /**
+     * Completes a source for autocompletion; see {@link storage.PasswordStorage#sourcesStartingWith(String, int)}.
+     * Answered from an index in microseconds, so it may be called on the UI thread as the user types.
+     *
+     * @param prefix The text typed so far.
+     * @param limit  The largest number of sources returned.
+     * @return The first sources starting with the prefix.
+     */
+    public List<String> sourcesStartingWith(String prefix, int limit) {
+        if (!unlocked) return List.of();
+        return storage.sourcesStartingWith(prefix, limit);
+    }
+
+    /**
+     * Completes a login for autocompletion, like {@link #sourcesStartingWith(String, int)}.
+     *
+     * @param prefix The text typed so far.
+     * @param limit  The largest number of logins returned.
+     * @return The first logins starting with the prefix.
+     */
+    public List<String> loginsStartingWith(String prefix, int limit) {
+        if (!unlocked) return List.of();
+        return storage.loginsStartingWith(prefix, limit);
+    }
+
     public void searchEntries(String keyword) {
         if (!unlocked) return;
-        List<PasswordEntry> results = storage.search(keyword);
+        List<PasswordEntry> results = search(keyword);
         if (results.isEmpty()) {
             System.out.println("No entries matching the query.");
         } else {
@@ -66,27 +212,244 @@ public class PasswordManagerFacade {
     public void deleteEntry(char[] source, char[] login) {
         if (!unlocked) return;
         storage.delete(source, login);
-        storage.save();
+        changed();
     }
 
     public void editEntry(char[] oldSource, char[] oldLogin, char[] newSource, char[] newLogin, char[] newPassword) {
         if (!unlocked) return;
-        PasswordEntry oldEntry = storage.findBySourceAndLogin(oldSource, oldLogin);
-        if (oldEntry != null) {
-            storage.delete(oldSource, oldLogin);
+        // Replaced as one mutation, so concurrent readers never see the entry missing
+        boolean edited = storage.write(s -> {
+            PasswordEntry oldEntry = s.findBySourceAndLogin(oldSource, oldLogin);
+            if (oldEntry == null) return false;
+            s.delete(oldSource, oldLogin);
             PasswordEntry newEntry = new PasswordEntryBuilder()
                     .setSource(newSource)
                     .setLogin(newLogin)
                     .setPassword(newPassword)
                     .build();
-            storage.add(newEntry);
-            storage.save();
+            s.add(newEntry);
+            return true;
+        });
+        if (edited) {
+            changed();
         }
     }
 
+    /**
+     * Imports every entry from the stream, replacing entries with the same source and login.
+     * Records are parsed one at a time and added in a single batch, which is then written with
+     * one save, even in write-behind mode. Malformed records are skipped and counted.
+     *
+     * @param in     The stream to import; it is closed when the import ends.
+     * @param format The format of the stream.
+     * @return The number of imported and rejected records and the throughput.
+     * @throws IOException If the stream cannot be read.
+     */
+    public TransferReport importEntries(InputStream in, EntryFormat format) throws IOException {
+        if (!unlocked) return new TransferReport(0, 0, 0);
+        long start = System.nanoTime();
+        int imported;
+        int rejected;
+        try (EntryReader reader = format.openReader(in)) {
+            imported = storage.addAll(reader);
+            rejected = reader.rejectedCount();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            // Entries parsed before a read error are kept, so they are saved all the same
+            if (!deferToBatch()) saveNow();
+        }
+        return new TransferReport(imported, rejected, System.nanoTime() - start);
+    }
+
+    /**
+     * Exports every entry, passwords included in plaintext, to the stream.
+     *
+     * @param out    The stream to export to; it is closed when the export ends.
+     * @param format The format to write.
+     * @return The number of exported entries and the throughput.
+     * @throws IOException If the stream cannot be written. A binary export is then left without its
+     *                     end marker, so it cannot be imported as if it were complete.
+     */
+    public TransferReport exportEntries(OutputStream out, EntryFormat format) throws IOException {
+        if (!unlocked) return new TransferReport(0, 0, 0);
+        long start = System.nanoTime();
+        int exported;
+        try (EntryWriter writer = format.openWriter(out)) {
+            exported = writeAll(writer);
+            writer.finish();
+        }
+        return new TransferReport(exported, 0, System.nanoTime() - start);
+    }
+
+    private int writeAll(EntryWriter writer) throws IOException {
+        try {
+            // Under the read lock, so edits wait until the export has a consistent state written
+            return storage.read(s -> {
+                int count = 0;
+                for (PasswordEntry entry : s.getAll()) {
+                    try {
+                        writer.write(entry);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    count++;
+                }
+                return count;
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Writes an encrypted backup of every entry to the stream. The entries are exported in the
+     * binary format through a {@link SegmentedAeadOutputStream} under a key derived from the backup
+     * password, not the master password, so the backup can be restored into any vault. Entries are
+     * encrypted as they are written, one segment at a time, so the backup never exists as plaintext
+     * in memory or on disk, however large the vault.
+     *
+     * @param out            The stream to write the backup to; it is closed when the backup ends.
+     * @param backupPassword The password protecting the backup; it is left unchanged.
+     * @return The number of backed up entries and the throughput, without the key derivation.
+     * @throws IOException If the stream cannot be written. The backup then lacks its final segment,
+     *                     so restoring it fails instead of restoring part of the vault as all of it.
+     */
+    public TransferReport exportBackup(OutputStream out, char[] backupPassword) throws IOException {
+        if (!unlocked) return new TransferReport(0, 0, 0);
+        SegmentedAeadOutputStream encrypted;
+        try {
+            encrypted = new SegmentedAeadOutputStream(out, backupPassword, KdfParameters.calibrate(BACKUP_KDF_MILLIS));
+        } catch (IOException | RuntimeException e) {
+            out.close();
+            throw e;
+        }
+        long start = System.nanoTime();
+        int exported;
+        try (encrypted; EntryWriter writer = EntryFormat.BINARY.openWriter(encrypted)) {
+            exported = writeAll(writer);
+            // Only a backup holding every entry gets its end marker and final segment
+            writer.finish();
+            encrypted.finish();
+        }
+        return new TransferReport(exported, 0, System.nanoTime() - start);
+    }
+
+    /**
+     * Restores the entries of a backup written by {@link #exportBackup(OutputStream, char[])},
+     * replacing entries with the same source and login and keeping the others, then saves once, as
+     * {@link #importEntries(InputStream, EntryFormat)} does. Each segment of the backup is
+     * authenticated before its entries are added. If a later segment turns out to be damaged or
+     * missing, the entries of the segments before it are kept and an {@link IOException} is thrown.
+     *
+     * @param in             The stream to read the backup from; it is closed when the restore ends.
+     * @param backupPassword The password the backup was written with; it is left unchanged.
+     * @return The number of restored entries and the throughput, without the key derivation.
+     * @throws IOException If the password is wrong, or the backup cannot be read or is damaged.
+     */
+    public TransferReport restoreBackup(InputStream in, char[] backupPassword) throws IOException {
+        if (!unlocked) return new TransferReport(0, 0, 0);
+        InputStream decrypted;
+        try {
+            // Opens the first segment, so a wrong password fails before the vault is touched
+            decrypted = new SegmentedAeadInputStream(in, backupPassword);
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+        return importEntries(decrypted, EntryFormat.BINARY);
+    }
+
+    /**
+     * Returns the counters and latency histograms of key derivation, encryption, serialization,
+     * file I/O, lookups and searches in this process, so a running vault can be profiled without
+     * attaching a profiler. The same operations are also recorded as Flight Recorder events.
+     *
+     * @return The statistics of every operation so far.
+     */
+    public MetricsSnapshot metrics() {
+        return VaultMetrics.snapshot();
+    }
+
+    /**
+     * Registers a listener that is told about every entry added, removed or replaced, so views can
+     * update the affected rows only. Events arrive on the thread that made the change.
+     *
+     * @param listener The listener to add.
+     */
+    public void addListener(StorageListener listener) {
+        if (!unlocked) return;
+        storage.addListener(listener);
+    }
+
+    public void removeListener(StorageListener listener) {
+        storage.removeListener(listener);
+    }
+
+    /**
+     * Writes all changes made so far to disk before returning. In synchronous mode they already are.
+     */
+    public void flush() {
+        if (saver != null) {
+            saver.flush();
+        }
+    }
+
+    /**
+     * Saves the vault and, in write-behind mode, waits for the background writer and stops it.
+     * The entries are then zeroed in memory, so the facade cannot be used afterwards.
+     * Calling it more than once is harmless.
+     */
     public void close() {
-        if (unlocked) {
-            storage.save();
+        if (!unlocked) return;
+        if (saver != null) {
+            saver.close();
+        } else {
+            saveNow();
+        }
+        storage.close();
+    }
+
+    /**
+     * Runs a series of operations and saves their changes once, when the series ends, instead of
+     * after each of them. Changes made meanwhile by other threads are saved with them. Batches may
+     * be nested; the outermost one saves. In write-behind mode the save is scheduled as usual.
+     *
+     * @param operations The operations, which may call any method of this facade but {@link #close()}.
+     */
+    public void batch(Runnable operations) {
+        if (!unlocked) return;
+        openBatches.incrementAndGet();
+        try {
+            operations.run();
+        } finally {
+            if (openBatches.decrementAndGet() == 0 && batchDirty.getAndSet(false)) {
+                changed();
+            }
         }
     }
-}
\ No newline at end of file
+
+    private boolean deferToBatch() {
+        if (openBatches.get() == 0) return false;
+        batchDirty.set(true);
+        return true;
+    }
+
+    private void changed() {
+        if (deferToBatch()) return;
+        if (saver != null) {
+            saver.markDirty();
+        } else {
+            saveNow();
+        }
+    }
+
+    /**
+     * Saves the vault. A failed save keeps its changes, which the next save writes.
+     *
+     * @return {@code true} if the changes were written.
+     */
+    private boolean saveNow() {
+        return storage.save();
+    }
+}
@@ -0,0 +1,83 @@
+package facade;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Runs saves on a single background thread and coalesces bursts of changes into one save.
+ * The first change after a save schedules the next one after a short delay; changes made before
+ * it runs are written by that same save. A failed save is tried again with the next change,
+ * flush or close.
+ */
+class WriteBehindSaver {
+    private final BooleanSupplier save;
+    private final long delayMillis;
+    private final AtomicBoolean dirty = new AtomicBoolean();
+    private boolean failed; // the last save did not write everything; read and written on the writer thread
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "vault-writer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * Constructs a saver.
+     *
+     * @param save        The action that writes the storage, returning {@code false} if it failed;
+     *                    it runs on the writer thread only.
+     * @param delayMillis How long changes are collected before they are saved.
+     */
+    WriteBehindSaver(BooleanSupplier save, long delayMillis) {
+        this.save = save;
+        this.delayMillis = delayMillis;
+    }
+
+    /**
+     * Records that the storage has changed, scheduling a save unless one is already pending.
+     */
+    void markDirty() {
+        if (dirty.compareAndSet(false, true)) {
+            executor.schedule(this::saveIfDirty, delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void saveIfDirty() {
+        // Cleared before saving, so that a change made during the save schedules another one
+        if (dirty.getAndSet(false) | failed) {
+            try {
+                failed = !save.getAsBoolean();
+            } catch (RuntimeException e) {
+                failed = true;
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Saves pending changes right away and waits until they, and any save already running, are written.
+     */
+    void flush() {
+        if (executor.isShutdown()) return;
+        Future<?> done = executor.submit(this::saveIfDirty);
+        try {
+            done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            e.getCause().printStackTrace();
+        }
+    }
+
+    /**
+     * Flushes pending changes and stops the writer thread.
+     */
+    void close() {
+        flush();
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,83 @@
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lock-free histogram of durations in nanoseconds. Each power of two is split into
+ * {@value #SUB_BUCKETS} linear buckets, so every recorded value is known to within 12.5%
+ * while the whole range of a {@code long} fits in a few hundred counters.
+ *
+ * <p>The counters are striped: each thread records into one of several copies, picked by its hash,
+ * so threads timing the same operation on different cores rarely write to the same cache line. A
+ * stripe is only allocated once a thread records into it, and reading sums all of them.
+ */
+final class LatencyHistogram {
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+    // A power of two of about the number of cores, capped, as every stripe costs a few KiB
+    private static final int STRIPES =
+            Integer.highestOneBit(Math.min(16, Runtime.getRuntime().availableProcessors()) * 2 - 1);
+
+    private final AtomicReferenceArray<AtomicLongArray> stripes = new AtomicReferenceArray<>(STRIPES);
+
+    void record(long nanos) {
+        // Spread the identity hash, whose low bits alone may repeat across threads
+        int hash = Thread.currentThread().hashCode() * 0x9E3779B9;
+        int stripe = (hash >>> 16) & (STRIPES - 1);
+        AtomicLongArray counts = stripes.get(stripe);
+        if (counts == null) {
+            stripes.compareAndSet(stripe, null, new AtomicLongArray(BUCKETS));
+            counts = stripes.get(stripe);
+        }
+        counts.incrementAndGet(bucket(Math.max(0, nanos)));
+    }
+
+    /**
+     * Copies the current counts. Values recorded meanwhile may or may not be included.
+     *
+     * @return The count of every bucket.
+     */
+    long[] counts() {
+        long[] copy = new long[BUCKETS];
+        for (int s = 0; s < STRIPES; s++) {
+            AtomicLongArray counts = stripes.get(s);
+            if (counts == null) continue;
+            for (int i = 0; i < BUCKETS; i++) {
+                copy[i] += counts.get(i);
+            }
+        }
+        return copy;
+    }
+
+    void reset() {
+        for (int s = 0; s < STRIPES; s++) {
+            AtomicLongArray counts = stripes.get(s);
+            if (counts == null) continue;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts.set(i, 0);
+            }
+        }
+    }
+
+    static int bucket(long nanos) {
+        if (nanos < SUB_BUCKETS) return (int) nanos;
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int sub = (int) (nanos >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Returns the largest value that falls into a bucket.
+     *
+     * @param bucket The bucket index.
+     * @return The inclusive upper bound of the bucket in nanoseconds.
+     */
+    static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lower + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,52 @@
+package metrics;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Immutable copy of every operation's statistics at one point in time.
+ */
+public final class MetricsSnapshot {
+    private final long takenAtNanos;
+    private final Map<Operation, OperationStats> stats;
+
+    MetricsSnapshot(long takenAtNanos, EnumMap<Operation, OperationStats> stats) {
+        this.takenAtNanos = takenAtNanos;
+        this.stats = Collections.unmodifiableMap(stats);
+    }
+
+    /**
+     * @return The {@link System#nanoTime()} at which the snapshot was taken.
+     */
+    public long getTakenAtNanos() {
+        return takenAtNanos;
+    }
+
+    /**
+     * @param operation The operation to look up.
+     * @return The operation's statistics; operations that never ran have a count of zero.
+     */
+    public OperationStats get(Operation operation) {
+        return stats.get(operation);
+    }
+
+    /**
+     * @return The statistics of every operation, in declaration order.
+     */
+    public Map<Operation, OperationStats> getAll() {
+        return stats;
+    }
+
+    /**
+     * @return One line per operation that ran at least once.
+     */
+    @Override
+    public String toString() {
+        return stats.values().stream()
+                .filter(s -> s.getCount() > 0)
+                .map(OperationStats::toString)
+                .collect(Collectors.joining(System.lineSeparator()));
+    }
+}
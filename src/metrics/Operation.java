@@ -0,0 +1,45 @@
+package metrics;
+
+/**
+ * The vault operations that are timed by {@link VaultMetrics}.
+ */
+public enum Operation {
+    /** Deriving the vault key from the master password, or a backup key from its password. Items: iterations. */
+    KEY_DERIVATION("Key derivation"),
+    /** Sealing data with the vault key. Bytes: plaintext. Only a sample of the calls is timed. */
+    ENCRYPT("Encrypt"),
+    /** Opening data sealed with the vault key. Bytes: plaintext. Only a sample of the calls is timed. */
+    DECRYPT("Decrypt"),
+    /** Encoding entries into a catalog. Bytes: encoded catalog; items: entries. */
+    SERIALIZE("Serialize"),
+    /** Parsing entries from a catalog. Bytes: encoded catalog; items: entries. */
+    DESERIALIZE("Deserialize"),
+    /** Deflating a catalog chunk. Bytes: uncompressed. */
+    COMPRESS("Compress"),
+    /** Inflating a catalog chunk. Bytes: uncompressed. */
+    DECOMPRESS("Decompress"),
+    /** Reading the vault file. Bytes: read. */
+    FILE_READ("File read"),
+    /** Writing the vault file or appending to its journal, without the final sync. Bytes: written. */
+    FILE_WRITE("File write"),
+    /** Forcing a written vault file to disk. Bytes: size of the file synced. */
+    FILE_SYNC("File sync"),
+    /** Finding an entry by source and login. Items: entries found. Only a sample of the calls is timed. */
+    LOOKUP("Lookup"),
+    /** Searching entries by keyword. Items: matches. */
+    SEARCH("Search"),
+    /** Searching entries by keyword, tolerating typos. Items: matches. */
+    FUZZY_SEARCH("Fuzzy search"),
+    /** Completing a source or login from its first characters. Items: completions. */
+    COMPLETE("Complete");
+
+    private final String label;
+
+    Operation(String label) {
+        this.label = label;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+}
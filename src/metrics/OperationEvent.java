@@ -0,0 +1,30 @@
+package metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event committed for every timed vault operation, so a recording shows where
+ * unlock and save time goes next to GC, I/O and CPU samples.
+ */
+@Name("securejavavault.Operation")
+@Label("Vault Operation")
+@Category("SecureJavaVault")
+@Description("A timed operation on the password vault")
+@StackTrace(false)
+final class OperationEvent extends Event {
+    @Label("Operation")
+    String operation;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("Items")
+    long items;
+}
@@ -0,0 +1,120 @@
+package metrics;
+
+import java.util.Locale;
+
+/**
+ * Immutable statistics of one {@link Operation}, taken by {@link VaultMetrics#snapshot()}.
+ *
+ * <p>Counts, bytes and items cover every call. Durations come from the timed calls, which are all of
+ * them unless the operation is recorded with {@link VaultMetrics#sample(Operation)}; the mean, the
+ * percentiles and the maximum are then those of the sample, and the total time is extrapolated.
+ */
+public final class OperationStats {
+    private final Operation operation;
+    private final long count;
+    private final long timedCount;
+    private final long totalNanos;
+    private final long maxNanos;
+    private final long bytes;
+    private final long items;
+    private final long[] histogram;
+
+    OperationStats(Operation operation, long count, long timedCount, long totalNanos, long maxNanos, long bytes,
+                   long items, long[] histogram) {
+        this.operation = operation;
+        this.count = count;
+        this.timedCount = timedCount;
+        this.totalNanos = totalNanos;
+        this.maxNanos = maxNanos;
+        this.bytes = bytes;
+        this.items = items;
+        this.histogram = histogram;
+    }
+
+    public Operation getOperation() {
+        return operation;
+    }
+
+    /**
+     * @return The number of times the operation completed.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return The number of calls whose duration was recorded.
+     */
+    public long getTimedCount() {
+        return timedCount;
+    }
+
+    /**
+     * @return The time spent in the operation, summed over all calls; estimated from the timed
+     * calls if only a sample of them was timed.
+     */
+    public long getTotalNanos() {
+        if (timedCount == 0 || timedCount >= count) return totalNanos;
+        return Math.round(totalNanos * ((double) count / timedCount));
+    }
+
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+
+    public double getMeanNanos() {
+        return timedCount == 0 ? 0 : (double) totalNanos / timedCount;
+    }
+
+    /**
+     * @return The bytes processed, summed over all calls; see {@link Operation} for what is counted.
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return The items processed, summed over all calls; see {@link Operation} for what is counted.
+     */
+    public long getItems() {
+        return items;
+    }
+
+    /**
+     * @return The throughput in bytes per second of time spent in the operation.
+     */
+    public double getBytesPerSecond() {
+        long total = getTotalNanos();
+        return total == 0 ? 0 : bytes * 1e9 / total;
+    }
+
+    /**
+     * Returns an upper bound of the duration below which the given fraction of calls completed.
+     * Durations are bucketed, so the bound is at most 12.5% above the exact percentile.
+     *
+     * @param fraction The fraction of calls, between 0 and 1, for example 0.99.
+     * @return The duration in nanoseconds, or 0 if the operation never ran.
+     */
+    public long getPercentileNanos(double fraction) {
+        long total = 0;
+        for (long c : histogram) {
+            total += c;
+        }
+        if (total == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(fraction * total));
+        long seen = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            seen += histogram[i];
+            if (seen >= rank) return Math.min(LatencyHistogram.upperBound(i), maxNanos);
+        }
+        return maxNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "%s: %d calls%s, mean %.1f us, p50 %.1f us, p99 %.1f us, max %.1f us, %d bytes, %d items",
+                operation.getLabel(), count, timedCount < count ? " (" + timedCount + " timed)" : "",
+                getMeanNanos() / 1e3, getPercentileNanos(0.5) / 1e3,
+                getPercentileNanos(0.99) / 1e3, maxNanos / 1e3, bytes, items);
+    }
+}
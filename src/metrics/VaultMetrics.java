@@ -0,0 +1,194 @@
+package metrics;
+
+import jdk.jfr.FlightRecorder;
+
+import java.util.EnumMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide registry of vault operation metrics: for every {@link Operation} a call counter,
+ * byte and item counters and a latency histogram, plus a Flight Recorder event per call.
+ *
+ * <p>Recording is lock-free. A call is timed with {@link #time(Operation)} in a try-with-resources
+ * block:
+ *
+ * <pre>{@code
+ * try (VaultMetrics.Timing timing = VaultMetrics.time(Operation.SEARCH)) {
+ *     timing.items(matches.size());
+ *     ...
+ * }
+ * }</pre>
+ *
+ * <p>Operations that run once per entry and take a microsecond or less, such as lookups and sealing
+ * a password, use {@link #sample(Operation)} instead. Every call is still counted, with its bytes
+ * and items, but only about one call in {@value #SAMPLE_INTERVAL} per thread reads the clock and
+ * records its time; the others reuse a timing object of their thread and only add to striped
+ * counters.
+ *
+ * <p>Start a recording with {@code -XX:StartFlightRecording} or {@code jcmd <pid> JFR.start} to see
+ * the {@code securejavavault.Operation} events of the timed calls; the counters are always on. Until
+ * Flight Recorder has been started no event is created, so a short-lived process does not pay for
+ * loading and initializing the Flight Recorder classes, which takes longer than anything else it
+ * does but the key derivation.
+ */
+public final class VaultMetrics {
+    static final int SAMPLE_INTERVAL = 64;
+
+    private static final EnumMap<Operation, Recorder> RECORDERS = new EnumMap<>(Operation.class);
+    private static final ThreadLocal<Sampler> SAMPLERS = ThreadLocal.withInitial(Sampler::new);
+
+    static {
+        for (Operation op : Operation.values()) {
+            RECORDERS.put(op, new Recorder());
+        }
+    }
+
+    private VaultMetrics() {
+    }
+
+    private static final class Recorder {
+        final LongAdder count = new LongAdder();
+        final LongAdder timed = new LongAdder(); // calls whose time was recorded
+        final LongAdder nanos = new LongAdder();
+        final LongAccumulator max = new LongAccumulator(Math::max, 0);
+        final LongAdder bytes = new LongAdder();
+        final LongAdder items = new LongAdder();
+        final LatencyHistogram histogram = new LatencyHistogram();
+    }
+
+    /**
+     * Times one call of an operation until the returned timing is closed.
+     *
+     * @param operation The operation being performed.
+     * @return The timing to close when the call completes.
+     */
+    public static Timing time(Operation operation) {
+        return new Timing(operation, true);
+    }
+
+    /**
+     * Counts one call of a frequent operation until the returned timing is closed, timing only a
+     * sample of the calls. The first call on each thread is timed, then a random one in about
+     * {@value #SAMPLE_INTERVAL}, so calls alternating in a fixed pattern are still sampled evenly.
+     *
+     * @param operation The operation being performed.
+     * @return The timing to close when the call completes. It belongs to the calling thread and
+     * must be closed on it, before the same operation is sampled again there.
+     */
+    public static Timing sample(Operation operation) {
+        Sampler sampler = SAMPLERS.get();
+        int i = operation.ordinal();
+        if (--sampler.countdown[i] < 0) {
+            sampler.countdown[i] = ThreadLocalRandom.current().nextInt(2 * SAMPLE_INTERVAL - 1);
+            return new Timing(operation, true);
+        }
+        Timing untimed = sampler.untimed[i];
+        if (untimed == null || untimed.open) {
+            // A call nested in another of the same operation gets a timing of its own
+            untimed = new Timing(operation, false);
+            if (sampler.untimed[i] == null) sampler.untimed[i] = untimed;
+        }
+        untimed.open = true;
+        return untimed;
+    }
+
+    /**
+     * Copies the current statistics of every operation.
+     *
+     * @return The snapshot.
+     */
+    public static MetricsSnapshot snapshot() {
+        EnumMap<Operation, OperationStats> stats = new EnumMap<>(Operation.class);
+        RECORDERS.forEach((op, r) -> stats.put(op, new OperationStats(op, r.count.sum(), r.timed.sum(),
+                r.nanos.sum(), r.max.get(), r.bytes.sum(), r.items.sum(), r.histogram.counts())));
+        return new MetricsSnapshot(System.nanoTime(), stats);
+    }
+
+    /**
+     * Sets every counter and histogram back to zero, for example between two measurements.
+     */
+    public static void reset() {
+        for (Recorder r : RECORDERS.values()) {
+            r.count.reset();
+            r.timed.reset();
+            r.nanos.reset();
+            r.max.reset();
+            r.bytes.reset();
+            r.items.reset();
+            r.histogram.reset();
+        }
+    }
+
+    /**
+     * The sampling state of one thread: for every operation the calls left until the next timed one,
+     * and the timing reused by the calls in between.
+     */
+    private static final class Sampler {
+        final int[] countdown = new int[Operation.values().length];
+        final Timing[] untimed = new Timing[Operation.values().length];
+    }
+
+    /**
+     * One call. Closing it counts the call with the amounts set on it and, if it is timed, records
+     * the elapsed time and a Flight Recorder event; a call that ends with an exception is recorded
+     * all the same.
+     */
+    public static final class Timing implements AutoCloseable {
+        private final Operation operation;
+        private final Recorder recorder;
+        private final boolean timed;
+        private final OperationEvent event; // null while Flight Recorder has not been started, or if not timed
+        private final long start;
+        private long bytes;
+        private long items;
+        private boolean open; // an untimed timing is in use by a call of its thread
+
+        private Timing(Operation operation, boolean timed) {
+            this.operation = operation;
+            this.recorder = RECORDERS.get(operation);
+            this.timed = timed;
+            event = timed && FlightRecorder.isInitialized() ? new OperationEvent() : null;
+            if (event != null) event.begin();
+            start = timed ? System.nanoTime() : 0;
+        }
+
+        public Timing bytes(long bytes) {
+            this.bytes += bytes;
+            return this;
+        }
+
+        public Timing items(long items) {
+            this.items += items;
+            return this;
+        }
+
+        @Override
+        public void close() {
+            Recorder r = recorder;
+            r.count.increment();
+            if (bytes != 0) r.bytes.add(bytes);
+            if (items != 0) r.items.add(items);
+            if (!timed) {
+                bytes = 0;
+                items = 0;
+                open = false;
+                return;
+            }
+            long elapsed = System.nanoTime() - start;
+            r.timed.increment();
+            r.nanos.add(elapsed);
+            r.max.accumulate(elapsed);
+            r.histogram.record(elapsed);
+            if (event == null) return;
+            event.end();
+            if (event.shouldCommit()) {
+                event.operation = operation.getLabel();
+                event.bytes = bytes;
+                event.items = items;
+                event.commit();
+            }
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package model;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps sealed password entries outside the Java heap, in large direct buffer slabs.
+ *
+ * <p>The data is laid out column-wise rather than as one object graph per entry. Sources are
+ * interned in a {@link SourceDictionary}, so a source shared by many logins is stored once. Each
+ * entry's login and sealed password are bump-allocated back to back into the current slab, and the
+ * entry itself is a small flyweight holding only the source's id and the record's offset and
+ * lengths; views read the slabs in place. A large vault thus adds one small object per entry to
+ * the old generation, and the garbage collector never copies its sources and logins around.
+ * Freeing an entry zeroes its record at once, and its source once no other entry uses it. Once more than half of
+ * the allocated bytes are freed records, the live records are copied into fresh slabs and the old
+ * slabs are zeroed. {@link #close()} zeroes every slab, so nothing is left for the collector to find.
+ *
+ * <p>An arena is not thread-safe. Its owner applies mutations one at a time, and readers must not
+ * use an entry while it is being freed.
+ */
+public final class EntryArena implements AutoCloseable {
+    private static final int SLAB_SIZE = 1 << 20;
+    private static final byte[] ZEROS = new byte[4096];
+
+    private final SourceDictionary sources = new SourceDictionary();
+    private final List<Slab> slabs = new ArrayList<>();
+    private Slab current;
+    private long usedBytes; // bytes handed out from all slabs, freed ones included
+    private long liveBytes;
+
+    static final class Slab {
+        final ByteBuffer memory;
+        final List<OffHeapPasswordEntry> entries = new ArrayList<>();
+        int top;
+
+        Slab(int capacity) {
+            memory = ByteBuffer.allocateDirect(capacity);
+        }
+    }
+
+    /**
+     * Tells whether the entry is kept in this arena.
+     *
+     * @param entry The entry to check.
+     * @return {@code true} if the entry was copied into this arena and has not been freed.
+     */
+    public boolean owns(PasswordEntry entry) {
+        return entry instanceof OffHeapPasswordEntry o && o.arena == this && o.slab != null;
+    }
+
+    /**
+     * Copies a sealed entry into the arena.
+     *
+     * @param entry The entry to copy; it is left unchanged.
+     * @return An entry with the same key and sealed password whose data lives in the arena.
+     * @throws IllegalArgumentException If the entry's password is not sealed.
+     */
+    public PasswordEntry copyOf(PasswordEntry entry) {
+        ByteBuffer sealed = entry.sealedPasswordView();
+        if (sealed == null) throw new IllegalArgumentException("Only sealed entries can be kept off-heap");
+        CharSequence login = entry.loginView();
+        int sourceId = sources.acquire(entry.sourceView());
+        OffHeapPasswordEntry copy = new OffHeapPasswordEntry(this, entry.keyHash(), entry.unsealer(),
+                sourceId, login.length(), sealed.remaining());
+        int offset = reserve(copy.recordLength());
+        ByteBuffer memory = current.memory;
+        for (int i = 0; i < login.length(); i++) {
+            memory.putChar(offset + i * 2, login.charAt(i));
+        }
+        memory.put(offset + login.length() * 2, sealed, sealed.position(), sealed.remaining());
+        register(copy, offset);
+        return copy;
+    }
+
+    SourceDictionary sources() {
+        return sources;
+    }
+
+    /**
+     * Reserves room for a record in the current slab, starting a new slab if it is full.
+     *
+     * @return The offset of the reserved record in {@code current}.
+     */
+    private int reserve(int length) {
+        if (current == null || current.memory.capacity() - current.top < length) {
+            current = new Slab(Math.max(SLAB_SIZE, length));
+            slabs.add(current);
+        }
+        int offset = current.top;
+        current.top += length;
+        usedBytes += length;
+        liveBytes += length;
+        return offset;
+    }
+
+    /**
+     * Points the entry at its record, just written at the given offset of the current slab.
+     */
+    private void register(OffHeapPasswordEntry entry, int offset) {
+        entry.slot = current.entries.size();
+        current.entries.add(entry);
+        entry.moveTo(current, offset);
+    }
+
+    /**
+     * Zeroes the entry's record and releases it, along with its reference to its source. Entries of
+     * other arenas, and entries that were already freed, are ignored.
+     *
+     * @param entry The entry to free; it cannot be read afterwards.
+     */
+    public void free(PasswordEntry entry) {
+        if (!owns(entry)) return;
+        OffHeapPasswordEntry e = (OffHeapPasswordEntry) entry;
+        Slab slab = e.slab;
+        int length = e.recordLength();
+        zero(slab.memory, e.offset, length);
+        e.moveTo(null, 0);
+        sources.release(e.sourceId);
+        OffHeapPasswordEntry last = slab.entries.remove(slab.entries.size() - 1);
+        if (last != e) {
+            slab.entries.set(e.slot, last);
+            last.slot = e.slot;
+        }
+        liveBytes -= length;
+        if (slab.entries.isEmpty() && slab != current) {
+            slabs.remove(slab);
+            usedBytes -= slab.top;
+        }
+        long garbage = usedBytes - liveBytes;
+        if (garbage > liveBytes && garbage >= SLAB_SIZE) {
+            compact();
+        }
+    }
+
+    /**
+     * Moves every live record into fresh slabs, then zeroes and drops the old ones.
+     */
+    private void compact() {
+        List<Slab> old = new ArrayList<>(slabs);
+        slabs.clear();
+        current = null;
+        usedBytes = 0;
+        liveBytes = 0;
+        for (Slab slab : old) {
+            for (OffHeapPasswordEntry e : slab.entries) {
+                int length = e.recordLength();
+                int offset = reserve(length);
+                current.memory.put(offset, slab.memory, e.offset, length);
+                register(e, offset);
+            }
+            zero(slab.memory, 0, slab.top);
+        }
+    }
+
+    /**
+     * Returns the bytes held by live records and the sources they use.
+     *
+     * @return The live size in bytes.
+     */
+    public long liveBytes() {
+        return liveBytes + sources.liveBytes();
+    }
+
+    /**
+     * Returns the direct memory reserved by the slabs and the source dictionary.
+     *
+     * @return The reserved size in bytes.
+     */
+    public long reservedBytes() {
+        long reserved = sources.reservedBytes();
+        for (Slab slab : slabs) {
+            reserved += slab.memory.capacity();
+        }
+        return reserved;
+    }
+
+    /**
+     * Zeroes and frees every entry, leaving the arena empty but usable.
+     */
+    public void clear() {
+        for (Slab slab : slabs) {
+            for (OffHeapPasswordEntry e : slab.entries) {
+                e.moveTo(null, 0);
+            }
+            zero(slab.memory, 0, slab.top);
+        }
+        sources.clear();
+        slabs.clear();
+        current = null;
+        usedBytes = 0;
+        liveBytes = 0;
+    }
+
+    /**
+     * Zeroes and frees every entry. The direct buffers themselves are released by the garbage
+     * collector, but by then they only hold zeros.
+     */
+    @Override
+    public void close() {
+        clear();
+    }
+
+    static void zero(ByteBuffer buffer, int offset, int length) {
+        for (int done = 0; done < length; done += ZEROS.length) {
+            buffer.put(offset + done, ZEROS, 0, Math.min(ZEROS.length, length - done));
+        }
+    }
+}
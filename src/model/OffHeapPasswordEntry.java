@@ -0,0 +1,156 @@
+package model;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A sealed entry kept in an {@link EntryArena}: a flyweight over the arena's memory rather than
+ * an owner of heap arrays. The source is referenced by its id in the arena's source dictionary;
+ * the record at {@code offset} in the slab holds the UTF-16 login and the sealed bytes back to
+ * back. Views read both in place, and copies are only made by the getters that return arrays.
+ */
+final class OffHeapPasswordEntry extends PasswordEntry {
+    final EntryArena arena;
+    final int sourceId;
+    final int loginLength;
+    final int sealedLength;
+
+    // Moved by the arena when it compacts its slabs; null once the entry is freed
+    volatile EntryArena.Slab slab;
+    int offset;
+    int slot;
+
+    OffHeapPasswordEntry(EntryArena arena, int keyHash, PasswordUnsealer unsealer,
+                         int sourceId, int loginLength, int sealedLength) {
+        super(keyHash, unsealer);
+        this.arena = arena;
+        this.sourceId = sourceId;
+        this.loginLength = loginLength;
+        this.sealedLength = sealedLength;
+    }
+
+    int recordLength() {
+        return loginLength * 2 + sealedLength;
+    }
+
+    /**
+     * Points the entry at its record. The offset is written first, so a reader that sees the new
+     * slab also sees the new offset.
+     */
+    void moveTo(EntryArena.Slab slab, int offset) {
+        this.offset = offset;
+        this.slab = slab;
+    }
+
+    private ByteBuffer memory() {
+        EntryArena.Slab s = slab;
+        if (s == null) throw new IllegalStateException("Entry has been cleared");
+        return s.memory;
+    }
+
+    @Override
+    public char[] getSource() {
+        memory();
+        char[] chars = new char[arena.sources().length(sourceId)];
+        arena.sources().getChars(sourceId, chars);
+        return chars;
+    }
+
+    @Override
+    public char[] getLogin() {
+        ByteBuffer memory = memory();
+        char[] chars = new char[loginLength];
+        for (int i = 0; i < loginLength; i++) {
+            chars[i] = memory.getChar(offset + i * 2);
+        }
+        return chars;
+    }
+
+    @Override
+    public char[] getPassword() {
+        byte[] sealed = getSealedPassword();
+        try {
+            return unsealer().unseal(sourceView(), loginView(), sealed);
+        } finally {
+            Arrays.fill(sealed, (byte) 0);
+        }
+    }
+
+    @Override
+    public boolean isSealed() {
+        return true;
+    }
+
+    @Override
+    public boolean isSealedFor(PasswordUnsealer unsealer) {
+        return unsealer() == unsealer;
+    }
+
+    @Override
+    public byte[] getSealedPassword() {
+        ByteBuffer memory = memory();
+        byte[] sealed = new byte[sealedLength];
+        memory.get(offset + loginLength * 2, sealed);
+        return sealed;
+    }
+
+    @Override
+    public ByteBuffer sealedPasswordView() {
+        ByteBuffer memory = memory();
+        return memory.slice(offset + loginLength * 2, sealedLength).asReadOnlyBuffer();
+    }
+
+    @Override
+    public CharSequence sourceView() {
+        memory();
+        return arena.sources().view(sourceId);
+    }
+
+    @Override
+    public CharSequence loginView() {
+        ByteBuffer memory = memory();
+        return memory.slice(offset, loginLength * 2).asCharBuffer().asReadOnlyBuffer();
+    }
+
+    @Override
+    public boolean hasKey(char[] source, char[] login) {
+        if (login.length != loginLength) return false;
+        return loginEquals(memory(), login) && arena.sources().contentEquals(sourceId, source);
+    }
+
+    @Override
+    public boolean hasSameKey(PasswordEntry other) {
+        if (keyHash() != other.keyHash()) return false;
+        if (other instanceof OffHeapPasswordEntry o && o.arena == arena) {
+            // Interned sources are equal exactly when their ids are
+            if (o.sourceId != sourceId || o.loginLength != loginLength) return false;
+            ByteBuffer memory = memory();
+            ByteBuffer otherMemory = o.memory();
+            for (int i = 0; i < loginLength * 2; i += 2) {
+                if (memory.getChar(offset + i) != otherMemory.getChar(o.offset + i)) return false;
+            }
+            return true;
+        }
+        char[] source = other.getSource();
+        char[] login = other.getLogin();
+        boolean same = hasKey(source, login);
+        Arrays.fill(source, '\0');
+        Arrays.fill(login, '\0');
+        return same;
+    }
+
+    private boolean loginEquals(ByteBuffer memory, char[] login) {
+        for (int i = 0; i < loginLength; i++) {
+            if (memory.getChar(offset + i * 2) != login[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Zeroes the record and returns its memory to the arena.
+     */
+    @Override
+    public void clear() {
+        arena.free(this);
+    }
+}
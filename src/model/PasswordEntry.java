@@ -1,16 +1,59 @@
 package model;
 
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.util.Arrays;
 
 public class PasswordEntry {
     private final char[] source;
     private final char[] login;
-    private final char[] password;
+    private final char[] password; // null if sealed
+    private final byte[] sealedPassword; // null if plaintext
+    private final PasswordUnsealer unsealer;
+    private final int keyHash;
 
     PasswordEntry(char[] source, char[] login, char[] password) {
+        this(source, login, password, null, null);
+    }
+
+    PasswordEntry(char[] source, char[] login, byte[] sealedPassword, PasswordUnsealer unsealer) {
+        this(source, login, null, sealedPassword, unsealer);
+    }
+
+    /**
+     * Constructs an entry whose data is kept elsewhere by a subclass, which overrides every accessor.
+     *
+     * @param keyHash  The hash of the entry's key.
+     * @param unsealer The unsealer of the entry's sealed password.
+     */
+    PasswordEntry(int keyHash, PasswordUnsealer unsealer) {
+        this(null, null, null, null, unsealer, keyHash);
+    }
+
+    private PasswordEntry(char[] source, char[] login, char[] password, byte[] sealedPassword,
+                          PasswordUnsealer unsealer) {
+        this(source, login, password, sealedPassword, unsealer, keyHash(source, login));
+    }
+
+    private PasswordEntry(char[] source, char[] login, char[] password, byte[] sealedPassword,
+                          PasswordUnsealer unsealer, int keyHash) {
         this.source = source;
         this.login = login;
         this.password = password;
+        this.sealedPassword = sealedPassword;
+        this.unsealer = unsealer;
+        this.keyHash = keyHash;
+    }
+
+    /**
+     * Computes the hash of a (source, login) key from the character content of both arrays.
+     *
+     * @param source The source of the key.
+     * @param login  The login of the key.
+     * @return The hash of the key.
+     */
+    public static int keyHash(char[] source, char[] login) {
+        return 31 * Arrays.hashCode(source) + Arrays.hashCode(login);
     }
 
     public char[] getSource() {
@@ -21,13 +64,112 @@ public class PasswordEntry {
         return login.clone();
     }
 
+    /**
+     * Returns a copy of the password. A sealed password is decrypted on every call.
+     *
+     * @return The plaintext password, which the caller should clear after use.
+     */
     public char[] getPassword() {
-        return password.clone();
+        return password != null ? password.clone() : unsealer.unseal(sourceView(), loginView(), sealedPassword);
+    }
+
+    /**
+     * Tells whether the password is held sealed and only decrypted on demand.
+     *
+     * @return {@code true} if the entry holds a sealed password.
+     */
+    public boolean isSealed() {
+        return sealedPassword != null;
+    }
+
+    /**
+     * Tells whether the password was sealed for the given unsealer, and can therefore be stored as is
+     * by the storage that owns it.
+     *
+     * @param unsealer The unsealer of the storage.
+     * @return {@code true} if the entry holds a password sealed for that unsealer.
+     */
+    public boolean isSealedFor(PasswordUnsealer unsealer) {
+        return sealedPassword != null && this.unsealer == unsealer;
+    }
+
+    /**
+     * Returns a copy of the sealed password.
+     *
+     * @return The sealed password bytes, or {@code null} if the password is held in plaintext.
+     */
+    public byte[] getSealedPassword() {
+        return sealedPassword != null ? sealedPassword.clone() : null;
+    }
+
+    /**
+     * Returns a read-only view of the sealed password that shares this entry's bytes instead of copying them.
+     *
+     * @return The sealed password bytes, or {@code null} if the password is held in plaintext.
+     */
+    public ByteBuffer sealedPasswordView() {
+        return sealedPassword != null ? ByteBuffer.wrap(sealedPassword).asReadOnlyBuffer() : null;
+    }
+
+    PasswordUnsealer unsealer() {
+        return unsealer;
+    }
+
+    /**
+     * Returns a read-only view of the source that shares this entry's array instead of copying it.
+     *
+     * @return The source as a read-only character sequence.
+     */
+    public CharSequence sourceView() {
+        return CharBuffer.wrap(source).asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns a read-only view of the login that shares this entry's array instead of copying it.
+     *
+     * @return The login as a read-only character sequence.
+     */
+    public CharSequence loginView() {
+        return CharBuffer.wrap(login).asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns the hash of this entry's (source, login) key, computed once at construction.
+     *
+     * @return The key hash, equal to {@link #keyHash(char[], char[])} for the same content.
+     */
+    public int keyHash() {
+        return keyHash;
+    }
+
+    /**
+     * Checks whether this entry has the given source and login without copying its own arrays.
+     *
+     * @param source The source to compare with.
+     * @param login  The login to compare with.
+     * @return {@code true} if both source and login are equal by content.
+     */
+    public boolean hasKey(char[] source, char[] login) {
+        return Arrays.equals(this.source, source) && Arrays.equals(this.login, login);
+    }
+
+    /**
+     * Checks whether this entry has the same source and login as another entry.
+     *
+     * @param other The entry to compare with.
+     * @return {@code true} if both entries share the same (source, login) key.
+     */
+    public boolean hasSameKey(PasswordEntry other) {
+        return keyHash == other.keyHash && other.hasKey(source, login);
     }
 
     public void clear() {
         Arrays.fill(source, '\0');
         Arrays.fill(login, '\0');
-        Arrays.fill(password, '\0');
+        if (password != null) {
+            Arrays.fill(password, '\0');
+        } else {
+            Arrays.fill(sealedPassword, (byte) 0);
+        }
     }
 }
\ No newline at end of file
@@ -4,6 +4,8 @@ public class PasswordEntryBuilder {
     private char[] source;
     private char[] login;
     private char[] password;
+    private byte[] sealedPassword;
+    private PasswordUnsealer unsealer;
 
     public PasswordEntryBuilder setSource(char[] source) {
         this.source = source;
@@ -20,7 +22,16 @@ public class PasswordEntryBuilder {
         return this;
     }
 
+    public PasswordEntryBuilder setSealedPassword(byte[] sealedPassword, PasswordUnsealer unsealer) {
+        this.sealedPassword = sealedPassword;
+        this.unsealer = unsealer;
+        return this;
+    }
+
     public PasswordEntry build() {
+        if (sealedPassword != null) {
+            return new PasswordEntry(source, login, sealedPassword, unsealer);
+        }
         return new PasswordEntry(source, login, password);
     }
 }
\ No newline at end of file
@@ -0,0 +1,17 @@
+package model;
+
+/**
+ * Opens a password that a storage keeps sealed until it is actually needed.
+ */
+public interface PasswordUnsealer {
+    /**
+     * Decrypts a sealed password. The password is bound to the entry it was sealed for, so it only
+     * opens together with that entry's source and login.
+     *
+     * @param source         The source of the entry holding the password.
+     * @param login          The login of the entry holding the password.
+     * @param sealedPassword The sealed password bytes.
+     * @return A new array with the plaintext password, which the caller should clear after use.
+     */
+    char[] unseal(CharSequence source, CharSequence login, byte[] sealedPassword);
+}
@@ -0,0 +1,284 @@
+package model;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Interns the sources of an {@link EntryArena}'s entries, so that a source shared by many logins,
+ * such as a popular site, is stored once and each entry only keeps its int id.
+ *
+ * <p>The sources lie back to back as UTF-16 in one direct buffer, addressed through offset and
+ * length tables indexed by id. Every id is reference-counted: the last release zeroes the source's
+ * characters and recycles its id. When freed sources take up more room than live ones, the live
+ * ones are packed into a fresh buffer and the old one is zeroed; ids never change.
+ *
+ * <p>Like its arena, a dictionary is not thread-safe.
+ */
+final class SourceDictionary {
+    private static final int MIN_CAPACITY = 16;
+    private static final int MIN_BUFFER_SIZE = 1 << 15;
+    private static final int EMPTY = 0; // table slots hold id + 1
+
+    private ByteBuffer chars = ByteBuffer.allocateDirect(MIN_BUFFER_SIZE);
+    private int top;
+    private int liveBytes;
+
+    private int[] offsets = new int[MIN_CAPACITY];
+    private int[] lengths = new int[MIN_CAPACITY];
+    private int[] hashes = new int[MIN_CAPACITY];
+    private int[] refs = new int[MIN_CAPACITY];
+    private int idCount; // ids handed out so far, recycled ones included
+    private int[] freeIds = new int[MIN_CAPACITY];
+    private int freeCount;
+
+    private int[] table = new int[MIN_CAPACITY];
+    private int size;
+    private int shift = 32 - Integer.numberOfTrailingZeros(MIN_CAPACITY);
+
+    /**
+     * Returns the id of the source, adding it if no live entry uses it yet, and counts one more
+     * reference to it.
+     *
+     * @param source The source to intern.
+     * @return The id of the source.
+     */
+    int acquire(CharSequence source) {
+        int hash = hash(source);
+        for (int i = slotFor(hash); table[i] != EMPTY; i = next(i)) {
+            int id = table[i] - 1;
+            if (hashes[id] == hash && contentEquals(id, source)) {
+                refs[id]++;
+                return id;
+            }
+        }
+        int id = newId();
+        int length = source.length();
+        int offset = reserve(length * 2);
+        for (int i = 0; i < length; i++) {
+            chars.putChar(offset + i * 2, source.charAt(i));
+        }
+        offsets[id] = offset;
+        lengths[id] = length;
+        hashes[id] = hash;
+        refs[id] = 1;
+        if (size + 1 > table.length * 3 / 4) {
+            resize(table.length << 1);
+        }
+        place(id);
+        size++;
+        return id;
+    }
+
+    /**
+     * Drops one reference to the source. Releasing the last one zeroes it and recycles its id.
+     *
+     * @param id The id of the source.
+     */
+    void release(int id) {
+        if (--refs[id] > 0) return;
+        remove(id);
+        size--;
+        int bytes = lengths[id] * 2;
+        EntryArena.zero(chars, offsets[id], bytes);
+        liveBytes -= bytes;
+        lengths[id] = 0;
+        if (freeCount == freeIds.length) {
+            freeIds = Arrays.copyOf(freeIds, freeCount * 2);
+        }
+        freeIds[freeCount++] = id;
+        int garbage = top - liveBytes;
+        if (garbage > liveBytes && garbage >= MIN_BUFFER_SIZE / 2) {
+            repack(capacityFor(liveBytes));
+        }
+    }
+
+    int length(int id) {
+        return lengths[id];
+    }
+
+    /**
+     * Returns a read-only view of the source that reads the dictionary in place. The view must not
+     * be kept across mutations of the arena, which may move the characters.
+     *
+     * @param id The id of the source.
+     * @return The source as a character sequence.
+     */
+    CharSequence view(int id) {
+        return chars.asCharBuffer().slice(offsets[id] / 2, lengths[id]).asReadOnlyBuffer();
+    }
+
+    /**
+     * Copies the source's characters into the start of the given array.
+     *
+     * @param id  The id of the source.
+     * @param dst The array to fill; it must hold at least {@link #length(int)} characters.
+     */
+    void getChars(int id, char[] dst) {
+        int offset = offsets[id];
+        for (int i = 0; i < lengths[id]; i++) {
+            dst[i] = chars.getChar(offset + i * 2);
+        }
+    }
+
+    /**
+     * Compares the source with the given characters without copying it.
+     *
+     * @param id     The id of the source.
+     * @param source The characters to compare with.
+     * @return {@code true} if both are equal by content.
+     */
+    boolean contentEquals(int id, char[] source) {
+        if (lengths[id] != source.length) return false;
+        int offset = offsets[id];
+        for (int i = 0; i < source.length; i++) {
+            if (chars.getChar(offset + i * 2) != source[i]) return false;
+        }
+        return true;
+    }
+
+    private boolean contentEquals(int id, CharSequence source) {
+        if (lengths[id] != source.length()) return false;
+        int offset = offsets[id];
+        for (int i = 0; i < lengths[id]; i++) {
+            if (chars.getChar(offset + i * 2) != source.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of distinct sources in use.
+     *
+     * @return The number of live ids.
+     */
+    int size() {
+        return size;
+    }
+
+    long liveBytes() {
+        return liveBytes;
+    }
+
+    long reservedBytes() {
+        return chars.capacity();
+    }
+
+    /**
+     * Zeroes every source and forgets all ids.
+     */
+    void clear() {
+        EntryArena.zero(chars, 0, top);
+        if (chars.capacity() > MIN_BUFFER_SIZE) {
+            chars = ByteBuffer.allocateDirect(MIN_BUFFER_SIZE);
+        }
+        top = 0;
+        liveBytes = 0;
+        Arrays.fill(refs, 0, idCount, 0);
+        idCount = 0;
+        freeCount = 0;
+        Arrays.fill(table, EMPTY);
+        size = 0;
+    }
+
+    private int newId() {
+        if (freeCount > 0) return freeIds[--freeCount];
+        if (idCount == offsets.length) {
+            int capacity = idCount * 2;
+            offsets = Arrays.copyOf(offsets, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            hashes = Arrays.copyOf(hashes, capacity);
+            refs = Arrays.copyOf(refs, capacity);
+        }
+        return idCount++;
+    }
+
+    /**
+     * Reserves room at the end of the buffer, packing the live sources into a larger buffer if it is full.
+     *
+     * @return The byte offset of the reserved room.
+     */
+    private int reserve(int bytes) {
+        if (chars.capacity() - top < bytes) {
+            repack(capacityFor(liveBytes + bytes));
+        }
+        int offset = top;
+        top += bytes;
+        liveBytes += bytes;
+        return offset;
+    }
+
+    /**
+     * Copies the live sources back to back into a new buffer, then zeroes the old one.
+     */
+    private void repack(int capacity) {
+        ByteBuffer old = chars;
+        chars = ByteBuffer.allocateDirect(capacity);
+        top = 0;
+        for (int id = 0; id < idCount; id++) {
+            if (refs[id] <= 0) continue;
+            int bytes = lengths[id] * 2;
+            chars.put(top, old, offsets[id], bytes);
+            offsets[id] = top;
+            top += bytes;
+        }
+        EntryArena.zero(old, 0, old.capacity());
+    }
+
+    private static int capacityFor(int bytes) {
+        return Math.max(MIN_BUFFER_SIZE, Integer.highestOneBit(bytes) << 1);
+    }
+
+    private void place(int id) {
+        int i = slotFor(hashes[id]);
+        while (table[i] != EMPTY) {
+            i = next(i);
+        }
+        table[i] = id + 1;
+    }
+
+    private void remove(int id) {
+        int hole = slotFor(hashes[id]);
+        while (table[hole] != id + 1) {
+            hole = next(hole);
+        }
+        // Shift later slots of the probe sequence back, as EntryIndex does, so no tombstones are left
+        for (int i = next(hole); table[i] != EMPTY; i = next(i)) {
+            int home = slotFor(hashes[table[i] - 1]);
+            if (((i - home) & mask()) >= ((i - hole) & mask())) {
+                table[hole] = table[i];
+                hole = i;
+            }
+        }
+        table[hole] = EMPTY;
+    }
+
+    private void resize(int capacity) {
+        int[] old = table;
+        table = new int[capacity];
+        shift = 32 - Integer.numberOfTrailingZeros(capacity);
+        for (int slot : old) {
+            if (slot != EMPTY) {
+                place(slot - 1);
+            }
+        }
+    }
+
+    private static int hash(CharSequence source) {
+        int h = 1;
+        for (int i = 0; i < source.length(); i++) {
+            h = 31 * h + source.charAt(i);
+        }
+        return h;
+    }
+
+    private int slotFor(int hash) {
+        return (hash * 0x9E3779B9) >>> shift;
+    }
+
+    private int next(int slot) {
+        return (slot + 1) & mask();
+    }
+
+    private int mask() {
+        return table.length - 1;
+    }
+}
@@ -0,0 +1,93 @@
+package storage;
+
+import metrics.Operation;
+import metrics.VaultMetrics;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compression stage of the catalog pipeline: a chunk is deflated before it is encrypted and
+ * inflated after it is decrypted. Catalogs repeat the same domains and logins over and over, so
+ * they shrink to a fraction of their size, and the vault file and its backups with them.
+ *
+ * <p>A compressed chunk is the length of the original bytes as a varint, followed by a raw deflate
+ * stream. Every thread keeps its own {@link Deflater}, {@link Inflater} and block buffer, so chunks
+ * are compressed in parallel without allocating per chunk.
+ */
+final class CatalogCompressor {
+    // Fast deflate already removes most of the repetition; higher levels cost far more time than they save space
+    private static final int LEVEL = Deflater.BEST_SPEED;
+    private static final int BLOCK_SIZE = 16 * 1024;
+
+    private final ThreadLocal<Deflater> deflater = ThreadLocal.withInitial(() -> new Deflater(LEVEL, true));
+    private final ThreadLocal<Inflater> inflater = ThreadLocal.withInitial(() -> new Inflater(true));
+    private final ThreadLocal<byte[]> block = ThreadLocal.withInitial(() -> new byte[BLOCK_SIZE]);
+
+    /**
+     * Deflates the bytes into the writer, one block at a time.
+     *
+     * @param data   The array holding the bytes to compress.
+     * @param length The number of bytes to compress, starting at index 0.
+     * @param out    The writer receiving the compressed chunk; it holds plaintext, so the caller wipes it.
+     */
+    void compress(byte[] data, int length, VaultCodec.Writer out) {
+        try (VaultMetrics.Timing timing = VaultMetrics.time(Operation.COMPRESS)) {
+            timing.bytes(length);
+            Deflater d = deflater.get();
+            byte[] b = block.get();
+            d.reset();
+            d.setInput(data, 0, length);
+            d.finish();
+            out.putVarint(length);
+            while (!d.finished()) {
+                out.putRaw(b, 0, d.deflate(b));
+            }
+            Arrays.fill(b, (byte) 0);
+        }
+    }
+
+    /**
+     * Inflates a chunk written by {@link #compress(byte[], int, VaultCodec.Writer)}.
+     *
+     * @param data The compressed chunk between its position and limit; it is consumed.
+     * @return A buffer holding the original bytes; the caller wipes it.
+     * @throws DataFormatException If the chunk is not exactly one complete deflate stream of the recorded length.
+     */
+    ByteBuffer decompress(ByteBuffer data) throws DataFormatException {
+        int length = VaultCodec.getVarint(data);
+        if (length < 0) throw new DataFormatException("Negative catalog length " + length);
+        byte[] out = new byte[length];
+        try (VaultMetrics.Timing timing = VaultMetrics.time(Operation.DECOMPRESS)) {
+            Inflater inf = inflater.get();
+            inf.reset();
+            inf.setInput(data);
+            int n = 0;
+            while (n < length) {
+                int inflated = inf.inflate(out, n, length - n);
+                if (inflated == 0 && (inf.finished() || inf.needsInput() || inf.needsDictionary())) break;
+                n += inflated;
+            }
+            if (n == length && !inf.finished()) {
+                // The end of the stream may still follow the last byte; more bytes mean a wrong length
+                byte[] b = block.get();
+                n += inf.inflate(b, 0, 1);
+                b[0] = 0;
+            }
+            timing.bytes(n);
+            if (n != length) {
+                Arrays.fill(out, (byte) 0);
+                throw new DataFormatException(n > length ? "Catalog holds more than " + length + " bytes"
+                        : "Catalog ends after " + n + " of " + length + " bytes");
+            }
+            if (!inf.finished() || inf.getRemaining() > 0) {
+                Arrays.fill(out, (byte) 0);
+                throw new DataFormatException("Catalog does not end with its deflate stream");
+            }
+        }
+        return ByteBuffer.wrap(out);
+    }
+}
@@ -0,0 +1,229 @@
+package storage;
+
+import model.PasswordEntry;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.DoubleConsumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Thread-safe view of a {@link PasswordStorage} that is not thread-safe itself.
+ *
+ * <p>Lookups and searches share a read lock, so any number of them run in parallel and only wait
+ * while a mutation is being applied. Mutations take the write lock one at a time. Readers arriving
+ * while a mutation waits queue behind it, so a steady stream of lookups cannot starve writers. {@link #getAll()} returns an immutable snapshot that is built once after each mutation
+ * and then handed out without locking, so callers may iterate it while the storage changes.
+ *
+ * <p>Saving only reads the entries, so it runs under the read lock, with a separate lock keeping
+ * saves apart: lookups continue during a save and mutations wait for it to finish.
+ */
+public class ConcurrentPasswordStorage implements PasswordStorage {
+    private final PasswordStorage delegate;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ReentrantLock saveLock = new ReentrantLock();
+    private volatile List<PasswordEntry> snapshot; // null after a mutation until the next getAll
+
+    /**
+     * Constructs a thread-safe view of the storage. The storage must not be used directly afterwards.
+     *
+     * @param delegate The storage to guard. Its {@code save()} must not modify the entries.
+     */
+    public ConcurrentPasswordStorage(PasswordStorage delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public boolean loadOrInit(char[] masterPassword) {
+        return write(s -> s.loadOrInit(masterPassword));
+    }
+
+    @Override
+    public boolean loadOrInit(char[] masterPassword, DoubleConsumer progress) {
+        return write(s -> s.loadOrInit(masterPassword, progress));
+    }
+
+    @Override
+    public boolean save() {
+        lock.readLock().lock();
+        saveLock.lock();
+        try {
+            return delegate.save();
+        } finally {
+            saveLock.unlock();
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void add(PasswordEntry entry) {
+        write(s -> {
+            s.add(entry);
+            return null;
+        });
+    }
+
+    @Override
+    public int addAll(Iterator<? extends PasswordEntry> entries) {
+        return write(s -> s.addAll(entries));
+    }
+
+    @Override
+    public void delete(char[] source, char[] login) {
+        write(s -> {
+            s.delete(source, login);
+            return null;
+        });
+    }
+
+    /**
+     * Applies several operations as one mutation: readers see either none or all of their effects.
+     *
+     * @param action The operations, applied to the guarded storage while no other thread uses it.
+     * @param <T>    The type of the result.
+     * @return The result of the action.
+     */
+    public <T> T write(Function<PasswordStorage, T> action) {
+        lock.writeLock().lock();
+        try {
+            return action.apply(delegate);
+        } finally {
+            snapshot = null;
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Runs several reads against one consistent state; mutations wait until the action returns.
+     * Entries found by the action may be used safely inside it, even if a mutation would free them.
+     *
+     * @param action The reads, applied to the guarded storage.
+     * @param <T>    The type of the result.
+     * @return The result of the action.
+     */
+    public <T> T read(Function<PasswordStorage, T> action) {
+        lock.readLock().lock();
+        try {
+            return action.apply(delegate);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public PasswordEntry findBySourceAndLogin(char[] source, char[] login) {
+        lock.readLock().lock();
+        try {
+            return delegate.findBySourceAndLogin(source, login);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<PasswordEntry> search(String keyword) {
+        lock.readLock().lock();
+        try {
+            return delegate.search(keyword);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<PasswordEntry> fuzzySearch(String keyword, int limit) {
+        lock.readLock().lock();
+        try {
+            return delegate.fuzzySearch(keyword, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<String> sourcesStartingWith(String prefix, int limit) {
+        lock.readLock().lock();
+        try {
+            return delegate.sourcesStartingWith(prefix, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<String> loginsStartingWith(String prefix, int limit) {
+        lock.readLock().lock();
+        try {
+            return delegate.loginsStartingWith(prefix, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Runs a paged search under the read lock, so mutations wait until it completes or is stopped.
+     * Pages are handed over while the lock is held; the consumer should pass them on rather than
+     * doing slow work itself.
+     */
+    @Override
+    public boolean search(String keyword, int pageSize, Predicate<List<PasswordEntry>> pages) {
+        lock.readLock().lock();
+        try {
+            return delegate.search(keyword, pageSize, pages);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Registers a listener with the guarded storage. Its events are delivered while the write lock
+     * is held, so they arrive in the order of the mutations.
+     *
+     * @param listener The listener to add.
+     */
+    @Override
+    public void addListener(StorageListener listener) {
+        delegate.addListener(listener);
+    }
+
+    @Override
+    public void removeListener(StorageListener listener) {
+        delegate.removeListener(listener);
+    }
+
+    @Override
+    public void close() {
+        write(s -> {
+            s.close();
+            return null;
+        });
+    }
+
+    /**
+     * Returns an immutable snapshot of all entries as of the last mutation.
+     *
+     * @return The entries; later mutations do not change the returned list. A storage that zeroes
+     * entries when they are removed may still clear the ones a later mutation removes, so code that
+     * must read them while mutations go on uses {@link #read(Function)} instead.
+     */
+    @Override
+    public List<PasswordEntry> getAll() {
+        List<PasswordEntry> all = snapshot;
+        if (all != null) return all;
+        lock.readLock().lock();
+        try {
+            // Concurrent readers may both build it; either copy is the same state
+            all = snapshot;
+            if (all == null) {
+                all = List.copyOf(delegate.getAll());
+                snapshot = all;
+            }
+            return all;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package storage;
+
+import model.PasswordEntry;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Open-addressing hash index over the (source, login) key of the entries in a list.
+ * Each slot holds a position in the backing list, so lookups compare the stored entries
+ * by content in place and never copy their character arrays.
+ */
+class EntryIndex {
+    private static final int EMPTY = -1;
+    private static final int MIN_CAPACITY = 16;
+
+    private final List<PasswordEntry> entries;
+    private int[] slots;
+    private int size;
+    private int shift;
+
+    /**
+     * Constructs an empty index over the given list.
+     *
+     * @param entries The list whose positions are indexed.
+     */
+    EntryIndex(List<PasswordEntry> entries) {
+        this.entries = entries;
+        clear(0);
+    }
+
+    /**
+     * Drops every indexed position and pre-sizes the table for the expected number of entries.
+     *
+     * @param expectedSize The number of entries about to be inserted.
+     */
+    void clear(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * 3 / 4 < expectedSize) {
+            capacity <<= 1;
+        }
+        slots = new int[capacity];
+        Arrays.fill(slots, EMPTY);
+        shift = 32 - Integer.numberOfTrailingZeros(capacity);
+        size = 0;
+    }
+
+    /**
+     * Finds the position of the entry with the given source and login.
+     *
+     * @param source The source of the entry.
+     * @param login  The login of the entry.
+     * @return The position in the backing list, or {@code -1} if there is no such entry.
+     */
+    int indexOf(char[] source, char[] login) {
+        int hash = PasswordEntry.keyHash(source, login);
+        for (int i = slotFor(hash); ; i = next(i)) {
+            int position = slots[i];
+            if (position == EMPTY) {
+                return -1;
+            }
+            PasswordEntry e = entries.get(position);
+            if (e.keyHash() == hash && e.hasKey(source, login)) {
+                return position;
+            }
+        }
+    }
+
+    /**
+     * Finds the position of the entry with the same key as the given one.
+     *
+     * @param entry The entry whose key is looked up.
+     * @return The position in the backing list, or {@code -1} if there is no such entry.
+     */
+    int indexOf(PasswordEntry entry) {
+        for (int i = slotFor(entry.keyHash()); ; i = next(i)) {
+            int position = slots[i];
+            if (position == EMPTY) {
+                return -1;
+            }
+            if (entries.get(position).hasSameKey(entry)) {
+                return position;
+            }
+        }
+    }
+
+    /**
+     * Indexes the entry at the given position. Its key must not be indexed yet.
+     *
+     * @param position The position of the entry in the backing list.
+     */
+    void insert(int position) {
+        if (size + 1 > slots.length * 3 / 4) {
+            resize(slots.length << 1);
+        }
+        place(position);
+        size++;
+    }
+
+    /**
+     * Removes the entry at the given position from the index.
+     * Later slots of the probe sequence are shifted back so that no tombstones are left.
+     *
+     * @param position The position of the entry in the backing list.
+     */
+    void remove(int position) {
+        int hole = slotOf(position);
+        for (int i = next(hole); slots[i] != EMPTY; i = next(i)) {
+            int home = slotFor(entries.get(slots[i]).keyHash());
+            // The entry at i may fill the hole only if its home slot is not between the hole and i
+            if (((i - home) & mask()) >= ((i - hole) & mask())) {
+                slots[hole] = slots[i];
+                hole = i;
+            }
+        }
+        slots[hole] = EMPTY;
+        size--;
+    }
+
+    /**
+     * Updates the index after the entry at {@code from} has been moved to {@code to}.
+     * Must be called while the entry can still be read at {@code from}.
+     *
+     * @param from The old position of the entry.
+     * @param to   The new position of the entry.
+     */
+    void move(int from, int to) {
+        slots[slotOf(from)] = to;
+    }
+
+    private int slotOf(int position) {
+        for (int i = slotFor(entries.get(position).keyHash()); ; i = next(i)) {
+            if (slots[i] == position) {
+                return i;
+            }
+            if (slots[i] == EMPTY) {
+                throw new IllegalStateException("Position " + position + " is not indexed");
+            }
+        }
+    }
+
+    private void place(int position) {
+        int i = slotFor(entries.get(position).keyHash());
+        while (slots[i] != EMPTY) {
+            i = next(i);
+        }
+        slots[i] = position;
+    }
+
+    private void resize(int capacity) {
+        int[] old = slots;
+        slots = new int[capacity];
+        Arrays.fill(slots, EMPTY);
+        shift = 32 - Integer.numberOfTrailingZeros(capacity);
+        for (int position : old) {
+            if (position != EMPTY) {
+                place(position);
+            }
+        }
+    }
+
+    private int slotFor(int hash) {
+        // Fibonacci hashing spreads the poorly mixed low bits of Arrays.hashCode
+        return (hash * 0x9E3779B9) >>> shift;
+    }
+
+    private int next(int slot) {
+        return (slot + 1) & mask();
+    }
+
+    private int mask() {
+        return slots.length - 1;
+    }
+}
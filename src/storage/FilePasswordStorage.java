@@ -1,26 +1,129 @@
 package storage;
 
+import metrics.Operation;
+import metrics.VaultMetrics;
+import model.EntryArena;
 import model.PasswordEntry;
 import model.PasswordEntryBuilder;
+import model.PasswordUnsealer;
 import strategy.EncryptionStrategy;
+import strategy.KdfParameters;
 import strategy.PBKDF2AesGcmEncryptionStrategy;
 
 import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.security.SecureRandom;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.DoubleConsumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+import java.util.zip.DataFormatException;
 
 /**
  * Implementation of PasswordStorage that handles storing and retrieving password entries
  * from a file with encryption using PBKDF2 for key derivation and AES-GCM for encryption.
+ *
+ * <p>Every password is additionally sealed on its own when it enters the storage, with the entry's
+ * source and login as associated data, so a sealed password cannot be moved to another entry. The
+ * sealed passwords are stored outside the encrypted catalog: loading the vault only decrypts the
+ * catalog of sources and logins, and a password is decrypted when it is requested from its entry.
+ *
+ * <p>The file starts with a versioned header: the magic {@code "SJVV"}, a format version byte, a flags
+ * byte, the salt length as one byte and the salt, followed by the key derivation parameters: the
+ * algorithm name as a length byte and ASCII, the iteration count as an int and the key length in bits
+ * as a short, and the snapshot generation as a long. The generation is a random number drawn for every
+ * snapshot; the journal records it too, so that only a journal extending this very snapshot is replayed.
+ * The catalog follows, encoded with {@link VaultCodec} and split into chunks of at most
+ * {@link #CHUNK_ENTRIES} entries: the chunk count as an int, then each chunk's length as an int and its
+ * ciphertext. Every chunk is sealed on its own, with its index, the chunk count and the generation as
+ * associated data, so chunks cannot be dropped, reordered or mixed with another snapshot's, and they are
+ * encrypted, decrypted and parsed in parallel.
+ * When the {@link #FLAG_COMPRESSED} header flag is set, each chunk is deflated by a {@link CatalogCompressor}
+ * before it is encrypted. A chunk lists the offset of its first password in the password region, then
+ * the source, login and sealed password length of each entry. The password region ends the file: its
+ * length as an int and the sealed passwords of all entries back to back, in catalog order.
+ * Version 4 headers have no generation and their chunks hold the sealed passwords themselves, version 3
+ * files hold the whole catalog in a single ciphertext, version 2 headers end with the salt, and files
+ * written before the header existed start directly with the salt length as an int. All of them are still
+ * read, their passwords are sealed again for their entries while loading, and the next save rewrites them
+ * in the current format.
  */
 public class FilePasswordStorage implements PasswordStorage {
     private final String filename;
+    private final VaultJournal journal;
+    private final boolean journaled;
+    private final List<VaultJournal.Record> pendingRecords = new ArrayList<>();
+    private boolean snapshotRequired = false; // set after a failed append, a bulk import or when loading a legacy format
+    private final PasswordUnsealer unsealer = this::unseal;
+    // Opens passwords sealed before they were bound to their entry; only used to seal them again
+    private final PasswordUnsealer unboundUnsealer = (source, login, sealedPassword) -> unseal(sealedPassword, null);
     private EncryptionStrategy encryptionStrategy;
-    private List<PasswordEntry> entries = new ArrayList<>();
+    private final List<PasswordEntry> entries = new ArrayList<>();
+    private final EntryIndex index = new EntryIndex(entries); // (source, login) -> position in entries
+    private final TrigramIndex trigrams = new TrigramIndex(entries); // substring search over source and login
+    private final FuzzyIndex fuzzy = new FuzzyIndex(entries); // typo-tolerant search over source and login
+    private final PrefixIndex sourcePrefixes = new PrefixIndex(entries, PasswordEntry::sourceView); // completion
+    private final PrefixIndex loginPrefixes = new PrefixIndex(entries, PasswordEntry::loginView);
+    private final EntryArena arena; // null when entries are kept on the heap
+    private final KdfParameters newVaultKdf; // null to calibrate the parameters of a new vault
+    private final List<StorageListener> listeners = new CopyOnWriteArrayList<>();
     private boolean initialized = false;
     private byte[] salt; // Salt for PBKDF2
+    private KdfParameters kdf; // read from the header, or calibrated for a new vault
+    private boolean compressedCatalog; // read from the header flags
+    private long generation = VaultJournal.NO_GENERATION; // of the snapshot on disk
+
+    // Journal compaction thresholds
+    private static final double JOURNAL_COMPACTION_RATIO = 0.5;
+    private static final long MIN_JOURNAL_COMPACTION_SIZE = 64 * 1024;
+
+    // Versioned file header
+    private static final int MAGIC = 0x534A5656; // "SJVV"
+    private static final byte FORMAT_VERSION = 5;
+    private static final byte FORMAT_VERSION_WITHOUT_GENERATION = 4; // chunked, but no snapshot generation
+    private static final byte FORMAT_VERSION_SINGLE_CATALOG = 3; // the catalog is one ciphertext
+    private static final byte FORMAT_VERSION_WITHOUT_KDF = 2; // header ends with the salt
+    private static final byte LEGACY_FORMAT = 0; // no header at all
+    private static final byte FLAG_COMPRESSED = 1; // chunks are deflated before they are encrypted
+    private static final int MAX_HEADER_LENGTH = 256;
+
+    // Key derivation time a new vault is calibrated to
+    static final long TARGET_UNLOCK_MILLIS = 500;
+
+    // Entries checked between interruption checks of a paged search; a power of two
+    private static final int SEARCH_CHECK_INTERVAL = 4096;
+
+    // Entries per independently sealed chunk of the catalog
+    private static final int CHUNK_ENTRIES = 4096;
+    // Chunks being opened at a time while loading, per pool thread, so that no thread waits for work
+    private static final int CHUNKS_IN_FLIGHT_PER_THREAD = 2;
+
+    // Catalog markers of the legacy format: plaintext passwords or individually sealed passwords
+    private static final String PLAIN_CHECK = "CHECK";
+    private static final String SEALED_CHECK = "CHECK-SEALED";
+
+    private final VaultCodec.Writer catalogWriter = new VaultCodec.Writer(); // reused by serialize()
+    // Each pool thread sealing chunks keeps its own catalog buffer between snapshots
+    private final ThreadLocal<VaultCodec.Writer> chunkWriter = ThreadLocal.withInitial(VaultCodec.Writer::new);
+    private final ThreadLocal<VaultCodec.Writer> compressedWriter = ThreadLocal.withInitial(VaultCodec.Writer::new);
+    private final CatalogCompressor compressor = new CatalogCompressor();
 
     /**
      * Constructs a FilePasswordStorage with the specified filename.
@@ -28,82 +131,722 @@ public class FilePasswordStorage implements PasswordStorage {
      * @param filename The name of the file where password entries are stored.
      */
     public FilePasswordStorage(String filename) {
+        this(filename, false);
+    }
+
+    /**
+     * Constructs a FilePasswordStorage with the specified filename, optionally in journaled mode.
+     * In journaled mode {@link #save()} appends the mutations made since the previous save to a
+     * journal file next to the vault, and only rewrites the vault once the journal grows past
+     * {@link #JOURNAL_COMPACTION_RATIO} of the vault size (and at least {@link #MIN_JOURNAL_COMPACTION_SIZE}).
+     *
+     * @param filename  The name of the file where password entries are stored.
+     * @param journaled {@code true} to record mutations in the journal {@code filename + ".journal"}.
+     */
+    public FilePasswordStorage(String filename, boolean journaled) {
+        this(filename, journaled, false);
+    }
+
+    /**
+     * Constructs a FilePasswordStorage that optionally keeps its entries off the Java heap, in an
+     * {@link EntryArena}. Entries removed or replaced are then zeroed at once, and {@link #close()}
+     * zeroes the rest; entries obtained earlier cannot be read after that.
+     *
+     * @param filename  The name of the file where password entries are stored.
+     * @param journaled {@code true} to record mutations in the journal {@code filename + ".journal"}.
+     * @param offHeap   {@code true} to keep sources, logins and sealed passwords in direct memory.
+     */
+    public FilePasswordStorage(String filename, boolean journaled, boolean offHeap) {
+        this(filename, journaled, offHeap, null);
+    }
+
+    /**
+     * Constructs a FilePasswordStorage that creates a new vault with the given key derivation
+     * parameters instead of calibrating them, so tests do not wait for the calibration.
+     *
+     * @param newVaultKdf The parameters of a new vault, or {@code null} to calibrate them.
+     */
+    FilePasswordStorage(String filename, boolean journaled, boolean offHeap, KdfParameters newVaultKdf) {
         this.filename = filename;
+        this.journal = new VaultJournal(new File(filename + ".journal"));
+        this.journaled = journaled;
+        this.arena = offHeap ? new EntryArena() : null;
+        this.newVaultKdf = newVaultKdf;
     }
 
     /**
      * Loads existing password entries from the file or initializes a new storage if the file does not exist.
-     * Derives the encryption key using the provided master password and salt.
+     * Derives the encryption key using the provided master password and salt, then replays the
+     * journal on top of the loaded entries if there is one, whether or not this storage is journaled.
      *
      * @param masterPassword The master password used for encryption and decryption.
      * @return {@code true} if loading or initialization is successful; {@code false} otherwise.
      */
     @Override
     public boolean loadOrInit(char[] masterPassword) {
+        return loadOrInit(masterPassword, null);
+    }
+
+    /**
+     * Loads or initializes the storage like {@link #loadOrInit(char[])}, reporting the progress of the
+     * key derivation, which takes most of the time. A new vault calibrates its iteration count so that
+     * the derivation takes about {@link #TARGET_UNLOCK_MILLIS} on this machine, and records it in the header.
+     *
+     * @param masterPassword The master password used for encryption and decryption.
+     * @param progress       Receives the completed fraction of the key derivation, or {@code null}.
+     * @return {@code true} if loading or initialization is successful; {@code false} otherwise.
+     * @throws java.util.concurrent.CancellationException If the thread is interrupted during the key derivation.
+     */
+    @Override
+    public boolean loadOrInit(char[] masterPassword, DoubleConsumer progress) {
         File file = new File(filename);
         if (!file.exists() || file.length() == 0) {
             // First run - generate salt
-            salt = new byte[16];
-            new SecureRandom().nextBytes(salt);
-            encryptionStrategy = new PBKDF2AesGcmEncryptionStrategy(masterPassword, salt);
-            // Create empty storage + CHECK
-            entries = new ArrayList<>();
-            save();
+            byte[] newSalt = new byte[16];
+            new SecureRandom().nextBytes(newSalt);
+            KdfParameters newKdf = newVaultKdf != null ? newVaultKdf : KdfParameters.calibrate(TARGET_UNLOCK_MILLIS);
+            return init(new PBKDF2AesGcmEncryptionStrategy(masterPassword, newSalt, newKdf, progress), newSalt, newKdf);
+        }
+        // The header names the salt and parameters of the derivation
+        return load(file, () -> new PBKDF2AesGcmEncryptionStrategy(masterPassword, salt, kdf, progress));
+    }
+
+    /**
+     * Loads or initializes the storage like {@link #loadOrInit(char[])}, with a key derived elsewhere,
+     * as the shards of a {@link ShardedPasswordStorage} expand theirs from one master key. The salt and
+     * parameters of that derivation are only recorded in the header of a new file.
+     *
+     * @param key  The strategy encrypting with the key of this file.
+     * @param salt The salt the key was derived with.
+     * @param kdf  The parameters the key was derived with.
+     * @return {@code true} if loading or initialization is successful; {@code false} otherwise.
+     */
+    boolean loadOrInit(EncryptionStrategy key, byte[] salt, KdfParameters kdf) {
+        File file = new File(filename);
+        if (!file.exists() || file.length() == 0) return init(key, salt, kdf);
+        return load(file, () -> key);
+    }
+
+    private boolean init(EncryptionStrategy key, byte[] newSalt, KdfParameters newKdf) {
+        salt = newSalt;
+        kdf = newKdf;
+        encryptionStrategy = key;
+        // Create and write the empty storage, so the file records the salt and parameters at once
+        clearEntries(0);
+        rebuildIndexes();
+        initialized = true;
+        snapshotRequired = true;
+        save();
+        return true;
+    }
+
+    /**
+     * Loads the vault file and replays its journal.
+     *
+     * @param file The vault file.
+     * @param key  Supplies the strategy once the header is read.
+     */
+    private boolean load(File file, Supplier<EncryptionStrategy> key) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            // Read header and salt
+            byte version = readHeader(channel);
+            encryptionStrategy = key.get();
+
+            boolean loaded;
+            if (version >= FORMAT_VERSION_WITHOUT_GENERATION) {
+                loaded = readChunks(channel, version == FORMAT_VERSION);
+            } else {
+                // The ciphertext is streamed from the channel and entries are parsed in place from the plaintext
+                ByteBuffer data = encryptionStrategy.decrypt(channel, channel.size() - channel.position());
+                if (data == null) return false;
+                loaded = version == LEGACY_FORMAT ? deserializeLegacy(data) : deserialize(data, null);
+                wipe(data);
+            }
+            if (!loaded) return false;
+            // Journals of vaults without a generation hold passwords that are not bound to their entry yet
+            PasswordUnsealer journalUnsealer = generation == VaultJournal.NO_GENERATION ? unboundUnsealer : unsealer;
+            journal.replay(encryptionStrategy, generation, journalUnsealer, new VaultJournal.Replayer() {
+                @Override
+                public void add(PasswordEntry entry) {
+                    upsert(seal(entry));
+                }
+
+                @Override
+                public void delete(char[] source, char[] login) {
+                    remove(source, login);
+                }
+            });
             initialized = true;
             return true;
+        } catch (IOException | BufferUnderflowException | NegativeArraySizeException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Reads the file header, the salt and the key derivation parameters, and leaves the channel
+     * positioned at the ciphertext. Files that predate the parameters use {@link KdfParameters#LEGACY}.
+     *
+     * @param channel The channel of the vault file, positioned at its start.
+     * @return The format version, or {@link #LEGACY_FORMAT} if the file has no header.
+     * @throws IOException If the header cannot be read or names an unsupported version.
+     */
+    private byte readHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate((int) Math.min(channel.size(), MAX_HEADER_LENGTH));
+        readFully(channel, header);
+        header.flip();
+        int first = header.getInt();
+        boolean legacy = first != MAGIC;
+        byte version = LEGACY_FORMAT;
+        if (legacy) {
+            // The legacy format starts with the salt length
+            salt = new byte[first];
         } else {
-            // Loading existing storage
-            try (FileInputStream fis = new FileInputStream(file)) {
-                // Read salt
-                DataInputStream dis = new DataInputStream(fis);
-                salt = readByteArray(dis);
-                encryptionStrategy = new PBKDF2AesGcmEncryptionStrategy(masterPassword, salt);
-                
-                byte[] encryptedData = dis.readAllBytes();
-                byte[] data = encryptionStrategy.decrypt(encryptedData);
-                if (data == null) return false;
-                if (!deserialize(data)) return false;
-                initialized = true;
-                return true;
-            } catch (IOException e) {
-                e.printStackTrace();
-                return false;
+            version = header.get();
+            byte flags = header.get();
+            int knownFlags = version >= FORMAT_VERSION_WITHOUT_GENERATION ? FLAG_COMPRESSED : 0;
+            if ((version < FORMAT_VERSION_WITHOUT_KDF || version > FORMAT_VERSION) || (flags & ~knownFlags) != 0) {
+                throw new IOException("Unsupported vault format version " + version + " with flags " + flags);
+            }
+            compressedCatalog = (flags & FLAG_COMPRESSED) != 0;
+            salt = new byte[header.get() & 0xFF];
+        }
+        header.get(salt);
+        kdf = version >= FORMAT_VERSION_SINGLE_CATALOG ? readKdfParameters(header) : KdfParameters.LEGACY;
+        generation = version == FORMAT_VERSION ? header.getLong() : VaultJournal.NO_GENERATION;
+        channel.position(header.position());
+        // Without a generation, a journal cannot be appended safely until a new snapshot has one
+        snapshotRequired |= version != FORMAT_VERSION;
+        return version;
+    }
+
+    /**
+     * Reads the chunked catalog and stores its entries one chunk after the other. Chunks are read,
+     * decrypted and parsed on the common fork-join pool, but only a few per pool thread at a time,
+     * and each is stored and released before more are read, so loading holds a bounded number of
+     * chunks on the heap whatever the size of the vault. Each chunk copies the sealed passwords of
+     * its entries out of the password region, which is not decrypted and never read as a whole; off
+     * the heap, they go straight into the arena.
+     *
+     * @param channel        The channel positioned after the header.
+     * @param passwordRegion {@code true} if the passwords follow the chunks, {@code false} if the chunks hold them.
+     * @return {@code true} if every chunk was authenticated and parsed; {@code false} otherwise.
+     * @throws IOException If the chunks cannot be read.
+     */
+    private boolean readChunks(FileChannel channel, boolean passwordRegion) throws IOException {
+        long size = channel.size();
+        long[] starts; // of each chunk's ciphertext; the last one is where another chunk would start
+        PasswordRegion region = null;
+        try (VaultMetrics.Timing timing = VaultMetrics.time(Operation.FILE_READ)) {
+            // Only the lengths are read here, to locate the chunks and the password region
+            ByteBuffer length = ByteBuffer.allocate(4);
+            long position = channel.position();
+            int count = readInt(channel, position, length);
+            position += 4;
+            if (count < 1 || count > (size - position) / 4) throw new IOException("Corrupt vault: " + count + " chunks");
+            starts = new long[count + 1];
+            for (int i = 0; i < count; i++) {
+                int chunkLength = readInt(channel, position, length);
+                position += 4;
+                if (chunkLength < 0 || chunkLength > size - position) {
+                    throw new IOException("Corrupt vault: chunk of " + chunkLength + " bytes");
+                }
+                starts[i] = position;
+                position += chunkLength;
+            }
+            starts[count] = position + 4;
+            if (passwordRegion) {
+                int regionLength = readInt(channel, position, length);
+                position += 4;
+                if (regionLength < 0 || regionLength > size - position) {
+                    throw new IOException("Corrupt vault: " + regionLength + " password bytes");
+                }
+                region = PasswordRegion.of(channel, position, regionLength);
+            }
+            timing.bytes(4L * (count + 2));
+        }
+        int count = starts.length - 1;
+        int window = CHUNKS_IN_FLIGHT_PER_THREAD * ForkJoinPool.getCommonPoolParallelism();
+        PasswordRegion passwords = region;
+        ArrayDeque<CompletableFuture<List<PasswordEntry>>> pending = new ArrayDeque<>();
+        // Sized for full chunks; only the last one may hold fewer entries
+        clearEntries((int) Math.min(Integer.MAX_VALUE, (long) count * CHUNK_ENTRIES));
+        boolean loaded = false;
+        try {
+            int next = 0;
+            for (int i = 0; i < count; i++) {
+                for (; next < count && next <= i + window; next++) {
+                    int index = next;
+                    pending.add(CompletableFuture.supplyAsync(() -> openChunk(channel, starts[index],
+                            starts[index + 1] - 4, index, count, generation, passwords), ForkJoinPool.commonPool()));
+                }
+                List<PasswordEntry> chunk = pending.remove().join();
+                if (chunk == null) return false;
+                // The arena and the indexes are not thread-safe, so the parsed entries are stored here
+                for (PasswordEntry e : chunk) {
+                    put(adopt(e));
+                }
+            }
+            rebuildIndexes();
+            loaded = true;
+            return true;
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException u) throw u.getCause();
+            throw e;
+        } finally {
+            if (!loaded) {
+                // Chunks still being opened read the channel, which the caller closes
+                for (CompletableFuture<List<PasswordEntry>> chunk : pending) {
+                    chunk.exceptionally(t -> null).join();
+                }
+                clearEntries(0);
             }
         }
     }
 
+    /**
+     * Reads, decrypts, inflates and parses one chunk of the catalog. Runs on a pool thread, so it only
+     * touches the chunk; the channel is only read at given positions, which several threads may do at once.
+     *
+     * @param start     The position of the chunk's ciphertext.
+     * @param end       The position after the chunk's ciphertext.
+     * @param passwords The password region, or {@code null} if the chunk holds the sealed passwords.
+     * @return The chunk's entries, or {@code null} if it fails authentication or cannot be parsed.
+     * @throws UncheckedIOException If the chunk or its passwords cannot be read.
+     */
+    private List<PasswordEntry> openChunk(FileChannel channel, long start, long end, int index, int count,
+                                          long generation, PasswordRegion passwords) {
+        ByteBuffer sealed = ByteBuffer.allocate((int) (end - start));
+        try (VaultMetrics.Timing timing = VaultMetrics.time(Operation.FILE_READ)) {
+            timing.bytes(sealed.capacity());
+            readFully(channel, sealed, start);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        int length = encryptionStrategy.decryptedLength(sealed.capacity());
+        if (length < 0) return null;
+        ByteBuffer decrypted = ByteBuffer.allocate(length);
+        ByteBuffer data = decrypted;
+        try {
+            if (encryptionStrategy.decrypt(sealed.flip(), decrypted, chunkAssociatedData(index, count, generation)) < 0) {
+                return null;
+            }
+            decrypted.flip();
+            if (compressedCatalog) {
+                data = compressor.decompress(decrypted);
+            }
+            return readCatalog(data, passwords);
+        } catch (BufferUnderflowException | IllegalArgumentException | IllegalStateException | DataFormatException e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            wipe(decrypted);
+            if (data != decrypted) wipe(data);
+        }
+    }
+
+    /**
+     * The sealed passwords of a snapshot, back to back in catalog order. A catalog copies the
+     * passwords of its entries out of it in one piece.
+     */
+    private interface PasswordRegion {
+        int length();
+
+        /**
+         * Copies part of the region.
+         *
+         * @param offset The offset of the first byte to copy.
+         * @param dst    The array to fill.
+         * @throws UncheckedIOException If the region cannot be read.
+         */
+        void read(int offset, byte[] dst);
+
+        static PasswordRegion of(byte[] passwords) {
+            return new PasswordRegion() {
+                @Override
+                public int length() {
+                    return passwords.length;
+                }
+
+                @Override
+                public void read(int offset, byte[] dst) {
+                    System.arraycopy(passwords, offset, dst, 0, dst.length);
+                }
+            };
+        }
+
+        /**
+         * Returns the region of a vault file, read on demand at its position in the file.
+         */
+        static PasswordRegion of(FileChannel channel, long position, int length) {
+            return new PasswordRegion() {
+                @Override
+                public int length() {
+                    return length;
+                }
+
+                @Override
+                public void read(int offset, byte[] dst) {
+                    try (VaultMetrics.Timing timing = VaultMetrics.time(Operation.FILE_READ)) {
+                        timing.bytes(dst.length);
+                        readFully(channel, ByteBuffer.wrap(dst), position + offset);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            };
+        }
+    }
+
+    /**
+     * Encodes, deflates and encrypts one chunk of the catalog. Runs on a pool thread while the entries
+     * are not being modified.
+     *
+     * @param passwordOffset The offset of the chunk's first password in the password region.
+     * @return The sealed chunk.
+     */
+    private byte[] sealChunk(int index, int count, long generation, int passwordOffset) {
+        VaultCodec.Writer w = chunkWriter.get();
+        VaultCodec.Writer z = compressedWriter.get();
+        int from = index * CHUNK_ENTRIES;
+        int to = Math.min(entries.size(), from + CHUNK_ENTRIES);
+        try {
+            writeCatalog(w, entries.subList(from, to), passwordOffset);
+            compressor.compress(w.array(), w.size(), z);
+            byte[] sealed = new byte[encryptionStrategy.encryptedLength(z.size())];
+            encryptionStrategy.encrypt(ByteBuffer.wrap(z.array(), 0, z.size()), ByteBuffer.wrap(sealed),
+                    chunkAssociatedData(index, count, generation));
+            return sealed;
+        } finally {
+            w.reset();
+            z.reset();
+        }
+    }
+
+    private static byte[] chunkAssociatedData(int index, int count, long generation) {
+        // Version 4 chunks, written without a generation, only authenticate their position
+        if (generation == VaultJournal.NO_GENERATION) {
+            return ByteBuffer.allocate(8).putInt(index).putInt(count).array();
+        }
+        return ByteBuffer.allocate(16).putInt(index).putInt(count).putLong(generation).array();
+    }
+
+    /**
+     * Writes key derivation parameters as the header records them, which the shard manifest does too.
+     */
+    static void writeKdfParameters(DataOutput out, KdfParameters kdf) throws IOException {
+        byte[] algorithm = kdf.getAlgorithm().getBytes(StandardCharsets.US_ASCII);
+        out.writeByte(algorithm.length);
+        out.write(algorithm);
+        out.writeInt(kdf.getIterations());
+        out.writeShort(kdf.getKeyLength());
+    }
+
+    static KdfParameters readKdfParameters(ByteBuffer header) throws IOException {
+        byte[] algorithm = new byte[header.get() & 0xFF];
+        header.get(algorithm);
+        int iterations = header.getInt();
+        int keyLength = header.getShort() & 0xFFFF;
+        try {
+            return new KdfParameters(new String(algorithm, StandardCharsets.US_ASCII), iterations, keyLength);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Unsupported key derivation: " + e.getMessage(), e);
+        }
+    }
+
     /**
      * Saves the current list of password entries to the file with encryption.
+     * In journaled mode only the pending mutations are appended to the journal, unless the vault
+     * file does not exist yet or the journal has grown large enough to be compacted into a new snapshot.
      * If the storage is not initialized, the method returns without performing any action.
+     * After a failure the pending mutations are kept, and the next save writes a new snapshot.
      */
     @Override
-    public void save() {
-        if (!initialized) return;
-        try (FileOutputStream fos = new FileOutputStream(filename);
-             DataOutputStream dos = new DataOutputStream(fos)) {
-            // Write salt
-            writeByteArray(dos, salt);
-            byte[] data = serialize();
-            byte[] encrypted = encryptionStrategy.encrypt(data);
-            dos.write(encrypted);
+    public boolean save() {
+        if (!initialized) return true;
+        if (journaled && pendingRecords.isEmpty() && !snapshotRequired) return true;
+        File file = new File(filename);
+        long threshold = Math.max(MIN_JOURNAL_COMPACTION_SIZE, (long) (file.length() * JOURNAL_COMPACTION_RATIO));
+        try {
+            if (journaled && !snapshotRequired && file.exists() && journal.length() < threshold) {
+                // A failed append may leave a torn record, after which nothing more can be appended
+                snapshotRequired = true;
+                journal.append(encryptionStrategy, generation, pendingRecords);
+                pendingRecords.clear();
+                snapshotRequired = false;
+            } else if (writeSnapshot()) {
+                // The snapshot already holds every journaled mutation. Until the old journal is gone,
+                // appends would extend it, and replay would discard them with it.
+                pendingRecords.clear();
+                snapshotRequired = true;
+                journal.reset();
+                snapshotRequired = false;
+            } else {
+                return false;
+            }
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Rewrites the vault file with all current entries. The chunks are encoded and encrypted in
+     * parallel on the common fork-join pool. The snapshot is written and synced to a
+     * temporary file that then replaces the vault file, so a crash never leaves a partial vault.
+     * Every snapshot gets a new generation, which the journal must match from then on.
+     *
+     * @return {@code true} if the file was written successfully.
+     */
+    private boolean writeSnapshot() {
+        File target = new File(filename);
+        File temp = new File(filename + ".tmp");
+        long next = newGeneration();
+        try (FileOutputStream fos = new FileOutputStream(temp);
+             DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(fos))) {
+            // Write header, salt and key derivation parameters
+            dos.writeInt(MAGIC);
+            dos.writeByte(FORMAT_VERSION);
+            dos.writeByte(FLAG_COMPRESSED);
+            dos.writeByte(salt.length);
+            dos.write(salt);
+            writeKdfParameters(dos, kdf);
+            dos.writeLong(next);
+            // An empty vault still gets one chunk, whose tag is what verifies the master password
+            int count = Math.max(1, (entries.size() + CHUNK_ENTRIES - 1) / CHUNK_ENTRIES);
+            int[] passwordOffsets = new int[count + 1];
+            for (int i = 0; i < entries.size(); i++) {
+                passwordOffsets[i / CHUNK_ENTRIES + 1] = Math.addExact(passwordOffsets[i / CHUNK_ENTRIES + 1],
+                        entries.get(i).sealedPasswordView().remaining());
+            }
+            for (int i = 1; i <= count; i++) {
+                passwordOffsets[i] = Math.addExact(passwordOffsets[i], passwordOffsets[i - 1]);
+            }
+            byte[][] chunks = IntStream.range(0, count).parallel()
+                    .mapToObj(i -> sealChunk(i, count, next, passwordOffsets[i]))
+                    .toArray(byte[][]::new);
+            try (VaultMetrics.Timing timing = VaultMetrics.time(Operation.FILE_WRITE)) {
+                dos.writeInt(count);
+                for (byte[] chunk : chunks) {
+                    dos.writeInt(chunk.length);
+                    dos.write(chunk);
+                }
+                dos.writeInt(passwordOffsets[count]);
+                byte[] scratch = new byte[256];
+                for (PasswordEntry e : entries) {
+                    ByteBuffer password = e.sealedPasswordView();
+                    while (password.hasRemaining()) {
+                        int n = Math.min(scratch.length, password.remaining());
+                        password.get(scratch, 0, n);
+                        dos.write(scratch, 0, n);
+                    }
+                }
+                dos.flush();
+                timing.bytes(dos.size());
+            }
+            try (VaultMetrics.Timing timing = VaultMetrics.time(Operation.FILE_SYNC)) {
+                timing.bytes(dos.size());
+                fos.getFD().sync();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            temp.delete();
+            return false;
+        }
+        try {
+            try {
+                Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            generation = next;
+            return true;
         } catch (IOException e) {
             e.printStackTrace();
+            return false;
         }
     }
 
+    private static long newGeneration() {
+        long next;
+        do {
+            next = new SecureRandom().nextLong();
+        } while (next == VaultJournal.NO_GENERATION);
+        return next;
+    }
+
     /**
      * Adds a new password entry to the storage.
-     * If an entry with the same source and login already exists, it is replaced.
+     * If an entry with the same source and login already exists, it is replaced in place.
+     * The stored entry is a copy of the given one with its password sealed.
      *
      * @param entry The PasswordEntry to add.
      */
     @Override
     public void add(PasswordEntry entry) {
-        PasswordEntry existing = findBySourceAndLogin(entry.getSource(), entry.getLogin());
-        if (existing != null) {
-            entries.remove(existing);
+        PasswordEntry stored = upsert(seal(entry));
+        if (journaled) {
+            pendingRecords.add(VaultJournal.Record.add(stored));
+        }
+    }
+
+    /**
+     * Adds every entry produced by the iterator, replacing entries with the same source and login.
+     * A batch is not journaled record by record: the next save writes a single new snapshot instead.
+     *
+     * @param entries The entries to add.
+     * @return The number of entries added.
+     */
+    @Override
+    public int addAll(Iterator<? extends PasswordEntry> entries) {
+        int count = 0;
+        while (entries.hasNext()) {
+            upsert(seal(entries.next()));
+            count++;
+        }
+        if (count > 0) {
+            snapshotRequired = true;
+        }
+        return count;
+    }
+
+    /**
+     * Returns an entry with the same source and login whose password is sealed by this storage.
+     *
+     * @param entry The entry to seal.
+     * @return The entry itself if it is already sealed for this storage, otherwise a sealed copy.
+     */
+    private PasswordEntry seal(PasswordEntry entry) {
+        if (entry.isSealedFor(unsealer)) return entry;
+        char[] password = entry.getPassword();
+        // Sealed passwords hold big-endian UTF-16, the encoding of the legacy catalog
+        ByteBuffer data = ByteBuffer.allocate(password.length * 2);
+        data.asCharBuffer().put(password);
+        Arrays.fill(password, '\0');
+        byte[] sealedPassword = new byte[encryptionStrategy.encryptedLength(data.remaining())];
+        encryptionStrategy.encrypt(data, ByteBuffer.wrap(sealedPassword),
+                passwordAssociatedData(entry.sourceView(), entry.loginView()));
+        wipe(data);
+        return new PasswordEntryBuilder()
+                .setSource(entry.getSource())
+                .setLogin(entry.getLogin())
+                .setSealedPassword(sealedPassword, unsealer)
+                .build();
+    }
+
+    /**
+     * Decrypts a password sealed by {@link #seal(PasswordEntry)} for the given entry.
+     *
+     * @return The plaintext password.
+     * @throws IllegalStateException If the sealed password fails authentication, for example because
+     *                               it was sealed for another entry.
+     */
+    private char[] unseal(CharSequence source, CharSequence login, byte[] sealedPassword) {
+        return unseal(sealedPassword, passwordAssociatedData(source, login));
+    }
+
+    private char[] unseal(byte[] sealedPassword, byte[] associatedData) {
+        ByteBuffer data = ByteBuffer.allocate(Math.max(0, encryptionStrategy.decryptedLength(sealedPassword.length)));
+        int length = associatedData != null
+                ? encryptionStrategy.decrypt(ByteBuffer.wrap(sealedPassword), data, associatedData)
+                : encryptionStrategy.decrypt(ByteBuffer.wrap(sealedPassword), data);
+        if (length < 0) {
+            throw new IllegalStateException("Sealed password failed authentication");
+        }
+        char[] password = new char[data.position() / 2];
+        data.flip().asCharBuffer().get(password);
+        wipe(data);
+        return password;
+    }
+
+    /**
+     * Encodes the key a password is sealed for: the source length as an int, then the source and the
+     * login in big-endian UTF-16.
+     */
+    private static byte[] passwordAssociatedData(CharSequence source, CharSequence login) {
+        ByteBuffer data = ByteBuffer.allocate(4 + (source.length() + login.length()) * 2);
+        data.putInt(source.length());
+        data.asCharBuffer().append(source).append(login);
+        return data.array();
+    }
+
+    private PasswordEntry upsert(PasswordEntry entry) {
+        entry = adopt(entry);
+        PasswordEntry replaced = put(entry);
+        if (replaced != entry) {
+            trigrams.add(entry);
+            fuzzy.add(entry);
+            sourcePrefixes.add(entry);
+            loginPrefixes.add(entry);
+            if (replaced != null) {
+                trigrams.remove(replaced);
+                fuzzy.remove(replaced);
+                sourcePrefixes.remove(replaced);
+                loginPrefixes.remove(replaced);
+                for (StorageListener l : listeners) {
+                    l.entryReplaced(replaced, entry);
+                }
+                release(replaced);
+            } else {
+                for (StorageListener l : listeners) {
+                    l.entryAdded(entry);
+                }
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Returns the entry as this storage keeps it: moved into the arena when entries are off-heap.
+     * The sealed heap entry it was copied from is cleared, as no one else holds it.
+     *
+     * @param entry A sealed entry created by this storage.
+     * @return The entry to store.
+     */
+    private PasswordEntry adopt(PasswordEntry entry) {
+        if (arena == null || arena.owns(entry)) return entry;
+        PasswordEntry copy = arena.copyOf(entry);
+        entry.clear();
+        return copy;
+    }
+
+    private void release(PasswordEntry entry) {
+        if (arena != null) {
+            arena.free(entry);
+        }
+    }
+
+    private void rebuildIndexes() {
+        trigrams.rebuild();
+        fuzzy.rebuild();
+        sourcePrefixes.rebuild();
+        loginPrefixes.rebuild();
+    }
+
+    private void clearEntries(int expected) {
+        entries.clear();
+        if (arena != null) {
+            arena.clear();
+        }
+        index.clear(expected);
+    }
+
+    /**
+     * Stores the entry in the list and the key index, without touching the trigram index.
+     *
+     * @param entry The entry to store.
+     * @return The entry that had the same key and was replaced, or {@code null} if the key was new.
+     */
+    private PasswordEntry put(PasswordEntry entry) {
+        int position = index.indexOf(entry);
+        if (position >= 0) {
+            return entries.set(position, entry);
         }
         entries.add(entry);
+        index.insert(entries.size() - 1);
+        return null;
     }
 
     /**
@@ -115,32 +858,114 @@ public class FilePasswordStorage implements PasswordStorage {
      */
     @Override
     public PasswordEntry findBySourceAndLogin(char[] source, char[] login) {
-        for (PasswordEntry e : entries) {
-            if (Arrays.equals(e.getSource(), source) && Arrays.equals(e.getLogin(), login)) {
-                return e;
-            }
+        try (VaultMetrics.Timing timing = VaultMetrics.sample(Operation.LOOKUP)) {
+            int position = index.indexOf(source, login);
+            if (position < 0) return null;
+            timing.items(1);
+            return entries.get(position);
         }
-        return null;
     }
 
     /**
      * Searches for password entries that contain the specified keyword in their source or login.
+     * Keywords of at least three characters are answered from the trigram index and only check the
+     * entries that contain all of the keyword's trigrams; shorter keywords check every entry.
      *
      * @param keyword The keyword to search for.
      * @return A list of PasswordEntry objects that match the search criteria.
      */
     @Override
     public List<PasswordEntry> search(String keyword) {
-        keyword = keyword.toLowerCase();
-        List<PasswordEntry> result = new ArrayList<>();
-        for (PasswordEntry e : entries) {
-            String s = new String(e.getSource()).toLowerCase();
-            String l = new String(e.getLogin()).toLowerCase();
-            if (s.contains(keyword) || l.contains(keyword)) {
-                result.add(e);
+        try (VaultMetrics.Timing timing = VaultMetrics.time(Operation.SEARCH)) {
+            String lowerKeyword = TrigramIndex.lower(keyword);
+            List<PasswordEntry> checked = lowerKeyword.length() < TrigramIndex.GRAM_LENGTH
+                    ? entries : trigrams.candidates(lowerKeyword);
+            List<PasswordEntry> result = new ArrayList<>();
+            for (PasswordEntry e : checked) {
+                if (matches(e, lowerKeyword)) {
+                    result.add(e);
+                }
+            }
+            timing.items(result.size());
+            return result;
+        }
+    }
+
+    /**
+     * Searches like {@link #search(String)}, handing each full page over as soon as it is found.
+     * The search also stops when the calling thread is interrupted, so a long scan that finds
+     * few matches can still be abandoned.
+     */
+    @Override
+    public boolean search(String keyword, int pageSize, Predicate<List<PasswordEntry>> pages) {
+        // The time includes the consumer's handling of the pages
+        try (VaultMetrics.Timing timing = VaultMetrics.time(Operation.SEARCH)) {
+            String lowerKeyword = TrigramIndex.lower(keyword);
+            List<PasswordEntry> checked = lowerKeyword.length() < TrigramIndex.GRAM_LENGTH
+                    ? entries : trigrams.candidates(lowerKeyword);
+            List<PasswordEntry> page = new ArrayList<>(pageSize);
+            for (int i = 0; i < checked.size(); i++) {
+                if ((i & (SEARCH_CHECK_INTERVAL - 1)) == 0 && Thread.currentThread().isInterrupted()) {
+                    return false;
+                }
+                PasswordEntry e = checked.get(i);
+                if (matches(e, lowerKeyword)) {
+                    page.add(e);
+                    if (page.size() == pageSize) {
+                        timing.items(pageSize);
+                        if (!pages.test(page)) return false;
+                        page = new ArrayList<>(pageSize);
+                    }
+                }
             }
+            timing.items(page.size());
+            return page.isEmpty() || pages.test(page);
+        }
+    }
+
+    /**
+     * Finds the entries whose source or login is closest to the keyword, tolerating typos. The
+     * keyword is compared with the words of each source and login and with both as a whole, and
+     * answered from a BK-tree, so only a small part of the distinct words is ever compared.
+     */
+    @Override
+    public List<PasswordEntry> fuzzySearch(String keyword, int limit) {
+        try (VaultMetrics.Timing timing = VaultMetrics.time(Operation.FUZZY_SEARCH)) {
+            String lowerKeyword = TrigramIndex.lower(keyword);
+            List<PasswordEntry> result = fuzzy.search(lowerKeyword, FuzzyIndex.maxDistance(lowerKeyword), limit);
+            timing.items(result.size());
+            return result;
+        }
+    }
+
+    /**
+     * Completes a source from a sorted index of the distinct sources, kept up to date by every
+     * mutation once the first completion has built it.
+     */
+    @Override
+    public List<String> sourcesStartingWith(String prefix, int limit) {
+        return complete(sourcePrefixes, prefix, limit);
+    }
+
+    /**
+     * Completes a login from a sorted index of the distinct logins, like {@link #sourcesStartingWith(String, int)}.
+     */
+    @Override
+    public List<String> loginsStartingWith(String prefix, int limit) {
+        return complete(loginPrefixes, prefix, limit);
+    }
+
+    private List<String> complete(PrefixIndex prefixes, String prefix, int limit) {
+        try (VaultMetrics.Timing timing = VaultMetrics.time(Operation.COMPLETE)) {
+            List<String> result = prefixes.startingWith(TrigramIndex.lower(prefix), limit);
+            timing.items(result.size());
+            return result;
         }
-        return result;
+    }
+
+    private boolean matches(PasswordEntry entry, String lowerKeyword) {
+        return TrigramIndex.containsIgnoreCase(entry.sourceView(), lowerKeyword)
+                || TrigramIndex.containsIgnoreCase(entry.loginView(), lowerKeyword);
     }
 
     /**
@@ -155,77 +980,268 @@ public class FilePasswordStorage implements PasswordStorage {
 
     /**
      * Deletes a password entry identified by its source and login.
+     * The last entry is moved into the freed position, so the order of the remaining entries may change.
      *
      * @param source The source associated with the password entry to delete.
      * @param login  The login associated with the password entry to delete.
      */
     @Override
     public void delete(char[] source, char[] login) {
-        PasswordEntry toDelete = null;
-        for (PasswordEntry e : entries) {
-            if (Arrays.equals(e.getSource(), source) && Arrays.equals(e.getLogin(), login)) {
-                toDelete = e;
-                break;
-            }
+        if (remove(source, login) && journaled) {
+            pendingRecords.add(VaultJournal.Record.delete(source, login));
         }
-        if (toDelete != null) {
-            entries.remove(toDelete);
+    }
+
+    @Override
+    public void addListener(StorageListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeListener(StorageListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Releases the entries. When they are kept off-heap their memory is zeroed, so entries obtained
+     * from this storage cannot be read afterwards. Save first; the storage cannot be used again.
+     */
+    @Override
+    public void close() {
+        initialized = false;
+        clearEntries(0);
+        rebuildIndexes();
+    }
+
+    private boolean remove(char[] source, char[] login) {
+        int position = index.indexOf(source, login);
+        if (position < 0) return false;
+        index.remove(position);
+        PasswordEntry removed = entries.get(position);
+        int last = entries.size() - 1;
+        if (position != last) {
+            index.move(last, position);
+            entries.set(position, entries.get(last));
+        }
+        entries.remove(last);
+        trigrams.remove(removed);
+        fuzzy.remove(removed);
+        sourcePrefixes.remove(removed);
+        loginPrefixes.remove(removed);
+        for (StorageListener l : listeners) {
+            l.entryRemoved(removed);
         }
+        release(removed);
+        return true;
     }
 
     /**
-     * Serializes the list of password entries into a byte array for encryption and storage.
+     * Serializes the list of password entries into the reused catalog buffer as one single chunk,
+     * whose passwords start at the beginning of the password region.
+     * The caller must wipe the buffer with {@link VaultCodec.Writer#reset()} once it has been encrypted.
      *
-     * @return The serialized byte array representing the password entries.
+     * @return A view of the catalog buffer holding the serialized password entries.
      */
-    private byte[] serialize() {
-        try (ByteArrayOutputStream bos = new ByteArrayOutputStream();
-             DataOutputStream dos = new DataOutputStream(bos)) {
-            writeCharArray(dos, "CHECK".toCharArray());
-            dos.writeInt(entries.size());
+    ByteBuffer serialize() { // package-private for the benchmarks
+        VaultCodec.Writer w = catalogWriter;
+        w.reset();
+        writeCatalog(w, entries, 0);
+        return ByteBuffer.wrap(w.array(), 0, w.size());
+    }
+
+    private static void writeCatalog(VaultCodec.Writer w, List<PasswordEntry> entries, int passwordOffset) {
+        try (VaultMetrics.Timing timing = VaultMetrics.time(Operation.SERIALIZE)) {
+            w.putVarint(passwordOffset);
+            w.putVarint(entries.size());
             for (PasswordEntry e : entries) {
-                writeCharArray(dos, e.getSource());
-                writeCharArray(dos, e.getLogin());
-                writeCharArray(dos, e.getPassword());
+                w.putUtf8(e.sourceView());
+                w.putUtf8(e.loginView());
+                w.putVarint(e.sealedPasswordView().remaining());
             }
-            dos.flush();
-            return bos.toByteArray();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+            timing.bytes(w.size()).items(entries.size());
+        }
+    }
+
+    /**
+     * Parses the entries of a chunk, or of a whole version 2 or 3 catalog. Runs on pool threads
+     * while loading chunks, so it only touches its arguments.
+     *
+     * @param data      The catalog between its position and limit.
+     * @param passwords The password region, or {@code null} if the catalog holds the sealed passwords
+     *                  itself. Those predate the binding of passwords to their entry and are sealed again.
+     * @return The parsed entries, not yet adopted.
+     * @throws BufferUnderflowException If the catalog is truncated.
+     * @throws IllegalArgumentException If the catalog is malformed or refers outside the password region.
+     */
+    private List<PasswordEntry> readCatalog(ByteBuffer data, PasswordRegion passwords) {
+        try (VaultMetrics.Timing timing = VaultMetrics.time(Operation.DESERIALIZE)) {
+            timing.bytes(data.remaining());
+            int offset = passwords != null ? VaultCodec.getVarint(data) : 0;
+            int size = VaultCodec.getVarint(data);
+            List<PasswordEntry> catalog = new ArrayList<>(Math.min(size, data.remaining()));
+            if (passwords == null) {
+                for (int i = 0; i < size; i++) {
+                    PasswordEntryBuilder builder = new PasswordEntryBuilder()
+                            .setSource(VaultCodec.getUtf8(data))
+                            .setLogin(VaultCodec.getUtf8(data));
+                    catalog.add(seal(builder.setSealedPassword(VaultCodec.getBytes(data), unboundUnsealer).build()));
+                }
+                timing.items(size);
+                return catalog;
+            }
+            // Keys first, so the passwords of the whole catalog are copied out of the region at once
+            List<char[]> keys = new ArrayList<>();
+            // Every entry takes at least three bytes, so a size beyond that underflows before filling it
+            int[] lengths = new int[Math.min(size, data.remaining())];
+            long total = 0;
+            for (int i = 0; i < size; i++) {
+                keys.add(VaultCodec.getUtf8(data));
+                keys.add(VaultCodec.getUtf8(data));
+                lengths[i] = VaultCodec.getVarint(data);
+                if (lengths[i] < 0) throw new IllegalArgumentException("Negative password length");
+                total += lengths[i];
+            }
+            if (offset < 0 || total > passwords.length() - (long) offset) {
+                throw new IllegalArgumentException("Password outside of the password region");
+            }
+            byte[] sealed = new byte[(int) total];
+            passwords.read(offset, sealed);
+            int at = 0;
+            for (int i = 0; i < size; i++) {
+                catalog.add(new PasswordEntryBuilder()
+                        .setSource(keys.get(2 * i))
+                        .setLogin(keys.get(2 * i + 1))
+                        .setSealedPassword(Arrays.copyOfRange(sealed, at, at + lengths[i]), unsealer)
+                        .build());
+                at += lengths[i];
+            }
+            timing.items(size);
+            return catalog;
+        }
+    }
+
+    /**
+     * Deserializes a catalog back into the list of password entries.
+     *
+     * @param data      The buffer holding the serialized password entries between its position and limit.
+     * @param passwords The password region the catalog refers to, or {@code null} for a version 2 or 3
+     *                  catalog, which holds the sealed passwords itself.
+     * @return {@code true} if deserialization is successful; {@code false} otherwise.
+     */
+    boolean deserialize(ByteBuffer data, byte[] passwords) { // package-private for the benchmarks
+        try {
+            List<PasswordEntry> catalog = readCatalog(data, passwords != null ? PasswordRegion.of(passwords) : null);
+            clearEntries(catalog.size());
+            for (PasswordEntry e : catalog) {
+                put(adopt(e));
+            }
+            rebuildIndexes();
+            return true;
+        } catch (BufferUnderflowException | IllegalArgumentException | IllegalStateException e) {
+            e.printStackTrace();
+            return false;
         }
     }
 
     /**
-     * Deserializes the byte array back into the list of password entries.
+     * Deserializes the {@code CHECK}-prefixed catalog of the legacy format, with UTF-16 characters and int lengths.
+     * Plaintext passwords, and sealed ones that are not bound to their entry yet, are sealed while loading.
      *
-     * @param data The serialized byte array representing the password entries.
+     * @param data The buffer holding the serialized password entries between its position and limit.
      * @return {@code true} if deserialization is successful; {@code false} otherwise.
      */
-    private boolean deserialize(byte[] data) {
-        try (DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data))) {
-            char[] check = readCharArray(dis);
-            if (!"CHECK".equals(new String(check))) {
+    private boolean deserializeLegacy(ByteBuffer data) {
+        try (VaultMetrics.Timing timing = VaultMetrics.time(Operation.DESERIALIZE)) {
+            timing.bytes(data.remaining());
+            String check = new String(readCharArray(data));
+            boolean sealed = SEALED_CHECK.equals(check);
+            if (!sealed && !PLAIN_CHECK.equals(check)) {
                 return false;
             }
-            int size = dis.readInt();
-            entries = new ArrayList<>(size);
+            int size = data.getInt();
+            clearEntries(size);
             for (int i = 0; i < size; i++) {
-                char[] source = readCharArray(dis);
-                char[] login = readCharArray(dis);
-                char[] password = readCharArray(dis);
-                entries.add(new PasswordEntryBuilder()
-                        .setSource(source)
-                        .setLogin(login)
-                        .setPassword(password)
-                        .build());
+                PasswordEntryBuilder builder = new PasswordEntryBuilder()
+                        .setSource(readCharArray(data))
+                        .setLogin(readCharArray(data));
+                if (sealed) {
+                    put(adopt(seal(builder.setSealedPassword(readByteArray(data), unboundUnsealer).build())));
+                } else {
+                    put(adopt(seal(builder.setPassword(readCharArray(data)).build())));
+                }
             }
+            timing.items(size);
+            rebuildIndexes();
             return true;
-        } catch (IOException e) {
+        } catch (BufferUnderflowException | NegativeArraySizeException | IllegalStateException e) {
             e.printStackTrace();
             return false;
         }
     }
-    
+
+    /**
+     * Reads a length-prefixed character array, written by {@link #writeCharArray}, from a buffer.
+     *
+     * @param buffer The buffer to read from.
+     * @return The read character array.
+     */
+    private static char[] readCharArray(ByteBuffer buffer) {
+        char[] arr = new char[buffer.getInt()];
+        buffer.asCharBuffer().get(arr);
+        buffer.position(buffer.position() + arr.length * 2);
+        return arr;
+    }
+
+    /**
+     * Reads a length-prefixed byte array, written by {@link #writeByteArray}, from a buffer.
+     *
+     * @param buffer The buffer to read from.
+     * @return The read byte array.
+     */
+    private static byte[] readByteArray(ByteBuffer buffer) {
+        byte[] arr = new byte[buffer.getInt()];
+        buffer.get(arr);
+        return arr;
+    }
+
+    private static void readFully(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) throw new EOFException("Failed to read the byte array completely");
+        }
+    }
+
+    /**
+     * Fills the buffer from the given position of the file, leaving the channel's own position alone.
+     */
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) throw new EOFException("Failed to read the byte array completely");
+            position += read;
+        }
+    }
+
+    private static int readInt(FileChannel channel, long position, ByteBuffer buffer) throws IOException {
+        readFully(channel, buffer.clear(), position);
+        return buffer.getInt(0);
+    }
+
+    /**
+     * Overwrites the whole content of a buffer with zeros.
+     *
+     * @param buffer The buffer to wipe.
+     */
+    private static void wipe(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            Arrays.fill(buffer.array(), (byte) 0);
+            return;
+        }
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+            buffer.put((byte) 0);
+        }
+    }
+
     /**
      * Writes a character array to the DataOutputStream with its length.
      *
@@ -233,7 +1249,7 @@ public class FilePasswordStorage implements PasswordStorage {
      * @param arr The character array to write.
      * @throws IOException If an I/O error occurs.
      */
-    private void writeCharArray(DataOutputStream dos, char[] arr) throws IOException {
+    static void writeCharArray(DataOutputStream dos, char[] arr) throws IOException {
         dos.writeInt(arr.length);
         for (char c : arr) {
             dos.writeChar(c);
@@ -247,7 +1263,7 @@ public class FilePasswordStorage implements PasswordStorage {
      * @return The read character array.
      * @throws IOException If an I/O error occurs.
      */
-    private char[] readCharArray(DataInputStream dis) throws IOException {
+    static char[] readCharArray(DataInputStream dis) throws IOException {
         int length = dis.readInt();
         char[] arr = new char[length];
         for (int i = 0; i < length; i++) {
@@ -263,7 +1279,7 @@ public class FilePasswordStorage implements PasswordStorage {
      * @param arr The byte array to write.
      * @throws IOException If an I/O error occurs.
      */
-    private void writeByteArray(DataOutputStream dos, byte[] arr) throws IOException {
+    static void writeByteArray(DataOutputStream dos, byte[] arr) throws IOException {
         dos.writeInt(arr.length);
         dos.write(arr);
     }
@@ -275,11 +1291,10 @@ public class FilePasswordStorage implements PasswordStorage {
      * @return The read byte array.
      * @throws IOException If an I/O error occurs or the array cannot be fully read.
      */
-    private byte[] readByteArray(DataInputStream dis) throws IOException {
+    static byte[] readByteArray(DataInputStream dis) throws IOException {
         int length = dis.readInt();
         byte[] arr = new byte[length];
-        int read = dis.read(arr);
-        if (read != length) throw new IOException("Failed to read the byte array completely");
+        dis.readFully(arr);
         return arr;
     }
-}
\ No newline at end of file
+}
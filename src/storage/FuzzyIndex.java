@@ -0,0 +1,458 @@
+package storage;
+
+import model.PasswordEntry;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * BK-tree over the lowercased terms of each entry's source and login, for searches that tolerate
+ * typos. The terms of a text are its words, split at every character that is neither a letter nor
+ * a digit; a source is also a term as a whole, so both {@code githbu} and {@code githbu.com} find
+ * {@code github.com}. Each term is a node of the tree and holds the ids of the entries using it.
+ *
+ * <p>The tree is ordered by Levenshtein distance: a query only descends into the children whose
+ * distance to their parent is within the search radius of the query's distance to the parent, so it
+ * compares the keyword with a small part of the terms. The best terms are kept in a bounded heap
+ * whose worst distance narrows the radius once it is full. Distances to terms of up to 64 characters
+ * are computed with Myers' bit-parallel algorithm, one step per character of the term.
+ *
+ * <p>The tree is only built by the first search, so unlocking a vault that is never searched this way
+ * does not pay for it. Until then, and after {@link #rebuild()}, additions and removals are ignored.
+ * Searches may run concurrently with each other, but not with mutations, like every read of the
+ * storage; the first ones synchronize on the index while one of them builds it.
+ *
+ * <p>Removals are lazy, as in {@link TrigramIndex}: a term with no live entries stays in the tree,
+ * and the index is rebuilt from the backing list once stale postings outnumber live ones.
+ */
+class FuzzyIndex {
+    static final int MIN_WORD_LENGTH = 2;
+
+    // Best terms first: by distance, then alphabetically, so equal distances rank the same every time
+    private static final Comparator<Match> BEST_FIRST =
+            Comparator.<Match>comparingInt(m -> m.distance).thenComparing(m -> m.term.text);
+
+    private final List<PasswordEntry> entries;
+    private final Map<String, Term> terms = new HashMap<>();
+    private final Map<PasswordEntry, Integer> ids = new IdentityHashMap<>();
+    private PasswordEntry[] docs = new PasswordEntry[16]; // document id -> entry, null once removed
+    private int docCount;
+    private Term root;
+    private long livePostings;
+    private long stalePostings;
+    private volatile boolean built;
+    private final Pattern insertPattern = new Pattern("");
+
+    /**
+     * Constructs an empty index over the given list, which is used for rebuilding.
+     *
+     * @param entries The list of live entries.
+     */
+    FuzzyIndex(List<PasswordEntry> entries) {
+        this.entries = entries;
+    }
+
+    /**
+     * Indexes every term of the entry's source and login. Adding an indexed entry again has no effect.
+     *
+     * @param entry The entry to index.
+     */
+    void add(PasswordEntry entry) {
+        if (built) {
+            index(entry);
+        }
+    }
+
+    private void index(PasswordEntry entry) {
+        if (ids.containsKey(entry)) return;
+        if (docCount == docs.length) {
+            docs = Arrays.copyOf(docs, docCount << 1);
+        }
+        int id = docCount++;
+        docs[id] = entry;
+        ids.put(entry, id);
+        for (String text : termsOf(entry)) {
+            Term term = terms.get(text);
+            if (term == null) {
+                term = new Term(text);
+                terms.put(text, term);
+                insert(term);
+            }
+            term.add(id);
+            livePostings++;
+        }
+    }
+
+    /**
+     * Marks the postings of the entry as stale and rebuilds the index once they outnumber the live ones.
+     *
+     * @param entry The entry that was removed from the storage.
+     */
+    void remove(PasswordEntry entry) {
+        if (!built) return;
+        Integer id = ids.remove(entry);
+        if (id == null) return;
+        docs[id] = null;
+        for (String text : termsOf(entry)) {
+            terms.get(text).live--;
+            livePostings--;
+            stalePostings++;
+        }
+        if (stalePostings > livePostings) {
+            rebuild();
+        }
+    }
+
+    /**
+     * Discards the tree; the next search indexes the backing list again.
+     */
+    void rebuild() {
+        built = false;
+        terms.clear();
+        ids.clear();
+        root = null;
+        docs = new PasswordEntry[16];
+        docCount = 0;
+        livePostings = 0;
+        stalePostings = 0;
+    }
+
+    private void build() {
+        if (built) return;
+        synchronized (this) {
+            if (built) return;
+            docs = new PasswordEntry[Math.max(16, entries.size())];
+            for (PasswordEntry e : entries) {
+                index(e);
+            }
+            built = true;
+        }
+    }
+
+    /**
+     * Finds the entries with a term closest to the keyword.
+     *
+     * @param lowerKeyword The lowercased keyword.
+     * @param maxDistance  The largest edit distance between the keyword and a matching term.
+     * @param limit        The largest number of entries returned.
+     * @return The entries ranked by the distance of their closest term, best first.
+     */
+    List<PasswordEntry> search(String lowerKeyword, int maxDistance, int limit) {
+        List<PasswordEntry> found = new ArrayList<>();
+        if (limit <= 0) return found;
+        build();
+        List<Match> best = closestTerms(lowerKeyword, maxDistance, limit);
+        boolean pruned = best.size() == limit;
+        collect(best, limit, found);
+        if (found.size() < limit && pruned) {
+            // Several of the best terms belonged to the same entries; take every term in range instead
+            found.clear();
+            collect(closestTerms(lowerKeyword, maxDistance, Integer.MAX_VALUE), limit, found);
+        }
+        return found;
+    }
+
+    /**
+     * Finds the live terms closest to the keyword. The radius grows one edit at a time, since a small
+     * radius prunes far more of the tree, and enough close terms usually stop the search early.
+     *
+     * @return Up to {@code limit} of the closest terms, best first.
+     */
+    private List<Match> closestTerms(String keyword, int maxDistance, int limit) {
+        Pattern pattern = new Pattern(keyword);
+        List<Match> best = List.of();
+        for (int radius = 0; radius <= maxDistance && best.size() < limit; radius++) {
+            best = closestTerms(pattern, radius, limit);
+        }
+        return best;
+    }
+
+    /**
+     * Walks the tree for the live terms within the radius of the keyword.
+     *
+     * @return Up to {@code limit} of the closest terms, best first.
+     */
+    private List<Match> closestTerms(Pattern pattern, int radius, int limit) {
+        // Worst match on top, so that it is the one dropped when a better one is found
+        PriorityQueue<Match> heap = new PriorityQueue<>(BEST_FIRST.reversed());
+        ArrayDeque<Term> pending = new ArrayDeque<>();
+        if (root != null) pending.push(root);
+        while (!pending.isEmpty()) {
+            Term term = pending.pop();
+            int distance = pattern.distance(term.text);
+            if (distance <= radius && term.live > 0) {
+                Match match = new Match(term, distance);
+                if (heap.size() < limit) {
+                    heap.add(match);
+                } else if (BEST_FIRST.compare(match, heap.peek()) < 0) {
+                    heap.poll();
+                    heap.add(match);
+                }
+                if (heap.size() == limit) {
+                    radius = Math.min(radius, heap.peek().distance);
+                }
+            }
+            // By the triangle inequality, only children this close to the term can be in range
+            for (Term child = term.firstChild; child != null; child = child.nextSibling) {
+                if (Math.abs(child.edge - distance) <= radius) {
+                    pending.push(child);
+                }
+            }
+        }
+        List<Match> best = new ArrayList<>(heap);
+        best.sort(BEST_FIRST);
+        return best;
+    }
+
+    private void collect(List<Match> best, int limit, List<PasswordEntry> found) {
+        Set<Integer> seen = new HashSet<>();
+        for (Match match : best) {
+            Term term = match.term;
+            for (int i = 0; i < term.size && found.size() < limit; i++) {
+                int id = term.docs[i];
+                if (docs[id] != null && seen.add(id)) {
+                    found.add(docs[id]);
+                }
+            }
+            if (found.size() == limit) return;
+        }
+    }
+
+    private void insert(Term term) {
+        if (root == null) {
+            root = term;
+            return;
+        }
+        insertPattern.set(term.text);
+        Term parent = root;
+        while (true) {
+            int distance = insertPattern.distance(parent.text);
+            Term child = parent.firstChild;
+            while (child != null && child.edge != distance) {
+                child = child.nextSibling;
+            }
+            if (child == null) {
+                term.edge = distance;
+                term.nextSibling = parent.firstChild;
+                parent.firstChild = term;
+                return;
+            }
+            parent = child;
+        }
+    }
+
+    /**
+     * Returns the distance between the keyword and the closest term of the entry.
+     *
+     * @param entry        The entry to rank.
+     * @param lowerKeyword The lowercased keyword.
+     * @return The smallest edit distance between the keyword and a term of the entry.
+     */
+    static int distance(PasswordEntry entry, String lowerKeyword) {
+        Pattern pattern = new Pattern(lowerKeyword);
+        int best = Integer.MAX_VALUE;
+        for (String term : termsOf(entry)) {
+            best = Math.min(best, pattern.distance(term));
+        }
+        return best;
+    }
+
+    /**
+     * Picks how many typos a keyword tolerates: none up to two characters, one up to five, two beyond.
+     *
+     * @param keyword The keyword.
+     * @return The largest edit distance of a match.
+     */
+    static int maxDistance(String keyword) {
+        return keyword.length() <= 2 ? 0 : keyword.length() <= 5 ? 1 : 2;
+    }
+
+    /**
+     * Computes the Levenshtein distance between two strings with two rolling rows.
+     *
+     * @return The number of insertions, deletions and substitutions turning one into the other.
+     */
+    private static int distance(String a, String b) {
+        if (a.length() < b.length()) {
+            String t = a;
+            a = b;
+            b = t;
+        }
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            char c = a.charAt(i - 1);
+            for (int j = 1; j <= b.length(); j++) {
+                int substitution = previous[j - 1] + (c == b.charAt(j - 1) ? 0 : 1);
+                current[j] = Math.min(substitution, Math.min(previous[j], current[j - 1]) + 1);
+            }
+            int[] t = previous;
+            previous = current;
+            current = t;
+        }
+        return previous[b.length()];
+    }
+
+    /**
+     * Returns the distinct lowercased terms of the entry: the words of its source and login, and
+     * the source as a whole. Sources are shared by many entries, so they add few terms; whole logins
+     * would add one term per entry.
+     */
+    private static List<String> termsOf(PasswordEntry entry) {
+        List<String> terms = new ArrayList<>();
+        String source = TrigramIndex.lower(entry.sourceView().toString());
+        if (!source.isEmpty()) terms.add(source);
+        addWords(source, terms);
+        addWords(TrigramIndex.lower(entry.loginView().toString()), terms);
+        return terms;
+    }
+
+    private static void addWords(String lower, List<String> terms) {
+        int start = 0;
+        for (int i = 0; i <= lower.length(); i++) {
+            if (i == lower.length() || !Character.isLetterOrDigit(lower.charAt(i))) {
+                if (i - start >= MIN_WORD_LENGTH) {
+                    String word = lower.substring(start, i);
+                    // A handful of terms per entry, so a linear check beats hashing them
+                    if (!terms.contains(word)) terms.add(word);
+                }
+                start = i + 1;
+            }
+        }
+    }
+
+    /**
+     * A string prepared for computing its distance to many others. Strings of up to 64 characters
+     * use Myers' bit-vector algorithm, with the positions of each character in the string as masks;
+     * longer ones fall back to the row-by-row computation.
+     */
+    private static final class Pattern {
+        private final long[] asciiMasks = new long[128];
+        private final char[] otherChars = new char[Long.SIZE];
+        private final long[] otherMasks = new long[Long.SIZE];
+        private int otherCount;
+        private String text = "";
+
+        Pattern(String text) {
+            set(text);
+        }
+
+        /**
+         * Prepares the pattern for another string, reusing the masks.
+         *
+         * @param text The new string.
+         */
+        void set(String text) {
+            if (this.text.length() <= Long.SIZE) {
+                for (int i = 0; i < this.text.length(); i++) {
+                    char c = this.text.charAt(i);
+                    if (c < 128) asciiMasks[c] = 0;
+                }
+            }
+            otherCount = 0;
+            this.text = text;
+            if (text.length() > Long.SIZE) return;
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c < 128) {
+                    asciiMasks[c] |= 1L << i;
+                    continue;
+                }
+                int k = 0;
+                while (k < otherCount && otherChars[k] != c) {
+                    k++;
+                }
+                if (k == otherCount) {
+                    otherChars[k] = c;
+                    otherMasks[k] = 0;
+                    otherCount++;
+                }
+                otherMasks[k] |= 1L << i;
+            }
+        }
+
+        private long mask(char c) {
+            if (c < 128) return asciiMasks[c];
+            for (int k = 0; k < otherCount; k++) {
+                if (otherChars[k] == c) return otherMasks[k];
+            }
+            return 0;
+        }
+
+        /**
+         * Computes the Levenshtein distance from this pattern to another string.
+         *
+         * @param other The string to compare with.
+         * @return The number of insertions, deletions and substitutions turning one into the other.
+         */
+        int distance(String other) {
+            if (text.length() > Long.SIZE) return FuzzyIndex.distance(text, other);
+            int m = text.length();
+            if (m == 0) return other.length();
+            // Vertical deltas of the current column are +1 or -1 where the bits of pv or mv are set
+            long pv = -1L;
+            long mv = 0;
+            long last = 1L << (m - 1);
+            int score = m;
+            for (int j = 0; j < other.length(); j++) {
+                long eq = mask(other.charAt(j));
+                long xv = eq | mv;
+                long xh = (((eq & pv) + pv) ^ pv) | eq;
+                long ph = mv | ~(xh | pv);
+                long mh = pv & xh;
+                if ((ph & last) != 0) {
+                    score++;
+                } else if ((mh & last) != 0) {
+                    score--;
+                }
+                // The first row grows by one per character, so a +1 is shifted in at the top
+                ph = (ph << 1) | 1;
+                mh <<= 1;
+                pv = mh | ~(xv | ph);
+                mv = ph & xv;
+            }
+            return score;
+        }
+    }
+
+    /**
+     * A node of the tree: one distinct term, the ids of the entries using it, and its children.
+     */
+    private static final class Term {
+        final String text;
+        int[] docs = new int[2];
+        int size;
+        int live; // postings whose entry has not been removed
+        int edge; // distance to the parent
+        Term firstChild;
+        Term nextSibling;
+
+        Term(String text) {
+            this.text = text;
+        }
+
+        void add(int id) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size << 1);
+            }
+            docs[size++] = id;
+            live++;
+        }
+    }
+
+    private record Match(Term term, int distance) {
+    }
+}
@@ -2,14 +2,145 @@ package storage;
 
 import model.PasswordEntry;
 
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.function.DoubleConsumer;
+import java.util.function.Predicate;
 
 public interface PasswordStorage {
     boolean loadOrInit(char[] masterPassword);
-    void save();
+
+    /**
+     * Loads or initializes the storage, reporting the progress of unlocking it.
+     * Storages without a costly unlock simply load and report nothing.
+     *
+     * @param masterPassword The master password.
+     * @param progress       Receives the completed fraction, or {@code null}.
+     * @return {@code true} if loading or initialization is successful; {@code false} otherwise.
+     */
+    default boolean loadOrInit(char[] masterPassword, DoubleConsumer progress) {
+        return loadOrInit(masterPassword);
+    }
+
+    /**
+     * Writes the changes made since the previous save. Changes that could not be written are kept,
+     * and the next save tries again.
+     *
+     * @return {@code true} if everything was written; {@code false} if the save failed.
+     */
+    boolean save();
     void add(PasswordEntry entry);
     PasswordEntry findBySourceAndLogin(char[] source, char[] login);
     List<PasswordEntry> search(String keyword);
+
+    /**
+     * Searches like {@link #search(String)}, but hands the matches over in pages as they are found,
+     * so the first ones can be shown before the whole storage has been checked.
+     *
+     * @param keyword  The keyword to search for.
+     * @param pageSize The largest number of matches in one page.
+     * @param pages    Receives each page, which it may keep; returns {@code false} to stop the search.
+     * @return {@code true} if the search ran to completion; {@code false} if it was stopped.
+     */
+    default boolean search(String keyword, int pageSize, Predicate<List<PasswordEntry>> pages) {
+        List<PasswordEntry> matches = search(keyword);
+        for (int from = 0; from < matches.size(); from += pageSize) {
+            int to = Math.min(matches.size(), from + pageSize);
+            if (!pages.test(new ArrayList<>(matches.subList(from, to)))) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Finds the entries whose source or login is closest to the keyword by edit distance, so a
+     * mistyped keyword still finds them. The keyword is compared with the words of each source and
+     * login, and with both as a whole. Keywords of up to two characters must match a word exactly,
+     * up to five characters they tolerate one edit, longer ones two.
+     *
+     * <p>This default compares the keyword with every entry; storages with an index override it.
+     *
+     * @param keyword The keyword to search for.
+     * @param limit   The largest number of entries returned.
+     * @return The closest entries, best first; entries equally close keep the storage's order.
+     */
+    default List<PasswordEntry> fuzzySearch(String keyword, int limit) {
+        String lowerKeyword = TrigramIndex.lower(keyword);
+        int maxDistance = FuzzyIndex.maxDistance(lowerKeyword);
+        List<Map.Entry<Integer, PasswordEntry>> ranked = new ArrayList<>();
+        for (PasswordEntry e : getAll()) {
+            int distance = FuzzyIndex.distance(e, lowerKeyword);
+            if (distance <= maxDistance) {
+                ranked.add(Map.entry(distance, e));
+            }
+        }
+        ranked.sort(Map.Entry.comparingByKey());
+        List<PasswordEntry> closest = new ArrayList<>();
+        for (int i = 0; i < ranked.size() && i < limit; i++) {
+            closest.add(ranked.get(i).getValue());
+        }
+        return closest;
+    }
+
+    /**
+     * Completes a source: returns the distinct sources starting with the prefix, ignoring case,
+     * ordered alphabetically ignoring case.
+     *
+     * <p>This default checks every entry; storages with an index override it.
+     *
+     * @param prefix The text typed so far; an empty one matches every source.
+     * @param limit  The largest number of sources returned.
+     * @return The first matching sources.
+     */
+    default List<String> sourcesStartingWith(String prefix, int limit) {
+        return PrefixIndex.firstStartingWith(getAll().stream().map(PasswordEntry::sourceView).toList(),
+                TrigramIndex.lower(prefix), limit);
+    }
+
+    /**
+     * Completes a login like {@link #sourcesStartingWith(String, int)} completes a source.
+     *
+     * @param prefix The text typed so far; an empty one matches every login.
+     * @param limit  The largest number of logins returned.
+     * @return The first matching logins.
+     */
+    default List<String> loginsStartingWith(String prefix, int limit) {
+        return PrefixIndex.firstStartingWith(getAll().stream().map(PasswordEntry::loginView).toList(),
+                TrigramIndex.lower(prefix), limit);
+    }
     List<PasswordEntry> getAll();
     void delete(char[] source, char[] login);
-}
\ No newline at end of file
+
+    /**
+     * Adds every entry produced by the iterator, replacing entries with the same source and login.
+     * Entries are consumed one at a time, so the iterator may parse its input lazily. Nothing is
+     * saved; callers save once after the whole batch.
+     *
+     * @param entries The entries to add.
+     * @return The number of entries added.
+     */
+    default int addAll(Iterator<? extends PasswordEntry> entries) {
+        int count = 0;
+        while (entries.hasNext()) {
+            add(entries.next());
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Registers a listener that is told about every entry added, removed or replaced from now on.
+     *
+     * @param listener The listener to add.
+     */
+    void addListener(StorageListener listener);
+
+    void removeListener(StorageListener listener);
+
+    /**
+     * Releases whatever the storage holds in memory. Nothing is saved; callers save first.
+     */
+    default void close() {
+    }
+}
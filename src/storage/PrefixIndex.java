@@ -0,0 +1,314 @@
+package storage;
+
+import model.PasswordEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.function.Function;
+
+/**
+ * Sorted index of the distinct values of one field of the entries, such as their sources, for
+ * completing what the user has typed so far. Values are ordered by their lowercased text, then by
+ * the text itself, so all values starting with a prefix, in any case, lie next to each other and a
+ * query is a binary search followed by a short scan.
+ *
+ * <p>Values live in two sorted runs of parallel arrays: a large main run and a small pending run
+ * that takes new values. Inserting into the pending run shifts at most {@link #MAX_PENDING} slots;
+ * once it is full it is merged into the main run in one linear pass, so a bulk import does not
+ * shift the whole index for every entry. Queries walk both runs side by side.
+ *
+ * <p>Every value counts the entries using it. A main-run value whose last entry is removed stays in
+ * place with no references and is skipped by queries; the runs are merged, dropping such values,
+ * once they make up half of the main run.
+ *
+ * <p>The index is only built by the first query, like {@link FuzzyIndex}, and ignores additions and
+ * removals until then and after {@link #rebuild()}. Queries may run concurrently with each other,
+ * but not with mutations.
+ */
+class PrefixIndex {
+    static final int MAX_PENDING = 1024;
+
+    // Lowercased text first, so that a prefix matches a contiguous range whatever its case
+    static final Comparator<String> ORDER = Comparator.comparing(TrigramIndex::lower).thenComparing(Comparator.naturalOrder());
+
+    private final List<PasswordEntry> entries;
+    private final Function<PasswordEntry, CharSequence> field;
+    private Run main = new Run(16);
+    private Run pending = new Run(16);
+    private int deadCount; // main-run values with no references left
+    private volatile boolean built;
+
+    /**
+     * Constructs an empty index of one field over the given list, which is used for building it.
+     *
+     * @param entries The list of live entries.
+     * @param field   The field to index, for example {@link PasswordEntry#sourceView()}.
+     */
+    PrefixIndex(List<PasswordEntry> entries, Function<PasswordEntry, CharSequence> field) {
+        this.entries = entries;
+        this.field = field;
+    }
+
+    /**
+     * Counts one more entry using the entry's value, adding the value if it is new.
+     *
+     * @param entry The entry to index.
+     */
+    void add(PasswordEntry entry) {
+        if (built) {
+            index(field.apply(entry).toString());
+        }
+    }
+
+    private void index(String text) {
+        String key = TrigramIndex.lower(text);
+        int i = main.find(key, text);
+        if (i >= 0) {
+            if (main.refs[i]++ == 0) deadCount--;
+            return;
+        }
+        i = pending.find(key, text);
+        if (i >= 0) {
+            pending.refs[i]++;
+            return;
+        }
+        pending.insert(-i - 1, key, text);
+        if (pending.size > MAX_PENDING) {
+            merge();
+        }
+    }
+
+    /**
+     * Counts one entry fewer using the entry's value.
+     *
+     * @param entry The entry that was removed from the storage.
+     */
+    void remove(PasswordEntry entry) {
+        if (!built) return;
+        String text = field.apply(entry).toString();
+        String key = TrigramIndex.lower(text);
+        int i = pending.find(key, text);
+        if (i >= 0) {
+            if (--pending.refs[i] == 0) pending.delete(i);
+            return;
+        }
+        i = main.find(key, text);
+        if (i < 0 || --main.refs[i] > 0) return;
+        deadCount++;
+        if (deadCount > main.size / 2) {
+            merge();
+        }
+    }
+
+    /**
+     * Discards the index; the next query builds it from the backing list again.
+     */
+    void rebuild() {
+        built = false;
+        main = new Run(16);
+        pending = new Run(16);
+        deadCount = 0;
+    }
+
+    private void build() {
+        if (built) return;
+        synchronized (this) {
+            if (built) return;
+            // Sorting every value once is far cheaper than inserting them one by one
+            String[][] values = new String[entries.size()][];
+            for (int i = 0; i < values.length; i++) {
+                String text = field.apply(entries.get(i)).toString();
+                values[i] = new String[]{TrigramIndex.lower(text), text};
+            }
+            Arrays.sort(values, Comparator.<String[], String>comparing(v -> v[0]).thenComparing(v -> v[1]));
+            Run run = new Run(Math.max(16, values.length));
+            for (String[] value : values) {
+                if (run.size > 0 && run.texts[run.size - 1].equals(value[1])) {
+                    run.refs[run.size - 1]++;
+                } else {
+                    run.append(value[0], value[1], 1);
+                }
+            }
+            main = run;
+            built = true;
+        }
+    }
+
+    /**
+     * Merges the pending run into the main run, dropping the values no entry uses any more.
+     */
+    private void merge() {
+        Run merged = new Run(Math.max(16, main.size - deadCount + pending.size));
+        int i = 0;
+        int j = 0;
+        while (i < main.size || j < pending.size) {
+            Run from;
+            int k;
+            if (j == pending.size || (i < main.size && main.compare(i, pending.keys[j], pending.texts[j]) < 0)) {
+                from = main;
+                k = i++;
+            } else {
+                from = pending;
+                k = j++;
+            }
+            if (from.refs[k] > 0) {
+                merged.append(from.keys[k], from.texts[k], from.refs[k]);
+            }
+        }
+        main = merged;
+        pending = new Run(16);
+        deadCount = 0;
+    }
+
+    /**
+     * Returns the first values, in index order, that start with the prefix, ignoring case.
+     *
+     * @param lowerPrefix The lowercased prefix; an empty one matches every value.
+     * @param limit       The largest number of values returned.
+     * @return The matching values.
+     */
+    List<String> startingWith(String lowerPrefix, int limit) {
+        List<String> found = new ArrayList<>(Math.min(limit, 64));
+        if (limit <= 0) return found;
+        build();
+        int i = main.lowerBound(lowerPrefix);
+        int j = pending.lowerBound(lowerPrefix);
+        while (found.size() < limit) {
+            boolean inMain = i < main.size && main.keys[i].startsWith(lowerPrefix);
+            boolean inPending = j < pending.size && pending.keys[j].startsWith(lowerPrefix);
+            if (!inMain && !inPending) break;
+            if (inMain && (!inPending || main.compare(i, pending.keys[j], pending.texts[j]) < 0)) {
+                if (main.refs[i] > 0) found.add(main.texts[i]);
+                i++;
+            } else {
+                found.add(pending.texts[j++]);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Picks the first values, in index order, that start with the prefix from values in any order,
+     * for storages without an index and for merging the completions of several storages.
+     *
+     * @param texts       The values; the same value may occur more than once.
+     * @param lowerPrefix The lowercased prefix.
+     * @param limit       The largest number of values returned.
+     * @return The matching values.
+     */
+    static List<String> firstStartingWith(Iterable<? extends CharSequence> texts, String lowerPrefix, int limit) {
+        // Bounded to the limit: the last value is dropped whenever a better one comes in
+        TreeSet<String> best = new TreeSet<>(ORDER);
+        if (limit <= 0) return new ArrayList<>(best);
+        for (CharSequence text : texts) {
+            if (text.length() < lowerPrefix.length() || !startsWithIgnoreCase(text, lowerPrefix)) continue;
+            String value = text.toString();
+            if (best.size() < limit) {
+                best.add(value);
+            } else if (ORDER.compare(value, best.last()) < 0 && best.add(value)) {
+                best.pollLast();
+            }
+        }
+        return new ArrayList<>(best);
+    }
+
+    private static boolean startsWithIgnoreCase(CharSequence text, String lowerPrefix) {
+        for (int i = 0; i < lowerPrefix.length(); i++) {
+            if (Character.toLowerCase(text.charAt(i)) != lowerPrefix.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Values sorted by {@link #ORDER} in parallel arrays: the lowercased text, the text, which is the
+     * same string when it has no upper case, and the number of entries using it.
+     */
+    private static final class Run {
+        String[] keys;
+        String[] texts;
+        int[] refs;
+        int size;
+
+        Run(int capacity) {
+            keys = new String[capacity];
+            texts = new String[capacity];
+            refs = new int[capacity];
+        }
+
+        int compare(int i, String key, String text) {
+            int c = keys[i].compareTo(key);
+            return c != 0 ? c : texts[i].compareTo(text);
+        }
+
+        /**
+         * Finds a value by binary search.
+         *
+         * @return The position of the value, or {@code -(insertion point) - 1} if it is missing.
+         */
+        int find(String key, String text) {
+            int low = 0;
+            int high = size - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int c = compare(mid, key, text);
+                if (c < 0) {
+                    low = mid + 1;
+                } else if (c > 0) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -low - 1;
+        }
+
+        /**
+         * Returns the position of the first value whose lowercased text is not below the prefix.
+         */
+        int lowerBound(String lowerPrefix) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (keys[mid].compareTo(lowerPrefix) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        void append(String key, String text, int count) {
+            insert(size, key, text);
+            refs[size - 1] = count;
+        }
+
+        void insert(int at, String key, String text) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size << 1);
+                texts = Arrays.copyOf(texts, size << 1);
+                refs = Arrays.copyOf(refs, size << 1);
+            }
+            System.arraycopy(keys, at, keys, at + 1, size - at);
+            System.arraycopy(texts, at, texts, at + 1, size - at);
+            System.arraycopy(refs, at, refs, at + 1, size - at);
+            keys[at] = key;
+            texts[at] = key.equals(text) ? key : text;
+            refs[at] = 1;
+            size++;
+        }
+
+        void delete(int at) {
+            System.arraycopy(keys, at + 1, keys, at, size - at - 1);
+            System.arraycopy(texts, at + 1, texts, at, size - at - 1);
+            System.arraycopy(refs, at + 1, refs, at, size - at - 1);
+            size--;
+            keys[size] = null;
+            texts[size] = null;
+        }
+    }
+}
@@ -0,0 +1,539 @@
+package storage;
+
+import model.PasswordEntry;
+import strategy.EncryptionStrategy;
+import strategy.KdfParameters;
+import strategy.MasterKey;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.DoubleConsumer;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A vault split over several shard storages, each usually a vault file of its own. Every entry
+ * lives in the shard chosen by a hash of its source, so a mutation touches a single shard and
+ * {@link #save()} only saves the shards that changed since the previous save.
+ *
+ * <p>Unlocking runs the key derivation once, however many shards there are: the master key derived
+ * from the master password expands into each shard's key with a single HMAC over the shard's index,
+ * see {@link MasterKey}. The shards are then loaded in parallel, one thread each. Searches fan out over
+ * all shards. Like {@link FilePasswordStorage} this class is not thread-safe; wrap it in a
+ * {@link ConcurrentPasswordStorage}, whose locks then cover all shards.
+ *
+ * <p>The shard of a source depends on the number of shards, so an existing vault must always be
+ * opened with the same number. {@link #open(String, int, boolean, boolean)} records it in a manifest
+ * file next to the shards, together with the salt and parameters of the key derivation, and refuses
+ * to open a vault whose shard files do not match it. Without its manifest a vault cannot be unlocked.
+ * Vaults created before the manifest recorded the derivation keep a key per shard, each derived from
+ * the master password on its own.
+ */
+public class ShardedPasswordStorage implements PasswordStorage {
+    // Entries collected for one shard before they are handed to it while importing
+    private static final int ADD_BATCH_SIZE = 1024;
+    private static final int MANIFEST_MAGIC = 0x534A5653; // "SJVS"
+    private static final int MANIFEST_VERSION = 2;
+    private static final int MANIFEST_VERSION_SHARD_KDF = 1; // only the count; each shard derives its own key
+    // Expands the key of each shard from the master key; part of the file layout
+    private static final String SHARD_KEY_LABEL = "SecureJavaVault shard";
+    private static final Pattern SHARD_SUFFIX = Pattern.compile("\\.(\\d+)");
+
+    private final List<PasswordStorage> shards;
+    private final boolean[] dirty; // shards mutated since they were last saved
+    // The shard files, their keys expanded from one master key derived with this salt and parameters;
+    // all null if each shard derives its own key from the master password
+    private final List<FilePasswordStorage> files;
+    private final byte[] salt;
+    private final KdfParameters kdf;
+
+    /**
+     * The content of the manifest: the number of shards, and the salt and parameters of the master
+     * key, which are {@code null} if each shard derives its own key.
+     */
+    private record Manifest(int count, byte[] salt, KdfParameters kdf) {
+    }
+
+    /**
+     * Constructs a storage over the given shards, each unlocked with the master password on its own.
+     *
+     * @param shards The shard storages, in a fixed order; an entry's shard is its index in this list.
+     * @throws IllegalArgumentException If there are no shards.
+     */
+    public ShardedPasswordStorage(List<? extends PasswordStorage> shards) {
+        this(shards, null, null, null);
+    }
+
+    private ShardedPasswordStorage(List<? extends PasswordStorage> shards, List<FilePasswordStorage> files,
+                                   byte[] salt, KdfParameters kdf) {
+        if (shards.isEmpty()) throw new IllegalArgumentException("A sharded vault needs at least one shard");
+        this.shards = List.copyOf(shards);
+        this.dirty = new boolean[shards.size()];
+        this.files = files;
+        this.salt = salt;
+        this.kdf = kdf;
+    }
+
+    /**
+     * Opens the shard files {@code filename + ".0"}, {@code filename + ".1"} and so on. The number of
+     * shards is read from the manifest {@code filename + ".shards"}, so a vault keeps the number it was
+     * created with and {@code shardCount} only applies to a new vault. A vault written before the manifest
+     * existed gets one from the shard files found.
+     *
+     * @param filename   The base name of the shard files.
+     * @param shardCount The number of shards of a new vault.
+     * @param journaled  {@code true} to journal each shard's mutations, see {@link FilePasswordStorage}.
+     * @param offHeap    {@code true} to keep the shards' entries in direct memory.
+     * @return The storage; it still has to be unlocked with {@link #loadOrInit(char[], DoubleConsumer)}.
+     * @throws IOException If the manifest cannot be read or written, or if some of the shard files are
+     *                     missing; opening such a vault would start the missing shards empty.
+     */
+    public static ShardedPasswordStorage open(String filename, int shardCount, boolean journaled, boolean offHeap)
+            throws IOException {
+        return open(filename, shardCount, journaled, offHeap, null);
+    }
+
+    /**
+     * Opens the shard files like {@link #open(String, int, boolean, boolean)}, creating a new vault with
+     * the given key derivation parameters instead of calibrating them.
+     */
+    static ShardedPasswordStorage open(String filename, int shardCount, boolean journaled, boolean offHeap,
+                                       KdfParameters newVaultKdf) throws IOException {
+        if (shardCount < 1) throw new IllegalArgumentException("A sharded vault needs at least one shard");
+        File manifestFile = new File(filename + ".shards");
+        List<Integer> existing = shardFiles(filename);
+        Manifest manifest;
+        if (manifestFile.exists()) {
+            manifest = readManifest(manifestFile);
+        } else if (existing.isEmpty()) {
+            byte[] salt = new byte[16];
+            new SecureRandom().nextBytes(salt);
+            KdfParameters kdf = newVaultKdf != null ? newVaultKdf
+                    : KdfParameters.calibrate(FilePasswordStorage.TARGET_UNLOCK_MILLIS);
+            manifest = new Manifest(shardCount, salt, kdf);
+        } else {
+            // Shards written before the manifest existed each derived their own key
+            manifest = new Manifest(existing.get(existing.size() - 1) + 1, null, null);
+        }
+        int count = manifest.count();
+        // A vault whose shards were never written has none of the files; any other vault has all of them
+        if (!existing.isEmpty() && (existing.size() != count || existing.get(existing.size() - 1) >= count)) {
+            throw new IOException("Sharded vault " + filename + " has shard files " + existing + " but "
+                    + count + " shards");
+        }
+        if (!manifestFile.exists()) {
+            writeManifest(manifestFile, manifest);
+        }
+        List<FilePasswordStorage> shards = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            shards.add(new FilePasswordStorage(filename + "." + i, journaled, offHeap, newVaultKdf));
+        }
+        if (manifest.salt() == null) return new ShardedPasswordStorage(shards);
+        return new ShardedPasswordStorage(shards, shards, manifest.salt(), manifest.kdf());
+    }
+
+    /**
+     * Tells whether a sharded vault exists under the given base name.
+     *
+     * @param filename The base name of the shard files.
+     * @return {@code true} if the manifest or any shard file exists.
+     */
+    public static boolean exists(String filename) {
+        return new File(filename + ".shards").exists() || !shardFiles(filename).isEmpty();
+    }
+
+    /**
+     * Lists the indexes of the shard files, ignoring the journals and temporary files next to them.
+     *
+     * @return The indexes, in ascending order.
+     */
+    private static List<Integer> shardFiles(String filename) {
+        File base = new File(filename).getAbsoluteFile();
+        String prefix = base.getName();
+        String[] names = base.getParentFile().list();
+        List<Integer> indexes = new ArrayList<>();
+        if (names == null) return indexes;
+        for (String name : names) {
+            if (!name.startsWith(prefix)) continue;
+            Matcher m = SHARD_SUFFIX.matcher(name.substring(prefix.length()));
+            if (m.matches()) {
+                try {
+                    indexes.add(Integer.parseInt(m.group(1)));
+                } catch (NumberFormatException e) {
+                    // Too many digits to be a shard
+                }
+            }
+        }
+        indexes.sort(null);
+        return indexes;
+    }
+
+    /**
+     * Reads the manifest: the magic, the version byte and the shard count as an int, then, from
+     * version 2 on, the salt length as one byte, the salt and the key derivation parameters as a
+     * vault header records them.
+     */
+    private static Manifest readManifest(File manifest) throws IOException {
+        ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(manifest.toPath()));
+        try {
+            if (data.getInt() != MANIFEST_MAGIC) throw new IOException("Not a shard manifest: " + manifest);
+            int version = data.get();
+            if (version != MANIFEST_VERSION && version != MANIFEST_VERSION_SHARD_KDF) {
+                throw new IOException("Unsupported shard manifest version " + version);
+            }
+            int count = data.getInt();
+            if (count < 1) throw new IOException("Invalid shard count " + count + " in " + manifest);
+            if (version == MANIFEST_VERSION_SHARD_KDF) return new Manifest(count, null, null);
+            byte[] salt = new byte[data.get() & 0xFF];
+            data.get(salt);
+            return new Manifest(count, salt, FilePasswordStorage.readKdfParameters(data));
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated shard manifest: " + manifest, e);
+        }
+    }
+
+    /**
+     * Writes the manifest through a temporary file, like a vault snapshot, so it is never left partial.
+     */
+    private static void writeManifest(File manifestFile, Manifest manifest) throws IOException {
+        Path temp = Path.of(manifestFile.getPath() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(temp.toFile());
+             DataOutputStream dos = new DataOutputStream(fos)) {
+            dos.writeInt(MANIFEST_MAGIC);
+            dos.writeByte(manifest.salt() == null ? MANIFEST_VERSION_SHARD_KDF : MANIFEST_VERSION);
+            dos.writeInt(manifest.count());
+            if (manifest.salt() != null) {
+                dos.writeByte(manifest.salt().length);
+                dos.write(manifest.salt());
+                FilePasswordStorage.writeKdfParameters(dos, manifest.kdf());
+            }
+            dos.flush();
+            fos.getFD().sync();
+        }
+        try {
+            Files.move(temp, manifestFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, manifestFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    public int shardCount() {
+        return shards.size();
+    }
+
+    @Override
+    public boolean loadOrInit(char[] masterPassword) {
+        return loadOrInit(masterPassword, null);
+    }
+
+    /**
+     * Unlocks the vault. The master key is derived on the calling thread and the shards, whose keys are
+     * expanded from it, are loaded in parallel, each on its own thread. Shards that derive their own key
+     * are unlocked in parallel too, each with its own copy of the master password, which is cleared
+     * afterwards; the progress reported is then the mean of the shards' progress.
+     *
+     * @param masterPassword The master password, shared by all shards; it is cleared.
+     * @param progress       Receives the completed fraction of the key derivation, possibly from several
+     *                       threads, or {@code null}.
+     * @return {@code true} if every shard was unlocked; {@code false} otherwise.
+     * @throws CancellationException If the calling thread is interrupted; the shards' unlocks are cancelled too.
+     */
+    @Override
+    public boolean loadOrInit(char[] masterPassword, DoubleConsumer progress) {
+        if (files == null) return unlockEachShard(masterPassword, progress);
+        List<Callable<Boolean>> unlocks = new ArrayList<>(files.size());
+        try (MasterKey masterKey = MasterKey.derive(masterPassword, salt, kdf, progress)) {
+            for (int i = 0; i < files.size(); i++) {
+                FilePasswordStorage shard = files.get(i);
+                EncryptionStrategy key = masterKey.strategy(SHARD_KEY_LABEL, i);
+                unlocks.add(() -> shard.loadOrInit(key, salt, kdf));
+            }
+        }
+        return unlockAll(unlocks);
+    }
+
+    private boolean unlockEachShard(char[] masterPassword, DoubleConsumer progress) {
+        double[] fractions = new double[shards.size()];
+        List<char[]> copies = new ArrayList<>(shards.size());
+        List<Callable<Boolean>> unlocks = new ArrayList<>(shards.size());
+        for (int i = 0; i < shards.size(); i++) {
+            int shard = i;
+            char[] copy = Arrays.copyOf(masterPassword, masterPassword.length);
+            copies.add(copy);
+            DoubleConsumer shardProgress = progress == null ? null : p -> {
+                synchronized (fractions) {
+                    fractions[shard] = p;
+                    progress.accept(Arrays.stream(fractions).sum() / fractions.length);
+                }
+            };
+            unlocks.add(() -> shards.get(shard).loadOrInit(copy, shardProgress));
+        }
+        Arrays.fill(masterPassword, '\0');
+        try {
+            return unlockAll(unlocks);
+        } finally {
+            // Unlocks clear their copy, but cancelled ones may never have started
+            for (char[] copy : copies) {
+                Arrays.fill(copy, '\0');
+            }
+        }
+    }
+
+    /**
+     * Runs the unlocks of the shards, one thread each.
+     *
+     * @return {@code true} if every unlock succeeded; {@code false} otherwise.
+     */
+    private static boolean unlockAll(List<Callable<Boolean>> unlocks) {
+        ExecutorService pool = Executors.newFixedThreadPool(unlocks.size(), r -> {
+            Thread t = new Thread(r, "vault-shard-unlock");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            // Interrupting the caller makes invokeAll cancel the unlocks, which stops their key derivation
+            boolean unlocked = true;
+            for (Future<Boolean> f : pool.invokeAll(unlocks)) {
+                unlocked &= f.get();
+            }
+            return unlocked;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Unlock interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException r) throw r;
+            throw new RuntimeException("Error unlocking a shard", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Saves the shards mutated since the previous save, in parallel. A shard whose save fails stays
+     * marked as mutated, so the next save tries it again.
+     *
+     * @return {@code true} if every mutated shard was saved; {@code false} otherwise.
+     */
+    @Override
+    public boolean save() {
+        List<Integer> changed = new ArrayList<>();
+        for (int i = 0; i < dirty.length; i++) {
+            if (dirty[i]) changed.add(i);
+        }
+        List<Integer> saved = changed.parallelStream().filter(i -> shards.get(i).save()).toList();
+        for (int i : saved) {
+            dirty[i] = false;
+        }
+        return saved.size() == changed.size();
+    }
+
+    @Override
+    public void add(PasswordEntry entry) {
+        int shard = shardOf(entry.sourceView());
+        shards.get(shard).add(entry);
+        dirty[shard] = true;
+    }
+
+    /**
+     * Adds the entries in batches, one per shard, so each shard still imports them as a batch.
+     *
+     * @param entries The entries to add.
+     * @return The number of entries added.
+     */
+    @Override
+    public int addAll(Iterator<? extends PasswordEntry> entries) {
+        List<List<PasswordEntry>> batches = new ArrayList<>(shards.size());
+        for (int i = 0; i < shards.size(); i++) {
+            batches.add(new ArrayList<>());
+        }
+        int count = 0;
+        while (entries.hasNext()) {
+            PasswordEntry entry = entries.next();
+            int shard = shardOf(entry.sourceView());
+            List<PasswordEntry> batch = batches.get(shard);
+            batch.add(entry);
+            if (batch.size() == ADD_BATCH_SIZE) {
+                count += addBatch(shard, batch);
+            }
+        }
+        for (int i = 0; i < shards.size(); i++) {
+            count += addBatch(i, batches.get(i));
+        }
+        return count;
+    }
+
+    private int addBatch(int shard, List<PasswordEntry> batch) {
+        if (batch.isEmpty()) return 0;
+        int count = shards.get(shard).addAll(batch.iterator());
+        dirty[shard] = true;
+        batch.clear();
+        return count;
+    }
+
+    @Override
+    public PasswordEntry findBySourceAndLogin(char[] source, char[] login) {
+        return shards.get(shardOf(CharBuffer.wrap(source))).findBySourceAndLogin(source, login);
+    }
+
+    /**
+     * Searches all shards in parallel.
+     *
+     * @param keyword The keyword to search for.
+     * @return The matches of every shard, one shard after the other.
+     */
+    @Override
+    public List<PasswordEntry> search(String keyword) {
+        List<List<PasswordEntry>> results = shards.parallelStream().map(s -> s.search(keyword)).toList();
+        List<PasswordEntry> matches = new ArrayList<>();
+        for (List<PasswordEntry> result : results) {
+            matches.addAll(result);
+        }
+        return matches;
+    }
+
+    /**
+     * Searches all shards in parallel and merges their closest entries.
+     *
+     * @param keyword The keyword to search for.
+     * @param limit   The largest number of entries returned.
+     * @return The closest entries of all shards, best first.
+     */
+    @Override
+    public List<PasswordEntry> fuzzySearch(String keyword, int limit) {
+        String lowerKeyword = TrigramIndex.lower(keyword);
+        List<List<PasswordEntry>> results = shards.parallelStream().map(s -> s.fuzzySearch(keyword, limit)).toList();
+        // Each shard's list is ranked already; the shards only lose their distances, so rank them again
+        List<Map.Entry<Integer, PasswordEntry>> ranked = new ArrayList<>();
+        for (List<PasswordEntry> result : results) {
+            for (PasswordEntry e : result) {
+                ranked.add(Map.entry(FuzzyIndex.distance(e, lowerKeyword), e));
+            }
+        }
+        ranked.sort(Map.Entry.comparingByKey());
+        List<PasswordEntry> closest = new ArrayList<>();
+        for (int i = 0; i < ranked.size() && i < limit; i++) {
+            closest.add(ranked.get(i).getValue());
+        }
+        return closest;
+    }
+
+    /**
+     * Completes a source by merging the first sources of every shard. Each shard answers in
+     * microseconds, so they are asked one after the other on the calling thread.
+     */
+    @Override
+    public List<String> sourcesStartingWith(String prefix, int limit) {
+        return mergeCompletions(shards.stream().map(s -> s.sourcesStartingWith(prefix, limit)).toList(), prefix, limit);
+    }
+
+    /**
+     * Completes a login by merging the first logins of every shard.
+     */
+    @Override
+    public List<String> loginsStartingWith(String prefix, int limit) {
+        return mergeCompletions(shards.stream().map(s -> s.loginsStartingWith(prefix, limit)).toList(), prefix, limit);
+    }
+
+    private static List<String> mergeCompletions(List<List<String>> results, String prefix, int limit) {
+        List<String> all = new ArrayList<>();
+        for (List<String> result : results) {
+            all.addAll(result);
+        }
+        // Several shards may hold the same value; each is listed once
+        return PrefixIndex.firstStartingWith(all, TrigramIndex.lower(prefix), limit);
+    }
+
+    /**
+     * Searches the shards one after the other, so the pages arrive on the calling thread.
+     */
+    @Override
+    public boolean search(String keyword, int pageSize, Predicate<List<PasswordEntry>> pages) {
+        for (PasswordStorage shard : shards) {
+            if (!shard.search(keyword, pageSize, pages)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns all entries of all shards.
+     *
+     * @return A new list holding every shard's entries, one shard after the other.
+     */
+    @Override
+    public List<PasswordEntry> getAll() {
+        List<PasswordEntry> all = new ArrayList<>();
+        for (PasswordStorage shard : shards) {
+            all.addAll(shard.getAll());
+        }
+        return all;
+    }
+
+    @Override
+    public void delete(char[] source, char[] login) {
+        int shard = shardOf(CharBuffer.wrap(source));
+        shards.get(shard).delete(source, login);
+        dirty[shard] = true;
+    }
+
+    @Override
+    public void addListener(StorageListener listener) {
+        for (PasswordStorage shard : shards) {
+            shard.addListener(listener);
+        }
+    }
+
+    @Override
+    public void removeListener(StorageListener listener) {
+        for (PasswordStorage shard : shards) {
+            shard.removeListener(listener);
+        }
+    }
+
+    @Override
+    public void close() {
+        for (PasswordStorage shard : shards) {
+            shard.close();
+        }
+    }
+
+    /**
+     * Picks the shard of a source. The hash is part of the file layout: changing it would leave
+     * existing entries in shards where they are no longer looked for.
+     *
+     * @param source The source of an entry.
+     * @return The index of the shard holding the entry.
+     */
+    private int shardOf(CharSequence source) {
+        int h = 0;
+        for (int i = 0; i < source.length(); i++) {
+            h = 31 * h + source.charAt(i);
+        }
+        // Spread the bits, so that sources differing only in their last characters still split evenly
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        return Math.floorMod(h, shards.size());
+    }
+}
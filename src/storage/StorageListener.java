@@ -0,0 +1,34 @@
+package storage;
+
+import model.PasswordEntry;
+
+/**
+ * Receives the changes made to a {@link PasswordStorage}, one entry at a time.
+ * Events are delivered on the thread that makes the change, while the storage is being modified,
+ * so listeners return quickly and do not call back into the storage.
+ */
+public interface StorageListener {
+    /**
+     * Called after an entry with a new source and login has been stored.
+     *
+     * @param entry The stored entry.
+     */
+    void entryAdded(PasswordEntry entry);
+
+    /**
+     * Called after an entry has been deleted. A storage that zeroes removed entries may clear it as
+     * soon as this method returns, so only its identity may be used afterwards.
+     *
+     * @param entry The deleted entry.
+     */
+    void entryRemoved(PasswordEntry entry);
+
+    /**
+     * Called after an entry has replaced the stored entry with the same source and login. The old
+     * entry may be cleared as soon as this method returns, like a removed one.
+     *
+     * @param oldEntry The entry that was replaced.
+     * @param newEntry The entry stored in its place.
+     */
+    void entryReplaced(PasswordEntry oldEntry, PasswordEntry newEntry);
+}
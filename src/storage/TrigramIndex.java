@@ -0,0 +1,236 @@
+package storage;
+
+import model.PasswordEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Inverted index from the lowercased three-character substrings of each entry's source and login
+ * to the entries containing them. Every indexed entry gets an increasing document id, so posting
+ * lists are sorted and a substring query of three or more characters intersects the lists of its
+ * trigrams instead of checking every entry.
+ *
+ * <p>Removals are lazy: a removed entry's id stays in its posting lists until the number of stale
+ * postings exceeds the number of live ones, at which point the index is rebuilt from the backing list.
+ */
+class TrigramIndex {
+    static final int GRAM_LENGTH = 3;
+
+    private final List<PasswordEntry> entries;
+    private final Map<Long, Postings> postings = new HashMap<>();
+    private final Map<PasswordEntry, Integer> ids = new IdentityHashMap<>();
+    private PasswordEntry[] docs = new PasswordEntry[16]; // document id -> entry, null once removed
+    private int docCount;
+    private long livePostings;
+    private long stalePostings;
+
+    /**
+     * Constructs an empty index over the given list, which is used for rebuilding.
+     *
+     * @param entries The list of live entries.
+     */
+    TrigramIndex(List<PasswordEntry> entries) {
+        this.entries = entries;
+    }
+
+    /**
+     * Indexes every trigram of the entry's source and login. Adding an indexed entry again has no effect.
+     *
+     * @param entry The entry to index.
+     */
+    void add(PasswordEntry entry) {
+        if (ids.containsKey(entry)) return;
+        if (docCount == docs.length) {
+            docs = Arrays.copyOf(docs, docCount << 1);
+        }
+        int id = docCount++;
+        docs[id] = entry;
+        ids.put(entry, id);
+        for (long gram : gramsOf(entry)) {
+            postings.computeIfAbsent(gram, g -> new Postings()).add(id);
+            livePostings++;
+        }
+    }
+
+    /**
+     * Marks the postings of the entry as stale and rebuilds the index once they outnumber the live ones.
+     *
+     * @param entry The entry that was removed from the storage.
+     */
+    void remove(PasswordEntry entry) {
+        Integer id = ids.remove(entry);
+        if (id == null) return;
+        docs[id] = null;
+        int count = gramsOf(entry).length;
+        livePostings -= count;
+        stalePostings += count;
+        if (stalePostings > livePostings) {
+            rebuild();
+        }
+    }
+
+    /**
+     * Discards all postings and indexes the backing list again.
+     */
+    void rebuild() {
+        postings.clear();
+        ids.clear();
+        docs = new PasswordEntry[Math.max(16, entries.size())];
+        docCount = 0;
+        livePostings = 0;
+        stalePostings = 0;
+        for (PasswordEntry e : entries) {
+            add(e);
+        }
+    }
+
+    /**
+     * Returns the live entries that contain every trigram of the keyword in their source or login.
+     * This is a superset of the entries containing the keyword itself, which callers still have to check.
+     *
+     * @param lowerKeyword The lowercased keyword, at least {@link #GRAM_LENGTH} characters long.
+     * @return The candidate entries in indexing order.
+     */
+    List<PasswordEntry> candidates(String lowerKeyword) {
+        List<Postings> lists = new ArrayList<>();
+        for (int i = 0; i + GRAM_LENGTH <= lowerKeyword.length(); i++) {
+            Postings p = postings.get(gram(lowerKeyword, i));
+            if (p == null) {
+                return List.of();
+            }
+            lists.add(p);
+        }
+        // Start from the rarest trigram so that every intersection step is as small as possible
+        lists.sort(Comparator.comparingInt(p -> p.size));
+        int[] result = Arrays.copyOf(lists.get(0).ids, lists.get(0).size);
+        int size = result.length;
+        for (int l = 1; l < lists.size() && size > 0; l++) {
+            size = lists.get(l).retainAll(result, size);
+        }
+        List<PasswordEntry> candidates = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            PasswordEntry e = docs[result[i]];
+            if (e != null) {
+                candidates.add(e);
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Checks whether a character sequence contains a lowercased keyword, ignoring the case of the sequence.
+     *
+     * @param text         The sequence to search in.
+     * @param lowerKeyword The lowercased keyword.
+     * @return {@code true} if the keyword occurs in the sequence.
+     */
+    static boolean containsIgnoreCase(CharSequence text, String lowerKeyword) {
+        int last = text.length() - lowerKeyword.length();
+        for (int start = 0; start <= last; start++) {
+            int i = 0;
+            while (i < lowerKeyword.length()
+                    && Character.toLowerCase(text.charAt(start + i)) == lowerKeyword.charAt(i)) {
+                i++;
+            }
+            if (i == lowerKeyword.length()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Lowercases a keyword the same way the indexed text is lowercased.
+     *
+     * @param keyword The keyword to lowercase.
+     * @return The lowercased keyword.
+     */
+    static String lower(String keyword) {
+        char[] chars = keyword.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(chars[i]);
+        }
+        return new String(chars);
+    }
+
+    private static long[] gramsOf(PasswordEntry entry) {
+        CharSequence source = entry.sourceView();
+        CharSequence login = entry.loginView();
+        long[] grams = new long[Math.max(0, source.length() - GRAM_LENGTH + 1)
+                + Math.max(0, login.length() - GRAM_LENGTH + 1)];
+        int n = 0;
+        for (int i = 0; i + GRAM_LENGTH <= source.length(); i++) {
+            grams[n++] = gram(source, i);
+        }
+        for (int i = 0; i + GRAM_LENGTH <= login.length(); i++) {
+            grams[n++] = gram(login, i);
+        }
+        // Each entry is posted once per distinct trigram
+        Arrays.sort(grams);
+        int distinct = 0;
+        for (int i = 0; i < grams.length; i++) {
+            if (i == 0 || grams[i] != grams[i - 1]) {
+                grams[distinct++] = grams[i];
+            }
+        }
+        return Arrays.copyOf(grams, distinct);
+    }
+
+    private static long gram(CharSequence text, int start) {
+        return (long) Character.toLowerCase(text.charAt(start)) << 32
+                | (long) Character.toLowerCase(text.charAt(start + 1)) << 16
+                | Character.toLowerCase(text.charAt(start + 2));
+    }
+
+    /**
+     * Ascending list of the ids of the documents containing one trigram.
+     */
+    private static final class Postings {
+        private int[] ids = new int[4];
+        private int size;
+
+        private void add(int id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size << 1);
+            }
+            ids[size++] = id;
+        }
+
+        /**
+         * Keeps only the ids of {@code others} that are also in this list.
+         * Both lists are ascending; each lookup gallops forward from the previous match.
+         *
+         * @param others The ascending ids to filter in place.
+         * @param count  The number of valid ids in {@code others}.
+         * @return The number of ids kept at the start of {@code others}.
+         */
+        private int retainAll(int[] others, int count) {
+            int kept = 0;
+            int from = 0;
+            for (int i = 0; i < count && from < size; i++) {
+                int id = others[i];
+                int step = 1;
+                int to = from;
+                while (to < size && ids[to] < id) {
+                    from = to;
+                    to += step;
+                    step <<= 1;
+                }
+                int found = Arrays.binarySearch(ids, from, Math.min(to + 1, size), id);
+                if (found >= 0) {
+                    others[kept++] = id;
+                    from = found + 1;
+                } else {
+                    from = -found - 1;
+                }
+            }
+            return kept;
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package storage;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Compact binary encoding used by the versioned vault format and by binary exports: unsigned
+ * LEB128 varints for lengths and counts, UTF-8 for character data and raw bytes for sealed passwords.
+ * Character data must come back exactly as it was written, since sealed passwords are bound to the
+ * UTF-16 text of their source and login, so unpaired surrogates are encoded too, as in WTF-8.
+ *
+ * <p>The {@link Writer} encodes into a growable array that is kept between saves, so a steady
+ * state save does not reallocate it. The static readers decode straight from a buffer.
+ */
+public final class VaultCodec {
+    private VaultCodec() {
+    }
+
+    /**
+     * Reusable output buffer. It holds plaintext, so callers wipe it after each use.
+     */
+    public static final class Writer {
+        private byte[] buf = new byte[4096];
+        private int size;
+
+        /**
+         * Empties the buffer and zeroes the bytes written since the previous reset.
+         */
+        public void reset() {
+            Arrays.fill(buf, 0, size, (byte) 0);
+            size = 0;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public byte[] array() {
+            return buf;
+        }
+
+        public void putVarint(int value) {
+            ensure(5);
+            while ((value & ~0x7F) != 0) {
+                buf[size++] = (byte) (value & 0x7F | 0x80);
+                value >>>= 7;
+            }
+            buf[size++] = (byte) value;
+        }
+
+        public void putByte(byte value) {
+            ensure(1);
+            buf[size++] = value;
+        }
+
+        public void putBytes(byte[] bytes) {
+            putVarint(bytes.length);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, size, bytes.length);
+            size += bytes.length;
+        }
+
+        /**
+         * Writes the bytes as they are, without a length prefix.
+         *
+         * @param bytes  The array holding the bytes.
+         * @param offset The index of the first byte to write.
+         * @param length The number of bytes to write.
+         */
+        public void putRaw(byte[] bytes, int offset, int length) {
+            ensure(length);
+            System.arraycopy(bytes, offset, buf, size, length);
+            size += length;
+        }
+
+        /**
+         * Writes the remaining bytes of the buffer like {@link #putBytes(byte[])}, without consuming them.
+         *
+         * @param bytes The bytes to write.
+         */
+        public void putBytes(ByteBuffer bytes) {
+            int length = bytes.remaining();
+            putVarint(length);
+            ensure(length);
+            bytes.get(bytes.position(), buf, size, length);
+            size += length;
+        }
+
+        /**
+         * Writes the UTF-8 encoded length followed by the UTF-8 bytes of the characters.
+         * Unlike {@link java.nio.charset.StandardCharsets#UTF_8}, which replaces an unpaired surrogate
+         * with {@code '?'}, it writes the surrogate in three bytes like any other char, so that
+         * {@link VaultCodec#getUtf8(ByteBuffer)} returns the same characters.
+         *
+         * @param chars The characters to encode.
+         */
+        public void putUtf8(CharSequence chars) {
+            int length = chars.length();
+            int encoded = utf8Length(chars);
+            putVarint(encoded);
+            ensure(encoded);
+            int i = 0;
+            // ASCII fast path, the common case for sources and logins
+            while (i < length && chars.charAt(i) < 0x80) {
+                buf[size++] = (byte) chars.charAt(i++);
+            }
+            for (; i < length; i++) {
+                char c = chars.charAt(i);
+                if (c < 0x80) {
+                    buf[size++] = (byte) c;
+                } else if (c < 0x800) {
+                    buf[size++] = (byte) (0xC0 | c >> 6);
+                    buf[size++] = (byte) (0x80 | c & 0x3F);
+                } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(chars.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, chars.charAt(++i));
+                    buf[size++] = (byte) (0xF0 | cp >> 18);
+                    buf[size++] = (byte) (0x80 | cp >> 12 & 0x3F);
+                    buf[size++] = (byte) (0x80 | cp >> 6 & 0x3F);
+                    buf[size++] = (byte) (0x80 | cp & 0x3F);
+                } else {
+                    buf[size++] = (byte) (0xE0 | c >> 12);
+                    buf[size++] = (byte) (0x80 | c >> 6 & 0x3F);
+                    buf[size++] = (byte) (0x80 | c & 0x3F);
+                }
+            }
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > buf.length) {
+                byte[] grown = Arrays.copyOf(buf, Math.max(buf.length << 1, size + extra));
+                Arrays.fill(buf, 0, size, (byte) 0);
+                buf = grown;
+            }
+        }
+    }
+
+    /**
+     * Computes the number of bytes {@link Writer#putUtf8(CharSequence)} writes for the characters.
+     *
+     * @param chars The characters to measure.
+     * @return The UTF-8 length, excluding the length prefix.
+     */
+    public static int utf8Length(CharSequence chars) {
+        int length = chars.length();
+        int bytes = length;
+        for (int i = 0; i < length; i++) {
+            char c = chars.charAt(i);
+            if (c >= 0x800) {
+                if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(chars.charAt(i + 1))) {
+                    bytes += 2; // four bytes for the pair of chars
+                    i++;
+                } else {
+                    bytes += 2;
+                }
+            } else if (c >= 0x80) {
+                bytes += 1;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Reads an unsigned LEB128 varint of at most 32 bits.
+     *
+     * @param buffer The buffer to read from.
+     * @return The decoded value.
+     * @throws BufferUnderflowException If the buffer ends inside the varint.
+     * @throws IllegalArgumentException If the varint is longer than five bytes.
+     */
+    public static int getVarint(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    /**
+     * Reads a length-prefixed byte array written by {@link Writer#putBytes(byte[])}.
+     *
+     * @param buffer The buffer to read from.
+     * @return The read bytes.
+     */
+    public static byte[] getBytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[checkedLength(buffer)];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Reads length-prefixed UTF-8 written by {@link Writer#putUtf8(CharSequence)}, including the
+     * unpaired surrogates it encodes.
+     *
+     * @param buffer The buffer to read from.
+     * @return The decoded characters.
+     * @throws IllegalArgumentException If the bytes are not well-formed UTF-8.
+     */
+    public static char[] getUtf8(ByteBuffer buffer) {
+        int encoded = checkedLength(buffer);
+        int end = buffer.position() + encoded;
+        // UTF-8 never needs more chars than bytes
+        char[] chars = new char[encoded];
+        int n = 0;
+        while (buffer.position() < end) {
+            int b = buffer.get();
+            if (b >= 0) {
+                chars[n++] = (char) b;
+            } else if ((b & 0xE0) == 0xC0) {
+                chars[n++] = (char) ((b & 0x1F) << 6 | continuation(buffer, end));
+            } else if ((b & 0xF0) == 0xE0) {
+                chars[n++] = (char) ((b & 0x0F) << 12 | continuation(buffer, end) << 6 | continuation(buffer, end));
+            } else if ((b & 0xF8) == 0xF0) {
+                int cp = (b & 0x07) << 18 | continuation(buffer, end) << 12
+                        | continuation(buffer, end) << 6 | continuation(buffer, end);
+                if (!Character.isSupplementaryCodePoint(cp)) throw new IllegalArgumentException("Malformed UTF-8");
+                chars[n++] = Character.highSurrogate(cp);
+                chars[n++] = Character.lowSurrogate(cp);
+            } else {
+                throw new IllegalArgumentException("Malformed UTF-8");
+            }
+        }
+        if (n == chars.length) {
+            return chars;
+        }
+        char[] exact = Arrays.copyOf(chars, n);
+        Arrays.fill(chars, '\0');
+        return exact;
+    }
+
+    private static int continuation(ByteBuffer buffer, int end) {
+        if (buffer.position() >= end) throw new IllegalArgumentException("Truncated UTF-8");
+        int b = buffer.get();
+        if ((b & 0xC0) != 0x80) throw new IllegalArgumentException("Malformed UTF-8");
+        return b & 0x3F;
+    }
+
+    private static int checkedLength(ByteBuffer buffer) {
+        int length = getVarint(buffer);
+        if (length < 0 || length > buffer.remaining()) throw new BufferUnderflowException();
+        return length;
+    }
+}
@@ -0,0 +1,260 @@
+package storage;
+
+import metrics.Operation;
+import metrics.VaultMetrics;
+import model.PasswordEntry;
+import model.PasswordEntryBuilder;
+import model.PasswordUnsealer;
+import strategy.EncryptionStrategy;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Append-only log of the mutations made since the last snapshot of a vault file.
+ * Every record is sealed on its own with the vault's encryption strategy, so a mutation costs
+ * one small encrypted append instead of a rewrite of the whole vault.
+ *
+ * <p>On disk the journal starts with the magic {@code "SJVJ"} and the generation of the snapshot it
+ * extends, a random number the vault header records and every snapshot renews. Each record follows as
+ * its sealed length and the sealed bytes, with the generation as associated data. The plaintext holds a
+ * sequence number, which makes replay reject reordered or duplicated records, followed by the
+ * operation and its fields. A journal of another generation, such as one left behind by a crash between
+ * writing a snapshot and deleting the journal, is already part of the snapshot and is discarded unread.
+ *
+ * <p>Journals written before the generations existed have no header and their records no associated
+ * data. They are only replayed onto a snapshot without a generation, which the next save replaces.
+ */
+class VaultJournal {
+    private static final byte OP_ADD = 1; // plaintext password, only read back from older journals
+    private static final byte OP_DELETE = 2;
+    private static final byte OP_ADD_SEALED = 3;
+
+    private static final int MAGIC = 0x534A564A; // "SJVJ"
+    private static final int HEADER_LENGTH = 12; // magic and generation
+
+    /**
+     * The generation of snapshots written before generations existed.
+     */
+    static final long NO_GENERATION = 0;
+
+    private final File file;
+    private long nextSequence;
+
+    /**
+     * Constructs a journal stored in the given file.
+     *
+     * @param file The journal file, kept next to the snapshot.
+     */
+    VaultJournal(File file) {
+        this.file = file;
+    }
+
+    /**
+     * A mutation that has been applied in memory and is waiting to be appended.
+     */
+    static final class Record {
+        private final byte op;
+        private final char[] source;
+        private final char[] login;
+        private final byte[] sealedPassword;
+
+        private Record(byte op, char[] source, char[] login, byte[] sealedPassword) {
+            this.op = op;
+            this.source = source;
+            this.login = login;
+            this.sealedPassword = sealedPassword;
+        }
+
+        // Copied, because the entry may be replaced, and its memory zeroed, before the next save
+        static Record add(PasswordEntry sealedEntry) {
+            return new Record(OP_ADD_SEALED, sealedEntry.getSource(), sealedEntry.getLogin(), sealedEntry.getSealedPassword());
+        }
+
+        static Record delete(char[] source, char[] login) {
+            return new Record(OP_DELETE, source.clone(), login.clone(), null);
+        }
+    }
+
+    /**
+     * Receives the records read back from the journal.
+     */
+    interface Replayer {
+        void add(PasswordEntry entry);
+
+        void delete(char[] source, char[] login);
+    }
+
+    /**
+     * Returns the current size of the journal file.
+     *
+     * @return The size in bytes, or 0 if there is no journal.
+     */
+    long length() {
+        return file.length();
+    }
+
+    /**
+     * Reads every intact record and hands it to the replayer in order.
+     * A torn or unreadable tail, as left by a crash during an append, is cut off, and a journal that
+     * does not extend the given snapshot generation is deleted.
+     *
+     * @param strategy   The strategy the records were sealed with.
+     * @param generation The generation of the loaded snapshot, or {@link #NO_GENERATION}.
+     * @param unsealer   The unsealer given to replayed entries with a sealed password.
+     * @param replayer   The receiver of the replayed operations.
+     * @throws IOException If the journal cannot be read, truncated or deleted.
+     */
+    void replay(EncryptionStrategy strategy, long generation, PasswordUnsealer unsealer, Replayer replayer) throws IOException {
+        nextSequence = 0;
+        if (!file.exists()) return;
+        long valid = 0;
+        boolean stale = false;
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            byte[] associatedData = null; // none in a journal without header
+            dis.mark(HEADER_LENGTH);
+            if (file.length() >= HEADER_LENGTH && dis.readInt() == MAGIC) {
+                stale = dis.readLong() != generation;
+                associatedData = associatedData(generation);
+                valid = HEADER_LENGTH;
+            } else {
+                // Without a header the journal predates any snapshot that has a generation
+                stale = generation != NO_GENERATION;
+                dis.reset();
+            }
+            while (!stale) {
+                byte[] sealed;
+                try {
+                    int length = dis.readInt();
+                    if (length < 0 || length > file.length() - valid - 4) break;
+                    sealed = new byte[length];
+                    dis.readFully(sealed);
+                } catch (EOFException e) {
+                    break;
+                }
+                byte[] data = open(strategy, sealed, associatedData);
+                if (data == null || !apply(data, unsealer, replayer)) break;
+                valid += 4 + sealed.length;
+            }
+        }
+        if (stale) {
+            // Written before the snapshot, which already holds all of its records
+            reset();
+        } else if (valid < file.length()) {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(valid);
+            }
+        }
+    }
+
+    private static byte[] open(EncryptionStrategy strategy, byte[] sealed, byte[] associatedData) {
+        if (associatedData == null) return strategy.decrypt(sealed);
+        int length = strategy.decryptedLength(sealed.length);
+        if (length < 0) return null;
+        byte[] data = new byte[length];
+        return strategy.decrypt(ByteBuffer.wrap(sealed), ByteBuffer.wrap(data), associatedData) == length ? data : null;
+    }
+
+    private static byte[] associatedData(long generation) {
+        return ByteBuffer.allocate(8).putLong(generation).array();
+    }
+
+    private boolean apply(byte[] data, PasswordUnsealer unsealer, Replayer replayer) throws IOException {
+        try (DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data))) {
+            if (dis.readLong() != nextSequence) return false;
+            byte op = dis.readByte();
+            char[] source = FilePasswordStorage.readCharArray(dis);
+            char[] login = FilePasswordStorage.readCharArray(dis);
+            if (op == OP_ADD) {
+                replayer.add(new PasswordEntryBuilder()
+                        .setSource(source)
+                        .setLogin(login)
+                        .setPassword(FilePasswordStorage.readCharArray(dis))
+                        .build());
+            } else if (op == OP_ADD_SEALED) {
+                replayer.add(new PasswordEntryBuilder()
+                        .setSource(source)
+                        .setLogin(login)
+                        .setSealedPassword(FilePasswordStorage.readByteArray(dis), unsealer)
+                        .build());
+            } else if (op == OP_DELETE) {
+                replayer.delete(source, login);
+            } else {
+                return false;
+            }
+            nextSequence++;
+            return true;
+        }
+    }
+
+    /**
+     * Seals the records one by one, appends them to the journal and forces them to disk, so that a
+     * save reported as successful survives a crash. A new journal starts with its header.
+     * The journal must be empty or extend the given generation.
+     *
+     * @param strategy   The strategy to seal the records with.
+     * @param generation The generation of the snapshot on disk.
+     * @param records    The records to append, in the order they were applied.
+     * @throws IOException If the journal cannot be written.
+     */
+    void append(EncryptionStrategy strategy, long generation, List<Record> records) throws IOException {
+        // Sealing is counted as encryption, so the records are sealed before the write is timed
+        byte[] associatedData = associatedData(generation);
+        List<byte[]> sealed = new ArrayList<>(records.size());
+        for (int i = 0; i < records.size(); i++) {
+            byte[] data = encode(records.get(i), nextSequence + i);
+            byte[] record = new byte[strategy.encryptedLength(data.length)];
+            strategy.encrypt(ByteBuffer.wrap(data), ByteBuffer.wrap(record), associatedData);
+            sealed.add(record);
+        }
+        boolean empty = file.length() == 0;
+        try (FileOutputStream fos = new FileOutputStream(file, true);
+             DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(fos))) {
+            try (VaultMetrics.Timing timing = VaultMetrics.time(Operation.FILE_WRITE)) {
+                if (empty) {
+                    dos.writeInt(MAGIC);
+                    dos.writeLong(generation);
+                }
+                for (byte[] record : sealed) {
+                    FilePasswordStorage.writeByteArray(dos, record);
+                    nextSequence++;
+                }
+                dos.flush();
+                timing.bytes(dos.size());
+            }
+            try (VaultMetrics.Timing timing = VaultMetrics.time(Operation.FILE_SYNC)) {
+                timing.bytes(file.length());
+                fos.getFD().sync();
+            }
+        }
+    }
+
+    private static byte[] encode(Record r, long sequence) throws IOException {
+        try (ByteArrayOutputStream bos = new ByteArrayOutputStream();
+             DataOutputStream dos = new DataOutputStream(bos)) {
+            dos.writeLong(sequence);
+            dos.writeByte(r.op);
+            FilePasswordStorage.writeCharArray(dos, r.source);
+            FilePasswordStorage.writeCharArray(dos, r.login);
+            if (r.op == OP_ADD_SEALED) {
+                FilePasswordStorage.writeByteArray(dos, r.sealedPassword);
+            }
+            dos.flush();
+            return bos.toByteArray();
+        }
+    }
+
+    /**
+     * Empties the journal after its records have been folded into a new snapshot.
+     *
+     * @throws IOException If the journal cannot be deleted.
+     */
+    void reset() throws IOException {
+        nextSequence = 0;
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Failed to delete journal " + file);
+        }
+    }
+}
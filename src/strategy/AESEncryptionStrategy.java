@@ -1,11 +1,18 @@
 package strategy;
 
 import javax.crypto.Cipher;
+import javax.crypto.NoSuchPaddingException;
 import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 
 public class AESEncryptionStrategy implements EncryptionStrategy {
+    private static final int BLOCK_SIZE = 16;
+
     private final SecretKeySpec secretKey;
+    // Cipher instances are not thread-safe, so each thread keeps its own
+    private final ThreadLocal<Cipher> cipher = ThreadLocal.withInitial(AESEncryptionStrategy::newCipher);
 
     public AESEncryptionStrategy(char[] key) {
         // Формируем ключ 16 байт из мастер-пароля
@@ -17,12 +24,20 @@ public class AESEncryptionStrategy implements EncryptionStrategy {
         Arrays.fill(key, '\0');
     }
 
+    private static Cipher newCipher() {
+        try {
+            return Cipher.getInstance("AES");
+        } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+            throw new RuntimeException("Ошибка инициализации шифра", e);
+        }
+    }
+
     @Override
     public byte[] encrypt(byte[] data) {
         try {
-            Cipher cipher = Cipher.getInstance("AES");
-            cipher.init(Cipher.ENCRYPT_MODE, secretKey);
-            return cipher.doFinal(data);
+            Cipher c = cipher.get();
+            c.init(Cipher.ENCRYPT_MODE, secretKey);
+            return c.doFinal(data);
         } catch (Exception e) {
             throw new RuntimeException("Ошибка шифрования", e);
         }
@@ -31,11 +46,44 @@ public class AESEncryptionStrategy implements EncryptionStrategy {
     @Override
     public byte[] decrypt(byte[] data) {
         try {
-            Cipher cipher = Cipher.getInstance("AES");
-            cipher.init(Cipher.DECRYPT_MODE, secretKey);
-            return cipher.doFinal(data);
+            Cipher c = cipher.get();
+            c.init(Cipher.DECRYPT_MODE, secretKey);
+            return c.doFinal(data);
         } catch (Exception e) {
             return null;
         }
     }
-}
\ No newline at end of file
+
+    @Override
+    public int encrypt(ByteBuffer src, ByteBuffer dst) {
+        try {
+            Cipher c = cipher.get();
+            c.init(Cipher.ENCRYPT_MODE, secretKey);
+            return c.doFinal(src, dst);
+        } catch (Exception e) {
+            throw new RuntimeException("Ошибка шифрования", e);
+        }
+    }
+
+    @Override
+    public int decrypt(ByteBuffer src, ByteBuffer dst) {
+        try {
+            Cipher c = cipher.get();
+            c.init(Cipher.DECRYPT_MODE, secretKey);
+            return c.doFinal(src, dst);
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public int encryptedLength(int plaintextLength) {
+        // PKCS#5 padding always adds between 1 and 16 bytes
+        return (plaintextLength / BLOCK_SIZE + 1) * BLOCK_SIZE;
+    }
+
+    @Override
+    public int decryptedLength(int ciphertextLength) {
+        return ciphertextLength > 0 && ciphertextLength % BLOCK_SIZE == 0 ? ciphertextLength : -1;
+    }
+}
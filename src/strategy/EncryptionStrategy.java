@@ -1,6 +1,94 @@
 package strategy;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
 public interface EncryptionStrategy {
     byte[] encrypt(byte[] data);
     byte[] decrypt(byte[] data);
-}
\ No newline at end of file
+
+    /**
+     * Encrypts the remaining bytes of {@code src} into {@code dst}, which may be a direct buffer.
+     * On return {@code src} is fully consumed and {@code dst} is advanced past the ciphertext.
+     *
+     * @param src The plaintext between its position and limit.
+     * @param dst The buffer receiving the ciphertext; it needs {@link #encryptedLength(int)} bytes remaining.
+     * @return The number of bytes written to {@code dst}.
+     * @throws RuntimeException If encryption fails.
+     */
+    int encrypt(ByteBuffer src, ByteBuffer dst);
+
+    /**
+     * Decrypts the remaining bytes of {@code src} into {@code dst}, which may be a direct buffer.
+     * On success {@code src} is fully consumed and {@code dst} is advanced past the plaintext.
+     *
+     * @param src The ciphertext between its position and limit.
+     * @param dst The buffer receiving the plaintext; it needs {@link #decryptedLength(int)} bytes remaining.
+     * @return The number of bytes written to {@code dst}, or {@code -1} if decryption fails.
+     */
+    int decrypt(ByteBuffer src, ByteBuffer dst);
+
+    /**
+     * Encrypts like {@link #encrypt(ByteBuffer, ByteBuffer)}, and also authenticates associated data
+     * that is not part of the ciphertext: decryption only succeeds when given the same data.
+     * Strategies that do not authenticate their ciphertext keep the default, which rejects the call.
+     *
+     * @param src            The plaintext between its position and limit.
+     * @param dst            The buffer receiving the ciphertext; it needs {@link #encryptedLength(int)} bytes remaining.
+     * @param associatedData The data to authenticate along with the ciphertext.
+     * @return The number of bytes written to {@code dst}.
+     * @throws UnsupportedOperationException If the strategy cannot authenticate associated data.
+     * @throws RuntimeException              If encryption fails.
+     */
+    default int encrypt(ByteBuffer src, ByteBuffer dst, byte[] associatedData) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " cannot authenticate associated data");
+    }
+
+    /**
+     * Decrypts ciphertext produced by {@link #encrypt(ByteBuffer, ByteBuffer, byte[])}.
+     *
+     * @param src            The ciphertext between its position and limit.
+     * @param dst            The buffer receiving the plaintext; it needs {@link #decryptedLength(int)} bytes remaining.
+     * @param associatedData The data that was authenticated with the ciphertext.
+     * @return The number of bytes written to {@code dst}, or {@code -1} if decryption fails.
+     * @throws UnsupportedOperationException If the strategy cannot authenticate associated data.
+     */
+    default int decrypt(ByteBuffer src, ByteBuffer dst, byte[] associatedData) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " cannot authenticate associated data");
+    }
+
+    /**
+     * Returns the exact size of the ciphertext produced for a plaintext of the given length.
+     *
+     * @param plaintextLength The length of the plaintext.
+     * @return The length of the ciphertext.
+     */
+    int encryptedLength(int plaintextLength);
+
+    /**
+     * Returns an upper bound for the size of the plaintext recovered from a ciphertext of the given length.
+     *
+     * @param ciphertextLength The length of the ciphertext.
+     * @return The maximum length of the plaintext, or {@code -1} if no valid ciphertext has that length.
+     */
+    int decryptedLength(int ciphertextLength);
+
+    /**
+     * Decrypts ciphertext read from a channel. Implementations may read the channel in fixed-size
+     * chunks instead of first copying the whole ciphertext into an array.
+     * The default implementation reads everything and delegates to {@link #decrypt(byte[])}.
+     *
+     * @param channel The channel positioned at the start of the ciphertext.
+     * @param length  The number of ciphertext bytes to read.
+     * @return A buffer holding the plaintext between position and limit, or {@code null} if decryption fails.
+     * @throws IOException If the channel cannot be read.
+     */
+    default ByteBuffer decrypt(ReadableByteChannel channel, long length) throws IOException {
+        byte[] data = Channels.newInputStream(channel).readNBytes(Math.toIntExact(length));
+        if (data.length != length) throw new IOException("Unexpected end of ciphertext");
+        byte[] plain = decrypt(data);
+        return plain != null ? ByteBuffer.wrap(plain) : null;
+    }
+}
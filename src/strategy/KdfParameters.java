@@ -0,0 +1,89 @@
+package strategy;
+
+import java.util.Locale;
+
+/**
+ * Parameters of the key derivation that turns the master password into the vault key.
+ * They are stored in the vault header, so every vault keeps the cost it was created with.
+ */
+public final class KdfParameters {
+    public static final String PBKDF2_HMAC_SHA256 = "PBKDF2WithHmacSHA256";
+
+    /** Parameters of vaults written before the header recorded them. */
+    public static final KdfParameters LEGACY = new KdfParameters(PBKDF2_HMAC_SHA256, 100_000, 256);
+
+    // Calibration never goes below the legacy cost, however slow the machine
+    private static final int MIN_ITERATIONS = LEGACY.iterations;
+    private static final int MAX_ITERATIONS = 10_000_000;
+    private static final int PROBE_ITERATIONS = 20_000;
+    private static final int MAX_PROBES = 100;
+    private static final long CALIBRATION_NANOS = 1_000_000_000L;
+
+    private final String algorithm;
+    private final int iterations;
+    private final int keyLength;
+
+    /**
+     * Constructs key derivation parameters.
+     *
+     * @param algorithm  The algorithm name; only {@value #PBKDF2_HMAC_SHA256} is supported.
+     * @param iterations The iteration count.
+     * @param keyLength  The derived key length in bits: 128, 192 or 256.
+     * @throws IllegalArgumentException If the parameters are not supported.
+     */
+    public KdfParameters(String algorithm, int iterations, int keyLength) {
+        if (!PBKDF2_HMAC_SHA256.equals(algorithm)) {
+            throw new IllegalArgumentException("Unsupported key derivation algorithm " + algorithm);
+        }
+        if (iterations <= 0) {
+            throw new IllegalArgumentException("Invalid iteration count " + iterations);
+        }
+        if (keyLength != 128 && keyLength != 192 && keyLength != 256) {
+            throw new IllegalArgumentException("Invalid key length " + keyLength);
+        }
+        this.algorithm = algorithm;
+        this.iterations = iterations;
+        this.keyLength = keyLength;
+    }
+
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    public int getKeyLength() {
+        return keyLength;
+    }
+
+    /**
+     * Measures how fast this machine runs PBKDF2 and picks the iteration count that takes about the
+     * target time, but never fewer iterations than {@link #LEGACY} uses.
+     *
+     * @param targetMillis The derivation time to aim for.
+     * @return Parameters with the calibrated iteration count and a 256-bit key.
+     */
+    public static KdfParameters calibrate(long targetMillis) {
+        byte[] salt = new byte[16];
+        char[] password = "calibration".toCharArray();
+        long best = Long.MAX_VALUE;
+        // The first probes run before the HMAC code is compiled, so probing goes on for a while
+        // and only the fastest run counts
+        long deadline = System.nanoTime() + CALIBRATION_NANOS;
+        for (int i = 0; i < MAX_PROBES && (i < 3 || System.nanoTime() < deadline); i++) {
+            long start = System.nanoTime();
+            Pbkdf2.derive(password, salt, PROBE_ITERATIONS, 32, null);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        long iterations = targetMillis * 1_000_000L * PROBE_ITERATIONS / Math.max(1, best);
+        int clamped = (int) Math.max(MIN_ITERATIONS, Math.min(MAX_ITERATIONS, iterations));
+        return new KdfParameters(PBKDF2_HMAC_SHA256, clamped, 256);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "%s, %d iterations, %d-bit key", algorithm, iterations, keyLength);
+    }
+}
@@ -0,0 +1,85 @@
+package strategy;
+
+import metrics.Operation;
+import metrics.VaultMetrics;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.function.DoubleConsumer;
+
+/**
+ * A key derived once from the master password, from which the keys of several vault files are
+ * expanded. Only the PBKDF2 derivation is slow; each subkey costs a single HMAC-SHA256, the
+ * HKDF-Expand step of RFC 5869 with the master key as its pseudorandom key.
+ */
+public final class MasterKey implements AutoCloseable {
+    private static final String HMAC_ALGO = "HmacSHA256";
+    private static final int HASH_LENGTH = 32;
+
+    private final byte[] key;
+    private boolean closed;
+
+    private MasterKey(byte[] key) {
+        this.key = key;
+    }
+
+    /**
+     * Derives the master key with PBKDF2. The derivation checks for interruption as it goes.
+     *
+     * @param masterPassword The master password as a character array; it is cleared.
+     * @param salt           The salt as a byte array.
+     * @param kdf            The key derivation parameters.
+     * @param progress       Receives the completed fraction of the derivation, or {@code null}.
+     * @return The master key.
+     * @throws CancellationException If the calling thread is interrupted during the derivation.
+     * @throws RuntimeException      If key generation fails.
+     */
+    public static MasterKey derive(char[] masterPassword, byte[] salt, KdfParameters kdf, DoubleConsumer progress) {
+        try (VaultMetrics.Timing timing = VaultMetrics.time(Operation.KEY_DERIVATION)) {
+            timing.items(kdf.getIterations());
+            return new MasterKey(Pbkdf2.derive(masterPassword, salt, kdf.getIterations(), kdf.getKeyLength() / 8, progress));
+        } finally {
+            Arrays.fill(masterPassword, '\0');
+        }
+    }
+
+    /**
+     * Expands the key of one vault file: HMAC(master key, label || INT(index) || 0x01). The label and
+     * index are part of the file layout, as changing them would change the keys of existing files.
+     *
+     * @param label The purpose of the subkey, such as {@code "shard"}.
+     * @param index The index of the file among those of the same purpose.
+     * @return A strategy encrypting with the subkey, which is as long as the master key.
+     * @throws IllegalStateException If this key was closed.
+     */
+    public EncryptionStrategy strategy(String label, int index) {
+        if (closed) throw new IllegalStateException("Master key is closed");
+        byte[] info = label.getBytes(StandardCharsets.UTF_8);
+        byte[] block = new byte[HASH_LENGTH];
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGO);
+            mac.init(new SecretKeySpec(key, HMAC_ALGO));
+            mac.update(info);
+            mac.update(new byte[]{(byte) (index >>> 24), (byte) (index >>> 16), (byte) (index >>> 8), (byte) index, 1});
+            mac.doFinal(block, 0);
+            return new PBKDF2AesGcmEncryptionStrategy(Arrays.copyOf(block, key.length));
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("Error expanding a subkey", e);
+        } finally {
+            Arrays.fill(block, (byte) 0);
+        }
+    }
+
+    /**
+     * Clears the master key; the strategies expanded from it keep working.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        Arrays.fill(key, (byte) 0);
+    }
+}
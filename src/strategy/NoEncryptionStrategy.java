@@ -1,5 +1,7 @@
 package strategy;
 
+import java.nio.ByteBuffer;
+
 public class NoEncryptionStrategy implements EncryptionStrategy {
     @Override
     public byte[] encrypt(byte[] data) {
@@ -10,4 +12,28 @@ public class NoEncryptionStrategy implements EncryptionStrategy {
     public byte[] decrypt(byte[] data) {
         return data;
     }
-}
\ No newline at end of file
+
+    @Override
+    public int encrypt(ByteBuffer src, ByteBuffer dst) {
+        int length = src.remaining();
+        dst.put(src);
+        return length;
+    }
+
+    @Override
+    public int decrypt(ByteBuffer src, ByteBuffer dst) {
+        int length = src.remaining();
+        dst.put(src);
+        return length;
+    }
+
+    @Override
+    public int encryptedLength(int plaintextLength) {
+        return plaintextLength;
+    }
+
+    @Override
+    public int decryptedLength(int ciphertextLength) {
+        return ciphertextLength;
+    }
+}
@@ -1,14 +1,21 @@
 package strategy;
 
+import metrics.Operation;
+import metrics.VaultMetrics;
+
 import javax.crypto.Cipher;
-import javax.crypto.SecretKeyFactory;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.GCMParameterSpec;
-import javax.crypto.spec.PBEKeySpec;
 import javax.crypto.spec.SecretKeySpec;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.security.GeneralSecurityException;
 import java.security.SecureRandom;
-import java.security.spec.KeySpec;
 import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.function.DoubleConsumer;
 
 /**
  * Implementation of EncryptionStrategy using PBKDF2 for key derivation
@@ -16,36 +23,76 @@ import java.util.Arrays;
  */
 public class PBKDF2AesGcmEncryptionStrategy implements EncryptionStrategy {
     // Constants for encryption parameters
-    private static final int AES_KEY_SIZE = 32; // 256 bits
     private static final int GCM_TAG_LENGTH = 128; // 128 bits authentication tag
-    private static final int PBKDF2_ITERATIONS = 100000; // Number of PBKDF2 iterations
-    private static final String PBKDF2_ALGO = "PBKDF2WithHmacSHA256"; // PBKDF2 algorithm
     private static final String AES_ALGO = "AES/GCM/NoPadding"; // AES-GCM mode with no padding
+    private static final int IV_LENGTH = 12; // 96-bit GCM nonce
+    private static final int CHUNK_SIZE = 64 * 1024; // Ciphertext read per Cipher.update call
 
     // Derived AES key
     private final byte[] aesKey;
+    private final SecretKey secretKey;
+
+    // Cipher instances are not thread-safe, so each thread keeps its own, together with a scratch IV
+    private final ThreadLocal<Cipher> cipher = ThreadLocal.withInitial(PBKDF2AesGcmEncryptionStrategy::newCipher);
+    private final ThreadLocal<byte[]> iv = ThreadLocal.withInitial(() -> new byte[IV_LENGTH]);
 
     /**
-     * Constructor that derives the AES key using PBKDF2 with the provided master password and salt.
+     * Constructor that derives the AES key using PBKDF2 with the provided master password and salt,
+     * with the parameters of vaults that do not record their own.
      *
      * @param masterPassword The master password as a character array.
      * @param salt           The salt as a byte array.
      * @throws RuntimeException If key generation fails.
      */
     public PBKDF2AesGcmEncryptionStrategy(char[] masterPassword, byte[] salt) {
-        try {
-            // Define the key specification with the master password, salt, iterations, and key length
-            KeySpec spec = new PBEKeySpec(masterPassword, salt, PBKDF2_ITERATIONS, AES_KEY_SIZE * 8);
-            // Initialize the SecretKeyFactory with the PBKDF2 algorithm
-            SecretKeyFactory factory = SecretKeyFactory.getInstance(PBKDF2_ALGO);
-            // Generate the secret key and retrieve its encoded form
-            byte[] keyBytes = factory.generateSecret(spec).getEncoded();
-            this.aesKey = keyBytes;
+        this(masterPassword, salt, KdfParameters.LEGACY, null);
+    }
 
+    /**
+     * Constructor that derives the AES key using PBKDF2 with the given parameters. The derivation
+     * checks for interruption as it goes, so running it on a background thread makes it cancellable.
+     *
+     * @param masterPassword The master password as a character array; it is cleared.
+     * @param salt           The salt as a byte array.
+     * @param kdf            The key derivation parameters.
+     * @param progress       Receives the completed fraction of the derivation, or {@code null}.
+     * @throws CancellationException If the calling thread is interrupted during the derivation.
+     * @throws RuntimeException      If key generation fails.
+     */
+    public PBKDF2AesGcmEncryptionStrategy(char[] masterPassword, byte[] salt, KdfParameters kdf, DoubleConsumer progress) {
+        try (VaultMetrics.Timing timing = VaultMetrics.time(Operation.KEY_DERIVATION)) {
+            timing.items(kdf.getIterations());
+            this.aesKey = Pbkdf2.derive(masterPassword, salt, kdf.getIterations(), kdf.getKeyLength() / 8, progress);
+            this.secretKey = new SecretKeySpec(aesKey, "AES");
+        } finally {
             // Clear the master password from memory for security
             Arrays.fill(masterPassword, '\0');
-        } catch (Exception e) {
-            throw new RuntimeException("Error generating PBKDF2 key", e);
+        }
+    }
+
+    /**
+     * Constructor that uses a key derived elsewhere, such as a {@link MasterKey} subkey.
+     *
+     * @param aesKey The AES key; it is kept, so the caller must not clear it.
+     */
+    PBKDF2AesGcmEncryptionStrategy(byte[] aesKey) {
+        this.aesKey = aesKey;
+        this.secretKey = new SecretKeySpec(aesKey, "AES");
+    }
+
+    /**
+     * Holds the nonce generator, so that sessions that only read the vault never create and seed it.
+     */
+    private static final class Nonces {
+        // Shared by all instances; SecureRandom is thread-safe
+        static final SecureRandom RANDOM = new SecureRandom();
+    }
+
+    private static Cipher newCipher() {
+        try {
+            return Cipher.getInstance(AES_ALGO);
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("Error creating AES-GCM cipher", e);
         }
     }
 
@@ -58,29 +105,9 @@ public class PBKDF2AesGcmEncryptionStrategy implements EncryptionStrategy {
      */
     @Override
     public byte[] encrypt(byte[] data) {
-        try {
-            // Generate a 12-byte Initialization Vector (IV) using a secure random number generator
-            byte[] iv = new byte[12];
-            SecureRandom sr = new SecureRandom();
-            sr.nextBytes(iv);
-
-            // Initialize the Cipher for AES-GCM encryption
-            Cipher cipher = Cipher.getInstance(AES_ALGO);
-            GCMParameterSpec spec = new GCMParameterSpec(GCM_TAG_LENGTH, iv);
-            SecretKey secretKey = new SecretKeySpec(aesKey, "AES");
-            cipher.init(Cipher.ENCRYPT_MODE, secretKey, spec);
-
-            // Perform the encryption
-            byte[] encrypted = cipher.doFinal(data);
-
-            // Prepend the IV to the encrypted data
-            byte[] result = new byte[iv.length + encrypted.length];
-            System.arraycopy(iv, 0, result, 0, iv.length);
-            System.arraycopy(encrypted, 0, result, iv.length, encrypted.length);
-            return result;
-        } catch (Exception e) {
-            throw new RuntimeException("Error during AES-GCM encryption", e);
-        }
+        byte[] result = new byte[encryptedLength(data.length)];
+        encrypt(ByteBuffer.wrap(data), ByteBuffer.wrap(result));
+        return result;
     }
 
     /**
@@ -91,26 +118,150 @@ public class PBKDF2AesGcmEncryptionStrategy implements EncryptionStrategy {
      */
     @Override
     public byte[] decrypt(byte[] data) {
-        try {
-            // Ensure the data length is sufficient to contain the IV
-            if (data.length < 12) return null;
-
-            // Extract the IV from the beginning of the data
-            byte[] iv = Arrays.copyOfRange(data, 0, 12);
-            // Extract the encrypted portion of the data
-            byte[] encrypted = Arrays.copyOfRange(data, 12, data.length);
-
-            // Initialize the Cipher for AES-GCM decryption
-            Cipher cipher = Cipher.getInstance(AES_ALGO);
-            GCMParameterSpec spec = new GCMParameterSpec(GCM_TAG_LENGTH, iv);
-            SecretKey secretKey = new SecretKeySpec(aesKey, "AES");
-            cipher.init(Cipher.DECRYPT_MODE, secretKey, spec);
-
-            // Perform the decryption and return the plaintext
-            return cipher.doFinal(encrypted);
+        // Ensure the data length is sufficient to contain the IV and the tag
+        int length = decryptedLength(data.length);
+        if (length < 0) return null;
+        byte[] result = new byte[length];
+        return decrypt(ByteBuffer.wrap(data), ByteBuffer.wrap(result)) == length ? result : null;
+    }
+
+    /**
+     * Encrypts the remaining bytes of {@code src} using AES-GCM and writes the IV followed by the
+     * ciphertext and tag to {@code dst}. The calling thread's cached cipher is reused.
+     *
+     * @param src The plaintext data to encrypt.
+     * @param dst The buffer receiving the IV, ciphertext and tag.
+     * @return The number of bytes written to {@code dst}.
+     * @throws RuntimeException If encryption fails.
+     */
+    @Override
+    public int encrypt(ByteBuffer src, ByteBuffer dst) {
+        return encrypt(src, dst, null);
+    }
+
+    /**
+     * Encrypts like {@link #encrypt(ByteBuffer, ByteBuffer)}, with the associated data covered by the GCM tag.
+     *
+     * @param src            The plaintext data to encrypt.
+     * @param dst            The buffer receiving the IV, ciphertext and tag.
+     * @param associatedData The data to authenticate, or {@code null}.
+     * @return The number of bytes written to {@code dst}.
+     * @throws RuntimeException If encryption fails.
+     */
+    @Override
+    public int encrypt(ByteBuffer src, ByteBuffer dst, byte[] associatedData) {
+        try (VaultMetrics.Timing timing = VaultMetrics.sample(Operation.ENCRYPT)) {
+            timing.bytes(src.remaining());
+            // Generate a fresh 12-byte Initialization Vector (IV) for every message
+            byte[] nonce = iv.get();
+            Nonces.RANDOM.nextBytes(nonce);
+
+            Cipher c = cipher.get();
+            c.init(Cipher.ENCRYPT_MODE, secretKey, new GCMParameterSpec(GCM_TAG_LENGTH, nonce));
+            if (associatedData != null) c.updateAAD(associatedData);
+            dst.put(nonce);
+            return IV_LENGTH + c.doFinal(src, dst);
+        } catch (Exception e) {
+            throw new RuntimeException("Error during AES-GCM encryption", e);
+        }
+    }
+
+    /**
+     * Decrypts the remaining bytes of {@code src}, an IV followed by AES-GCM ciphertext and tag, into {@code dst}.
+     * The calling thread's cached cipher is reused.
+     *
+     * @param src The encrypted data with the IV prepended.
+     * @param dst The buffer receiving the plaintext.
+     * @return The number of bytes written to {@code dst}, or {@code -1} if decryption fails.
+     */
+    @Override
+    public int decrypt(ByteBuffer src, ByteBuffer dst) {
+        return decrypt(src, dst, null);
+    }
+
+    /**
+     * Decrypts like {@link #decrypt(ByteBuffer, ByteBuffer)}, failing unless the GCM tag also covers
+     * the associated data.
+     *
+     * @param src            The encrypted data with the IV prepended.
+     * @param dst            The buffer receiving the plaintext.
+     * @param associatedData The data that was authenticated, or {@code null}.
+     * @return The number of bytes written to {@code dst}, or {@code -1} if decryption fails.
+     */
+    @Override
+    public int decrypt(ByteBuffer src, ByteBuffer dst, byte[] associatedData) {
+        try (VaultMetrics.Timing timing = VaultMetrics.sample(Operation.DECRYPT)) {
+            if (decryptedLength(src.remaining()) < 0) return -1;
+            byte[] nonce = iv.get();
+            src.get(nonce);
+
+            Cipher c = cipher.get();
+            c.init(Cipher.DECRYPT_MODE, secretKey, new GCMParameterSpec(GCM_TAG_LENGTH, nonce));
+            if (associatedData != null) c.updateAAD(associatedData);
+            int length = c.doFinal(src, dst);
+            timing.bytes(length);
+            return length;
+        } catch (Exception e) {
+            // Return -1 if decryption fails (e.g., authentication tag mismatch)
+            return -1;
+        }
+    }
+
+    @Override
+    public int encryptedLength(int plaintextLength) {
+        return IV_LENGTH + plaintextLength + GCM_TAG_LENGTH / 8;
+    }
+
+    @Override
+    public int decryptedLength(int ciphertextLength) {
+        int length = ciphertextLength - IV_LENGTH - GCM_TAG_LENGTH / 8;
+        return length >= 0 ? length : -1;
+    }
+
+    /**
+     * Decrypts AES-GCM ciphertext read from a channel in {@value #CHUNK_SIZE}-byte chunks, which are
+     * fed to {@link Cipher#update(ByteBuffer, ByteBuffer)} straight from a reused direct buffer.
+     * GCM cannot release plaintext before the tag is verified, so the provider still buffers the
+     * ciphertext internally, but no additional copies of it are made here.
+     *
+     * @param channel The channel positioned at the IV that precedes the ciphertext.
+     * @param length  The number of bytes to read, IV and tag included.
+     * @return A heap buffer holding the plaintext, or {@code null} if decryption fails.
+     * @throws IOException If the channel cannot be read.
+     */
+    @Override
+    public ByteBuffer decrypt(ReadableByteChannel channel, long length) throws IOException {
+        if (length < IV_LENGTH + GCM_TAG_LENGTH / 8) return null;
+        ByteBuffer chunk = ByteBuffer.allocateDirect((int) Math.min(CHUNK_SIZE, length));
+        byte[] nonce = iv.get();
+        chunk.limit(IV_LENGTH);
+        readFully(channel, chunk);
+        chunk.flip().get(nonce);
+        try (VaultMetrics.Timing timing = VaultMetrics.time(Operation.DECRYPT)) {
+            Cipher c = cipher.get();
+            c.init(Cipher.DECRYPT_MODE, secretKey, new GCMParameterSpec(GCM_TAG_LENGTH, nonce));
+            long remaining = length - IV_LENGTH;
+            ByteBuffer plain = ByteBuffer.allocate(c.getOutputSize(Math.toIntExact(remaining)));
+            while (remaining > 0) {
+                chunk.clear().limit((int) Math.min(chunk.capacity(), remaining));
+                readFully(channel, chunk);
+                remaining -= chunk.flip().remaining();
+                c.update(chunk, plain);
+            }
+            c.doFinal(chunk.clear().flip(), plain);
+            timing.bytes(plain.position());
+            return plain.flip();
+        } catch (IOException e) {
+            throw e;
         } catch (Exception e) {
             // Return null if decryption fails (e.g., authentication tag mismatch)
             return null;
         }
     }
-}
\ No newline at end of file
+
+    private static void readFully(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) throw new EOFException("Unexpected end of ciphertext");
+        }
+    }
+}
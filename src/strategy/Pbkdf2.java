@@ -0,0 +1,93 @@
+package strategy;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.function.DoubleConsumer;
+
+/**
+ * PBKDF2 with HMAC-SHA256 (RFC 8018), computed here rather than by {@code SecretKeyFactory} so that
+ * a long derivation can report its progress and be cancelled. It derives the same keys as
+ * {@code PBKDF2WithHmacSHA256}, which encodes the password as UTF-8 as well.
+ */
+final class Pbkdf2 {
+    private static final String HMAC_ALGO = "HmacSHA256";
+    private static final int HASH_LENGTH = 32;
+    private static final int PROGRESS_INTERVAL = 4096; // iterations between progress reports
+
+    private Pbkdf2() {
+    }
+
+    /**
+     * Derives a key from the password.
+     *
+     * @param password   The password; it is left unchanged.
+     * @param salt       The salt.
+     * @param iterations The iteration count.
+     * @param keyBytes   The key length in bytes.
+     * @param progress   Receives the completed fraction from 0 to 1, or {@code null}.
+     * @return The derived key.
+     * @throws CancellationException If the calling thread is interrupted during the derivation.
+     */
+    static byte[] derive(char[] password, byte[] salt, int iterations, int keyBytes, DoubleConsumer progress) {
+        ByteBuffer encoded = StandardCharsets.UTF_8.encode(CharBuffer.wrap(password));
+        byte[] passwordBytes = new byte[Math.max(1, encoded.remaining())]; // HMAC pads an empty key with zeros anyway
+        encoded.get(passwordBytes, 0, encoded.remaining());
+        wipe(encoded);
+        byte[] key = new byte[keyBytes];
+        byte[] u = new byte[HASH_LENGTH];
+        byte[] t = new byte[HASH_LENGTH];
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGO);
+            mac.init(new SecretKeySpec(passwordBytes, HMAC_ALGO));
+            int blocks = (keyBytes + HASH_LENGTH - 1) / HASH_LENGTH;
+            long total = (long) blocks * iterations;
+            for (int block = 1; block <= blocks; block++) {
+                // U1 = HMAC(P, S || INT(block)), Ui = HMAC(P, Ui-1), T = U1 ^ U2 ^ ... ^ Uc
+                mac.update(salt);
+                mac.update(new byte[]{(byte) (block >>> 24), (byte) (block >>> 16), (byte) (block >>> 8), (byte) block});
+                mac.doFinal(u, 0);
+                System.arraycopy(u, 0, t, 0, HASH_LENGTH);
+                for (int i = 1; i < iterations; i++) {
+                    mac.update(u);
+                    mac.doFinal(u, 0);
+                    for (int j = 0; j < HASH_LENGTH; j++) {
+                        t[j] ^= u[j];
+                    }
+                    if (i % PROGRESS_INTERVAL == 0) {
+                        if (Thread.currentThread().isInterrupted()) {
+                            throw new CancellationException("Key derivation cancelled");
+                        }
+                        if (progress != null) {
+                            progress.accept(((block - 1L) * iterations + i) / (double) total);
+                        }
+                    }
+                }
+                int offset = (block - 1) * HASH_LENGTH;
+                System.arraycopy(t, 0, key, offset, Math.min(HASH_LENGTH, keyBytes - offset));
+            }
+            if (progress != null) {
+                progress.accept(1.0);
+            }
+            return key;
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("Error generating PBKDF2 key", e);
+        } finally {
+            Arrays.fill(passwordBytes, (byte) 0);
+            Arrays.fill(u, (byte) 0);
+            Arrays.fill(t, (byte) 0);
+        }
+    }
+
+    private static void wipe(ByteBuffer buffer) {
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+            buffer.put((byte) 0);
+        }
+    }
+}
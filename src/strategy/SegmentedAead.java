@@ -0,0 +1,158 @@
+package strategy;
+
+import metrics.Operation;
+import metrics.VaultMetrics;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * Segmented AES-GCM shared by {@link SegmentedAeadOutputStream} and {@link SegmentedAeadInputStream}.
+ *
+ * <p>A stream starts with a header: the magic {@code "SJVB"}, a version byte and the length of the
+ * rest of the header as a short, then the plaintext segment size as an int, the salt length as one
+ * byte and the salt, the key derivation parameters as in the vault header, and a random 7-byte nonce
+ * prefix. The key is derived from the password and this salt, so every stream has a key of its own.
+ *
+ * <p>The plaintext follows in segments of the header's size, each sealed on its own, with the whole
+ * header as associated data. The nonce of a segment is the prefix, the segment index as an int and a
+ * byte that is 1 for the final segment only, which may be shorter and is never missing. Segments
+ * therefore cannot be reordered, dropped, truncated at a boundary or appended to.
+ */
+final class SegmentedAead {
+    static final byte[] MAGIC = {'S', 'J', 'V', 'B'};
+    static final int VERSION = 1;
+    static final int SEGMENT_SIZE = 64 * 1024; // plaintext bytes per segment, so each takes one write
+    static final int MIN_SEGMENT_SIZE = 1024;
+    static final int MAX_SEGMENT_SIZE = 1 << 24;
+    static final int TAG_LENGTH = 16;
+    static final int SALT_LENGTH = 16;
+    static final int NONCE_PREFIX_LENGTH = 7;
+    static final int PREAMBLE_LENGTH = MAGIC.length + 3; // magic, version and the length of the rest
+    static final int MAX_HEADER_LENGTH = 256;
+
+    private static final String AES_ALGO = "AES/GCM/NoPadding";
+    private static final int NONCE_LENGTH = 12;
+
+    private final int mode;
+    private final Cipher cipher;
+    private final SecretKeySpec key;
+    private final byte[] header;
+    private final byte[] nonce = new byte[NONCE_LENGTH];
+    private final int segmentSize;
+    private int segment; // index of the next segment
+    private boolean finished;
+
+    /**
+     * Derives the key of a stream from the password and the salt in its header.
+     *
+     * @param mode     {@link Cipher#ENCRYPT_MODE} or {@link Cipher#DECRYPT_MODE}.
+     * @param password The password; it is left unchanged.
+     * @param header   The complete header, as written or read.
+     * @throws IOException If the header is malformed or names unsupported parameters.
+     */
+    SegmentedAead(int mode, char[] password, byte[] header) throws IOException {
+        this.mode = mode;
+        this.header = header;
+        ByteBuffer buffer = ByteBuffer.wrap(header, PREAMBLE_LENGTH, header.length - PREAMBLE_LENGTH);
+        byte[] salt;
+        KdfParameters kdf;
+        try {
+            segmentSize = buffer.getInt();
+            if (segmentSize < MIN_SEGMENT_SIZE || segmentSize > MAX_SEGMENT_SIZE) {
+                throw new IOException("Invalid backup segment size " + segmentSize);
+            }
+            salt = new byte[buffer.get() & 0xFF];
+            buffer.get(salt);
+            byte[] algorithm = new byte[buffer.get() & 0xFF];
+            buffer.get(algorithm);
+            kdf = new KdfParameters(new String(algorithm, StandardCharsets.US_ASCII), buffer.getInt(), buffer.getShort() & 0xFFFF);
+            buffer.get(nonce, 0, NONCE_PREFIX_LENGTH);
+        } catch (RuntimeException e) {
+            throw new IOException("Malformed backup header", e);
+        }
+        byte[] raw;
+        try (VaultMetrics.Timing timing = VaultMetrics.time(Operation.KEY_DERIVATION)) {
+            timing.items(kdf.getIterations());
+            raw = Pbkdf2.derive(password, salt, kdf.getIterations(), kdf.getKeyLength() / 8, null);
+        }
+        key = new SecretKeySpec(raw, "AES");
+        Arrays.fill(raw, (byte) 0);
+        try {
+            cipher = Cipher.getInstance(AES_ALGO);
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("Error creating AES-GCM cipher", e);
+        }
+    }
+
+    /**
+     * Builds the header of a new stream with a fresh salt and nonce prefix.
+     *
+     * @param kdf    The key derivation parameters to record.
+     * @param random The source of the salt and nonce prefix.
+     * @return The header bytes.
+     */
+    static byte[] newHeader(KdfParameters kdf, SecureRandom random) {
+        byte[] salt = new byte[SALT_LENGTH];
+        random.nextBytes(salt);
+        byte[] prefix = new byte[NONCE_PREFIX_LENGTH];
+        random.nextBytes(prefix);
+        byte[] algorithm = kdf.getAlgorithm().getBytes(StandardCharsets.US_ASCII);
+        int length = 4 + 1 + salt.length + 1 + algorithm.length + 4 + 2 + prefix.length;
+        return ByteBuffer.allocate(PREAMBLE_LENGTH + length)
+                .put(MAGIC)
+                .put((byte) VERSION)
+                .putShort((short) length)
+                .putInt(SEGMENT_SIZE)
+                .put((byte) salt.length)
+                .put(salt)
+                .put((byte) algorithm.length)
+                .put(algorithm)
+                .putInt(kdf.getIterations())
+                .putShort((short) kdf.getKeyLength())
+                .put(prefix)
+                .array();
+    }
+
+    int segmentSize() {
+        return segmentSize;
+    }
+
+    /**
+     * Seals or opens the next segment.
+     *
+     * @param src    The plaintext, or the ciphertext and tag.
+     * @param length The number of bytes of {@code src} to process.
+     * @param dst    Receives the ciphertext and tag, or the plaintext.
+     * @param last   Whether this is the final segment.
+     * @return The number of bytes written to {@code dst}.
+     * @throws IOException If an opened segment is not authentic or not the segment expected here, or
+     *                     if the stream has already ended or has too many segments.
+     */
+    int process(byte[] src, int length, byte[] dst, boolean last) throws IOException {
+        if (finished) throw new IOException("The backup has already ended");
+        if (segment < 0) throw new IOException("The backup has too many segments");
+        ByteBuffer.wrap(nonce, NONCE_PREFIX_LENGTH, 5).putInt(segment).put((byte) (last ? 1 : 0));
+        segment++;
+        finished = last;
+        try {
+            cipher.init(mode, key, new GCMParameterSpec(TAG_LENGTH * 8, nonce));
+            cipher.updateAAD(header);
+            return cipher.doFinal(src, 0, length, dst, 0);
+        } catch (AEADBadTagException e) {
+            // Only the first segment tells a wrong password from damage; later ones share its key
+            throw new IOException(segment == 1 ? "Wrong backup password, or the backup is damaged"
+                    : "The backup is damaged or truncated at segment " + (segment - 1), e);
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("Error during AES-GCM " + (mode == Cipher.ENCRYPT_MODE ? "encryption" : "decryption"), e);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package strategy;
+
+import javax.crypto.Cipher;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Decrypts a stream written by {@link SegmentedAeadOutputStream}. Segments are read and
+ * authenticated one at a time, so only one segment is held in memory and no byte of a segment is
+ * returned before its tag is verified. A stream that was damaged, truncated or extended fails with
+ * an {@link IOException} at the first segment affected.
+ *
+ * <p>The first segment is opened by the constructor, so a wrong password is reported before anything
+ * is read.
+ */
+public class SegmentedAeadInputStream extends InputStream {
+    private final InputStream in;
+    private final SegmentedAead aead;
+    private final byte[] sealed; // one sealed segment and the first byte of the next
+    private final byte[] plain;
+    private int position; // next unread byte of plain
+    private int limit; // end of the plaintext of the current segment
+    private boolean carried; // sealed[0] holds the first byte of the next segment
+    private boolean last; // the final segment has been opened
+
+    /**
+     * Reads the stream header, derives the key from the password and opens the first segment.
+     *
+     * @param in       The stream to read; it is closed with this stream.
+     * @param password The password; it is left unchanged.
+     * @throws IOException If the stream is not a supported backup, or the password is wrong.
+     */
+    public SegmentedAeadInputStream(InputStream in, char[] password) throws IOException {
+        this.in = in;
+        byte[] preamble = new byte[SegmentedAead.PREAMBLE_LENGTH];
+        if (in.readNBytes(preamble, 0, preamble.length) != preamble.length
+                || !Arrays.equals(preamble, 0, SegmentedAead.MAGIC.length, SegmentedAead.MAGIC, 0, SegmentedAead.MAGIC.length)) {
+            throw new IOException("Not a vault backup");
+        }
+        int version = preamble[SegmentedAead.MAGIC.length];
+        if (version != SegmentedAead.VERSION) {
+            throw new IOException("Unsupported backup version " + version);
+        }
+        int rest = ((preamble[preamble.length - 2] & 0xFF) << 8) | (preamble[preamble.length - 1] & 0xFF);
+        if (rest > SegmentedAead.MAX_HEADER_LENGTH) throw new IOException("Malformed backup header");
+        byte[] header = Arrays.copyOf(preamble, preamble.length + rest);
+        if (in.readNBytes(header, preamble.length, rest) != rest) throw new IOException("Truncated backup header");
+        aead = new SegmentedAead(Cipher.DECRYPT_MODE, password, header);
+        sealed = new byte[aead.segmentSize() + SegmentedAead.TAG_LENGTH + 1];
+        plain = new byte[aead.segmentSize()];
+        open();
+    }
+
+    /**
+     * Reads and opens the next segment. Whether it is the final one is told by trying to read one
+     * byte past it, which is carried over to the next segment.
+     */
+    private void open() throws IOException {
+        int start = carried ? 1 : 0;
+        int read = start + in.readNBytes(sealed, start, sealed.length - start);
+        boolean end = read < sealed.length;
+        int sealedLength = end ? read : read - 1;
+        if (sealedLength < SegmentedAead.TAG_LENGTH) throw new IOException("The backup is truncated");
+        Arrays.fill(plain, 0, limit, (byte) 0);
+        limit = aead.process(sealed, sealedLength, plain, end);
+        position = 0;
+        last = end;
+        if (!end) sealed[0] = sealed[read - 1];
+        carried = !end;
+    }
+
+    /**
+     * Makes plaintext available, opening segments as needed.
+     *
+     * @return {@code false} at the end of the final segment.
+     */
+    private boolean fill() throws IOException {
+        while (position == limit) {
+            if (last) return false;
+            open();
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        return fill() ? plain[position++] & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        if (len == 0) return 0;
+        if (!fill()) return -1;
+        int n = Math.min(len, limit - position);
+        System.arraycopy(plain, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return limit - position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        Arrays.fill(plain, (byte) 0);
+        position = limit = 0;
+        last = true;
+        in.close();
+    }
+}
@@ -0,0 +1,111 @@
+package strategy;
+
+import javax.crypto.Cipher;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Encrypts everything written to it into a stream of independently sealed AES-GCM segments, in the
+ * format described in {@link SegmentedAead}, under a key derived from a password. Only one segment
+ * of plaintext is buffered, so a stream of any length is encrypted in constant memory, and each
+ * segment reaches the underlying stream in a single write.
+ *
+ * <p>The final segment is written by {@link #finish()}; a stream closed without it reads back as
+ * truncated, so a failed write never leaves a stream that authenticates as complete.
+ * {@link #flush()} therefore only flushes the segments that are complete.
+ */
+public class SegmentedAeadOutputStream extends OutputStream {
+    private final OutputStream out;
+    private final SegmentedAead aead;
+    private final byte[] plain = new byte[SegmentedAead.SEGMENT_SIZE];
+    private final byte[] sealed = new byte[SegmentedAead.SEGMENT_SIZE + SegmentedAead.TAG_LENGTH];
+    private int length; // plaintext buffered for the next segment
+    private boolean finished;
+    private boolean closed;
+
+    /**
+     * Derives a new key from the password and writes the stream header.
+     *
+     * @param out      The stream to write; it is closed with this stream.
+     * @param password The password; it is left unchanged.
+     * @param kdf      The key derivation parameters, recorded in the header.
+     * @throws IOException If the header cannot be written.
+     */
+    public SegmentedAeadOutputStream(OutputStream out, char[] password, KdfParameters kdf) throws IOException {
+        this.out = out;
+        byte[] header = SegmentedAead.newHeader(kdf, new SecureRandom());
+        this.aead = new SegmentedAead(Cipher.ENCRYPT_MODE, password, header);
+        out.write(header);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        // A full segment is sealed only once more data arrives, since the final one must be marked
+        if (length == plain.length) seal(false);
+        plain[length++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        ensureOpen();
+        while (len > 0) {
+            if (length == plain.length) seal(false);
+            int n = Math.min(len, plain.length - length);
+            System.arraycopy(b, off, plain, length, n);
+            length += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        // Allowed after finish(), as buffering streams above this one flush when they close
+        if (closed) throw new IOException("Stream closed");
+        out.flush();
+    }
+
+    private void seal(boolean last) throws IOException {
+        int sealedLength = aead.process(plain, length, sealed, last);
+        Arrays.fill(plain, 0, length, (byte) 0);
+        length = 0;
+        out.write(sealed, 0, sealedLength);
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) throw new IOException("Stream closed");
+        if (finished) throw new IOException("Stream finished");
+    }
+
+    /**
+     * Seals the buffered plaintext as the final segment and flushes the underlying stream. Nothing
+     * can be written afterwards.
+     *
+     * @throws IOException If the final segment cannot be written.
+     */
+    public void finish() throws IOException {
+        ensureOpen();
+        finished = true;
+        seal(true);
+        out.flush();
+    }
+
+    /**
+     * Closes the underlying stream. Unless {@link #finish()} was called, the buffered plaintext is
+     * discarded and no final segment is written, so the stream reads back as truncated.
+     * Calling it more than once is harmless.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try (out) {
+            Arrays.fill(plain, (byte) 0);
+        }
+    }
+}
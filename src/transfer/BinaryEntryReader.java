@@ -0,0 +1,137 @@
+package transfer;
+
+import model.PasswordEntry;
+import model.PasswordEntryBuilder;
+import storage.VaultCodec;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads entries written by {@link BinaryEntryWriter}, one frame per {@link #next()}.
+ * A frame that does not decode to three non-empty fields is rejected, and so is a stream that
+ * ends before its terminating zero frame.
+ */
+public class BinaryEntryReader implements EntryReader {
+    private static final int MAX_FRAME_LENGTH = 1 << 20;
+
+    private final InputStream in;
+    private byte[] buf = new byte[256];
+    private PasswordEntry next;
+    private boolean eof;
+    private int rejected;
+
+    /**
+     * Constructs a reader and checks the stream header.
+     *
+     * @param in The stream to read; it is closed with this reader.
+     * @throws IOException If the stream is not a binary export of a supported version.
+     */
+    public BinaryEntryReader(InputStream in) throws IOException {
+        this.in = new BufferedInputStream(in);
+        byte[] header = new byte[BinaryEntryWriter.MAGIC.length + 1];
+        if (this.in.readNBytes(header, 0, header.length) != header.length
+                || !Arrays.equals(header, 0, BinaryEntryWriter.MAGIC.length, BinaryEntryWriter.MAGIC, 0, BinaryEntryWriter.MAGIC.length)) {
+            throw new IOException("Not a binary vault export");
+        }
+        if (header[BinaryEntryWriter.MAGIC.length] != BinaryEntryWriter.VERSION) {
+            throw new IOException("Unsupported binary export version " + header[BinaryEntryWriter.MAGIC.length]);
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        try {
+            while (next == null && !eof) {
+                next = readFrame();
+            }
+            return next != null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public PasswordEntry next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        PasswordEntry entry = next;
+        next = null;
+        return entry;
+    }
+
+    @Override
+    public int rejectedCount() {
+        return rejected;
+    }
+
+    private PasswordEntry readFrame() throws IOException {
+        int length = readVarint();
+        if (length == 0) {
+            eof = true;
+            return null;
+        }
+        if (length < 0 || length > MAX_FRAME_LENGTH) {
+            // Either cut off or not framed by us; nothing after this point can be trusted
+            eof = true;
+            rejected++;
+            return null;
+        }
+        if (length > buf.length) {
+            Arrays.fill(buf, (byte) 0);
+            buf = new byte[Math.max(length, buf.length << 1)];
+        }
+        if (in.readNBytes(buf, 0, length) != length) {
+            eof = true;
+            rejected++;
+            return null;
+        }
+        ByteBuffer frame = ByteBuffer.wrap(buf, 0, length);
+        char[] source = null;
+        char[] login = null;
+        char[] password = null;
+        try {
+            source = VaultCodec.getUtf8(frame);
+            login = VaultCodec.getUtf8(frame);
+            password = VaultCodec.getUtf8(frame);
+            if (!frame.hasRemaining() && source.length > 0 && login.length > 0 && password.length > 0) {
+                return new PasswordEntryBuilder()
+                        .setSource(source)
+                        .setLogin(login)
+                        .setPassword(password)
+                        .build();
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            // Rejected below
+        } finally {
+            Arrays.fill(buf, 0, length, (byte) 0);
+        }
+        if (password != null) Arrays.fill(password, '\0');
+        rejected++;
+        return null;
+    }
+
+    /**
+     * Reads the varint frame length.
+     *
+     * @return The length, or {@code -1} if the stream ends before the terminating frame.
+     */
+    private int readVarint() throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.read();
+            if (b < 0) return -1;
+            value |= (b & 0x7F) << shift;
+            if (b < 0x80) return value;
+        }
+        return -1;
+    }
+
+    @Override
+    public void close() throws IOException {
+        Arrays.fill(buf, (byte) 0);
+        in.close();
+    }
+}
@@ -0,0 +1,82 @@
+package transfer;
+
+import model.PasswordEntry;
+import storage.VaultCodec;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+/**
+ * Writes entries in the vault's own compact encoding, unencrypted, for transfer between vaults.
+ *
+ * <p>The stream starts with the magic {@code "SJVX"} and a version byte. Every entry follows as a
+ * varint frame length and a frame holding the UTF-8 source, login and password, each prefixed with
+ * its varint length as in {@link VaultCodec}. A zero frame length ends the stream, so a truncated
+ * file is told apart from a complete one. It is written by {@link #finish()} only, so an export
+ * that fails halfway is never mistaken for a complete one either.
+ */
+public class BinaryEntryWriter implements EntryWriter {
+    static final byte[] MAGIC = {'S', 'J', 'V', 'X'};
+    static final int VERSION = 1;
+
+    private final OutputStream out;
+    private final VaultCodec.Writer frame = new VaultCodec.Writer();
+    private final VaultCodec.Writer prefix = new VaultCodec.Writer();
+    private boolean finished;
+
+    /**
+     * Constructs a writer and writes the stream header.
+     *
+     * @param out The stream to write; it is closed with this writer.
+     * @throws IOException If the header cannot be written.
+     */
+    public BinaryEntryWriter(OutputStream out) throws IOException {
+        this.out = new BufferedOutputStream(out);
+        this.out.write(MAGIC);
+        this.out.write(VERSION);
+    }
+
+    @Override
+    public void write(PasswordEntry entry) throws IOException {
+        char[] password = entry.getPassword();
+        try {
+            frame.putUtf8(entry.sourceView());
+            frame.putUtf8(entry.loginView());
+            frame.putUtf8(CharBuffer.wrap(password));
+            writeVarint(frame.size());
+            out.write(frame.array(), 0, frame.size());
+        } finally {
+            Arrays.fill(password, '\0');
+            frame.reset();
+        }
+    }
+
+    private void writeVarint(int value) throws IOException {
+        prefix.putVarint(value);
+        out.write(prefix.array(), 0, prefix.size());
+        prefix.reset();
+    }
+
+    /**
+     * Writes the zero frame length that ends the stream, and flushes it.
+     */
+    @Override
+    public void finish() throws IOException {
+        if (finished) return;
+        writeVarint(0);
+        out.flush();
+        finished = true;
+    }
+
+    /**
+     * Closes the underlying stream. Unless {@link #finish()} was called, the end of the stream is
+     * left unmarked, so reading it back fails as for a truncated file.
+     */
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
@@ -0,0 +1,179 @@
+package transfer;
+
+import model.PasswordEntry;
+import model.PasswordEntryBuilder;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads {@code source,login,password} rows in RFC 4180 CSV, one row per {@link #next()}.
+ * Quoted fields may contain commas, doubled quotes and line breaks. An optional header row is
+ * skipped, and rows that do not have exactly three non-empty fields are rejected.
+ *
+ * <p>Fields are collected in a reused buffer and copied straight into the entry's character
+ * arrays, so no {@link String} holding a password is ever created.
+ */
+public class CsvEntryReader implements EntryReader {
+    private static final String[] HEADER = {"source", "login", "password"};
+
+    private final Reader in;
+    private final StringBuilder field = new StringBuilder();
+    private final List<char[]> row = new ArrayList<>(3);
+    private PasswordEntry next;
+    private boolean firstRow = true;
+    private boolean eof;
+    private int rejected;
+
+    /**
+     * Constructs a reader over UTF-8 encoded CSV.
+     *
+     * @param in The stream to read; it is closed with this reader.
+     */
+    public CsvEntryReader(InputStream in) {
+        this.in = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public boolean hasNext() {
+        try {
+            while (next == null && !eof) {
+                if (readRow()) {
+                    next = toEntry();
+                }
+                clearRow();
+            }
+            return next != null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public PasswordEntry next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        PasswordEntry entry = next;
+        next = null;
+        return entry;
+    }
+
+    @Override
+    public int rejectedCount() {
+        return rejected;
+    }
+
+    /**
+     * Parses the next row into {@link #row}.
+     *
+     * @return {@code false} if the row is blank.
+     */
+    private boolean readRow() throws IOException {
+        boolean quoted = false;
+        boolean blank = true;
+        int c;
+        while ((c = in.read()) >= 0) {
+            if (quoted) {
+                if (c != '"') {
+                    field.append((char) c);
+                } else {
+                    in.mark(1);
+                    if (in.read() == '"') {
+                        field.append('"');
+                    } else {
+                        in.reset();
+                        quoted = false;
+                    }
+                }
+                continue;
+            }
+            if (c == '\r' || c == '\n') {
+                if (c == '\r') {
+                    in.mark(1);
+                    if (in.read() != '\n') in.reset();
+                }
+                if (blank) return false;
+                endField();
+                return true;
+            }
+            blank = false;
+            if (c == '"' && field.length() == 0) {
+                quoted = true;
+            } else if (c == ',') {
+                endField();
+            } else {
+                field.append((char) c);
+            }
+        }
+        eof = true;
+        if (blank) return false;
+        // A quote left open at the end of the input makes the row unusable
+        if (quoted) {
+            wipe(field);
+            rejected++;
+            return false;
+        }
+        endField();
+        return true;
+    }
+
+    private void endField() {
+        char[] value = new char[field.length()];
+        field.getChars(0, value.length, value, 0);
+        wipe(field);
+        row.add(value);
+    }
+
+    private PasswordEntry toEntry() {
+        boolean header = firstRow && isHeader();
+        firstRow = false;
+        if (header) return null;
+        if (row.size() != 3 || row.get(0).length == 0 || row.get(1).length == 0 || row.get(2).length == 0) {
+            rejected++;
+            return null;
+        }
+        // The builder keeps the arrays, so they are taken out of the row before it is cleared
+        PasswordEntry entry = new PasswordEntryBuilder()
+                .setSource(row.get(0))
+                .setLogin(row.get(1))
+                .setPassword(row.get(2))
+                .build();
+        row.clear();
+        return entry;
+    }
+
+    private boolean isHeader() {
+        if (row.size() != HEADER.length) return false;
+        for (int i = 0; i < HEADER.length; i++) {
+            char[] value = row.get(i);
+            if (value.length != HEADER[i].length()) return false;
+            for (int j = 0; j < value.length; j++) {
+                if (Character.toLowerCase(value[j]) != HEADER[i].charAt(j)) return false;
+            }
+        }
+        return true;
+    }
+
+    private void clearRow() {
+        for (char[] value : row) {
+            Arrays.fill(value, '\0');
+        }
+        row.clear();
+    }
+
+    private static void wipe(StringBuilder sb) {
+        for (int i = 0; i < sb.length(); i++) {
+            sb.setCharAt(i, '\0');
+        }
+        sb.setLength(0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        clearRow();
+        in.close();
+    }
+}
@@ -0,0 +1,80 @@
+package transfer;
+
+import model.PasswordEntry;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Writes entries as UTF-8 {@code source,login,password} rows after a header row.
+ * Fields containing a comma, a quote, a line break or surrounding spaces are quoted.
+ */
+public class CsvEntryWriter implements EntryWriter {
+    private final Writer out;
+
+    /**
+     * Constructs a writer and writes the header row.
+     *
+     * @param out The stream to write; it is closed with this writer.
+     * @throws IOException If the header cannot be written.
+     */
+    public CsvEntryWriter(OutputStream out) throws IOException {
+        this.out = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        this.out.write("source,login,password\r\n");
+    }
+
+    @Override
+    public void write(PasswordEntry entry) throws IOException {
+        writeField(entry.getSource());
+        out.write(',');
+        writeField(entry.getLogin());
+        out.write(',');
+        char[] password = entry.getPassword();
+        try {
+            writeField(password);
+        } finally {
+            Arrays.fill(password, '\0');
+        }
+        out.write("\r\n");
+    }
+
+    private void writeField(char[] value) throws IOException {
+        if (!needsQuotes(value)) {
+            out.write(value);
+            return;
+        }
+        out.write('"');
+        int start = 0;
+        for (int i = 0; i < value.length; i++) {
+            if (value[i] == '"') {
+                // Doubles the quote by writing it again at the start of the next run
+                out.write(value, start, i + 1 - start);
+                start = i;
+            }
+        }
+        out.write(value, start, value.length - start);
+        out.write('"');
+    }
+
+    private static boolean needsQuotes(char[] value) {
+        if (value.length > 0 && (value[0] == ' ' || value[value.length - 1] == ' ')) return true;
+        for (char c : value) {
+            if (c == ',' || c == '"' || c == '\r' || c == '\n') return true;
+        }
+        return false;
+    }
+
+    /**
+     * Flushes the rows. CSV has no end marker, so a truncated export cannot be recognized.
+     */
+    @Override
+    public void finish() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
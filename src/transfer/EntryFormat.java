@@ -0,0 +1,53 @@
+package transfer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * File formats supported by bulk import and export.
+ */
+public enum EntryFormat {
+    /** Comma-separated {@code source,login,password} rows as written by most password managers. */
+    CSV {
+        @Override
+        public EntryReader openReader(InputStream in) {
+            return new CsvEntryReader(in);
+        }
+
+        @Override
+        public EntryWriter openWriter(OutputStream out) throws IOException {
+            return new CsvEntryWriter(out);
+        }
+    },
+    /** Length-prefixed records in the vault's own compact encoding. */
+    BINARY {
+        @Override
+        public EntryReader openReader(InputStream in) throws IOException {
+            return new BinaryEntryReader(in);
+        }
+
+        @Override
+        public EntryWriter openWriter(OutputStream out) throws IOException {
+            return new BinaryEntryWriter(out);
+        }
+    };
+
+    /**
+     * Opens a reader over the stream; closing the reader closes the stream.
+     *
+     * @param in The stream to import from.
+     * @return The reader.
+     * @throws IOException If the stream does not start like this format.
+     */
+    public abstract EntryReader openReader(InputStream in) throws IOException;
+
+    /**
+     * Opens a writer over the stream; closing the writer closes the stream.
+     *
+     * @param out The stream to export to.
+     * @return The writer.
+     * @throws IOException If the stream cannot be written.
+     */
+    public abstract EntryWriter openWriter(OutputStream out) throws IOException;
+}
@@ -0,0 +1,20 @@
+package transfer;
+
+import model.PasswordEntry;
+
+import java.io.Closeable;
+import java.util.Iterator;
+
+/**
+ * Lazily parses password entries from an import source, one record per {@link #next()}.
+ * Records that cannot be parsed are skipped and counted instead of ending the import.
+ * I/O errors surface as {@link java.io.UncheckedIOException} from {@link #hasNext()}.
+ */
+public interface EntryReader extends Iterator<PasswordEntry>, Closeable {
+    /**
+     * Returns the number of records skipped so far because they were malformed or incomplete.
+     *
+     * @return The number of rejected records.
+     */
+    int rejectedCount();
+}
@@ -0,0 +1,28 @@
+package transfer;
+
+import model.PasswordEntry;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Writes password entries, passwords included in plaintext, to an export destination.
+ */
+public interface EntryWriter extends Closeable {
+    /**
+     * Writes one entry. Its password is decrypted for the write and cleared afterwards.
+     *
+     * @param entry The entry to write.
+     * @throws IOException If the destination cannot be written.
+     */
+    void write(PasswordEntry entry) throws IOException;
+
+    /**
+     * Completes the export once every entry is written, and flushes it. An export closed without
+     * being finished is abandoned: formats that mark their end leave it unmarked, so it is not taken
+     * for a complete export.
+     *
+     * @throws IOException If the destination cannot be written.
+     */
+    void finish() throws IOException;
+}
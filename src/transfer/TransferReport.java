@@ -0,0 +1,52 @@
+package transfer;
+
+import java.util.Locale;
+
+/**
+ * Outcome of a bulk import or export.
+ */
+public final class TransferReport {
+    private final int entries;
+    private final int rejected;
+    private final long elapsedNanos;
+
+    public TransferReport(int entries, int rejected, long elapsedNanos) {
+        this.entries = entries;
+        this.rejected = rejected;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * @return The number of entries imported or exported.
+     */
+    public int getEntries() {
+        return entries;
+    }
+
+    /**
+     * @return The number of records skipped because they could not be parsed.
+     */
+    public int getRejected() {
+        return rejected;
+    }
+
+    /**
+     * @return The wall-clock time of the transfer, including the final save of an import.
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * @return The throughput in entries per second.
+     */
+    public double getEntriesPerSecond() {
+        return elapsedNanos == 0 ? 0 : entries * 1e9 / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "%d entries, %d rejected, %.3f s, %.0f entries/s",
+                entries, rejected, elapsedNanos / 1e9, getEntriesPerSecond());
+    }
+}